@@ -1,5 +1,6 @@
 package com.chat.controller;
 
+import com.chat.controller.PeerRegistry.PeerLink;
 import com.chat.model.Avatar;
 import com.chat.model.ChatSession;
 import com.chat.model.Message;
@@ -9,20 +10,33 @@ import com.chat.model.User;
 import com.chat.network.api.UserClient;
 import com.chat.network.socket.ChatClient;
 import com.chat.network.socket.ChatServer;
+import com.chat.network.socket.ConnectionExecutor;
+import com.chat.network.socket.InboundPipeline;
+import com.chat.network.socket.InboundPipeline.Stage;
 import com.chat.network.socket.PeerConnection;
+import com.chat.network.transfer.FileTransferReceiver;
+import com.chat.network.transfer.FileTransferReceiver.IncomingTransfer;
+import com.chat.network.transfer.FileTransferSender;
+import com.chat.network.transfer.TransferScheduler;
+import com.chat.network.transfer.TransferScheduler.OutgoingTransfer;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFileChooser;
-import javax.swing.SwingUtilities;
+
+import static com.chat.utils.Constants.COMPRESSION_ALGORITHM;
+import static com.chat.utils.Constants.DELIVERY_ACK_DELAY_MILLIS;
 
 public class ChatManager {
 
@@ -30,16 +44,20 @@ public class ChatManager {
     private static ChatManager instance;                    // Singleton
     
     private ViewManager viewManager;                        // View Manager
+    private UiEventBus uiEvents;                            // Actualizaciones de la interfaz, agrupadas por fotograma
     
-    private Map<String, PeerConnection> connections;        // Conexiones de Peers activas
-    private Map<String, ChatClient> chatClients;            // Conexiones a Peers activas
-    private Map<String, User> contacts;                     // Lista de contactos
-    private Map<String, String> contactIdToPeerIdMap;       // Mapa que relaciona el ID de un contacto con el ID de su Peer
+    private PeerRegistry peerRegistry;                      // Contactos y conexiones Peer activas
+    private ReconnectManager reconnectManager;              // Recuperación de las conexiones caídas
     
     private PeerConnection actualPeer;                      // Conexión Peer con la que se está chateando actualmente
     private Map<String, ChatSession> chatSessions;          // Sesiones de Chat activas
+    private Map<String, DeliveryTracker> deliveryTrackers;  // Control de entrega por ID del contacto
+    private FileTransferReceiver fileTransferReceiver;      // Recepción de archivos por fragmentos
+    private FileTransferSender fileTransferSender;          // Envío de archivos y envíos cortados por reanudar
+    private TransferScheduler transferScheduler;            // Cola y límite de los envíos de archivos
     
     private int localPort;                                  // Puerto local
+    private final AtomicBoolean loadingHistory = new AtomicBoolean();  // Hay una página del historial cargándose
 
     /** Constructor privado Singleton **/
     private ChatManager() {
@@ -62,12 +80,14 @@ public class ChatManager {
     private void initializeProperties() {
         this.localPort = 0;
         
-        this.connections = new ConcurrentHashMap<>();
-        this.chatClients = new ConcurrentHashMap<>();
-        this.contacts = new ConcurrentHashMap<>();
-        this.contactIdToPeerIdMap = new ConcurrentHashMap<>();
+        this.peerRegistry = new PeerRegistry();
+        this.reconnectManager = new ReconnectManager(this);
         
         this.chatSessions = new ConcurrentHashMap<>();
+        this.deliveryTrackers = new ConcurrentHashMap<>();
+        this.fileTransferReceiver = new FileTransferReceiver();
+        this.fileTransferSender = new FileTransferSender();
+        this.transferScheduler = new TransferScheduler(transfer -> uiEvents.showMessage("Envío terminado: " + transfer));
         
         switch (OSIdentifier()) {
             case "windows":
@@ -79,6 +99,8 @@ public class ChatManager {
             default:
                 throw new UnsupportedOperationException("Sistema operativo no soportado: " + OSIdentifier());
         }
+        
+        this.uiEvents = new UiEventBus(viewManager);
     }
     
     /**
@@ -87,6 +109,44 @@ public class ChatManager {
      */
     public ViewManager getViewmanager() { return this.viewManager; }
     
+    /**
+     * Reúne en un informe las métricas de red, entrega, transferencias, interfaz y caché de la API.
+     * La entrega de cada contacto incluye la latencia hasta la confirmación y lo perdido o repetido
+     * @return Una línea por componente
+     */
+    public String getStatsReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Ejecutor de red: ").append(ConnectionExecutor.getInstance().getStats()).append('\n');
+        report.append("Mensajes recibidos: ").append(InboundPipeline.getInstance().getStats()).append('\n');
+        report.append("Envíos de archivos: ").append(transferScheduler.getStats()).append('\n');
+        report.append("Reconexiones: ").append(reconnectManager.getStats()).append('\n');
+        report.append("Interfaz: ").append(uiEvents.getStats()).append('\n');
+        report.append("Caché de usuarios: ").append(UserClient.getInstance().getUserCacheStats()).append('\n');
+        report.append("Caché de contactos: ").append(UserClient.getInstance().getContactsCacheStats()).append('\n');
+
+        for (User contact : peerRegistry.getContacts()) {
+            String peerId = peerRegistry.getPeerIdByContactId(contact.getUserId());
+            PeerConnection connection = peerId != null ? peerRegistry.getConnection(peerId) : null;
+            if (connection != null) {
+                double roundTrip = connection.getRoundTripMillis();
+                report.append("Latencia con ").append(contact.getUsername()).append(": ")
+                      .append(roundTrip < 0 ? "sin medir" : String.format("%.1f ms ida y vuelta", roundTrip)).append('\n');
+                report.append("Compresión con ").append(contact.getUsername()).append(": ")
+                      .append(connection.getCompressionStats()).append('\n');
+            } else if (reconnectManager.isSuspended(contact.getUserId())) {
+                report.append("Sesión con ").append(contact.getUsername()).append(": a la espera de reanudarse\n");
+            }
+
+            DeliveryTracker tracker = deliveryTrackers.get(contact.getUserId());
+            if (tracker != null) {
+                report.append("Entrega a ").append(contact.getUsername()).append(": ")
+                      .append(tracker.getStats()).append('\n');
+            }
+        }
+
+        return report.toString();
+    }
+    
     /**
      * Identifica el sistema operativo actual del usuario
      * 
@@ -174,7 +234,7 @@ public class ChatManager {
                 }
             });
         } catch (IOException e) {
-            viewManager.showErrorMessage("Error al crear avatar: " + e.getMessage());
+            uiEvents.showErrorMessage("Error al crear avatar: " + e.getMessage());
         }
     }
     
@@ -190,15 +250,15 @@ public class ChatManager {
         String contactId = ip + ":" + port;
         
         if (isContact(contactId)) {
-            viewManager.showMessage(contactId + " ya está agregado como contacto");
+            uiEvents.showMessage(contactId + " ya está agregado como contacto");
             return;
         }
         
-        viewManager.showMessage("Conectando con " + contactId + "...");
+        uiEvents.showMessage("Conectando con " + contactId + "...");
         
-        new Thread(() -> {
+        ConnectionExecutor.getInstance().execute(() -> {
             connectToPeer(ip, port);
-        }).start();
+        });
     }
 
     /**
@@ -209,13 +269,13 @@ public class ChatManager {
         UserClient.getInstance().addUser(user, new UserClient.UserCallback<User>() {
             @Override
             public void onSuccess(User result) {
-                viewManager.showMessage("Has sido registrado con éxito. Tu ID de acceso es: " + user.getUserId());
+                uiEvents.showMessage("Has sido registrado con éxito. Tu ID de acceso es: " + user.getUserId());
                 loadData(result);
             }
 
             @Override
             public void onError(String errorMessage) {
-                viewManager.showErrorMessage("Error en el registro: " + errorMessage);
+                uiEvents.showErrorMessage("Error en el registro: " + errorMessage);
             }
         });
     }
@@ -226,31 +286,21 @@ public class ChatManager {
      * @param peerConnection Conexión Peer
      */
     public void handleConnectionFromPeer(String peerId, PeerConnection peerConnection) {
-        if (connections.containsKey(peerId)) {
+        PeerLink previous = peerRegistry.registerConnection(peerId, peerConnection, null);
+        if (previous != null) {
             try {
-                PeerConnection existingConnection = connections.get(peerId);
-                if (existingConnection != null && existingConnection.isConnected()) {
+                PeerConnection existingConnection = previous.connection();
+                if (existingConnection != null && existingConnection != peerConnection && existingConnection.isConnected()) {
                     existingConnection.close();
                 }
             } catch (Exception e) {
                 System.out.println("Error al cerrar conexión existente: " + e.getMessage());
             }
-
-            connections.put(peerId, peerConnection);
-        } else {
-            connections.put(peerId, peerConnection);
         }
 
-        viewManager.showMessage("Conexión externa desde " + peerId);
-
-        try {
-            User currentUser = User.getCurrentUser();
-            Message userInfo = Message.createUserInfoMessage(currentUser);
-
-            peerConnection.sendMessage(userInfo);
-        } catch(IOException ex) {
-            System.out.println("Error enviando información de usuario: " + ex.getMessage());
-        }
+        // No se envía USER_INFO todavía: si el Peer viene a reanudar una sesión
+        // manda un RESUME y no hace falta repetir el intercambio
+        uiEvents.showMessage("Conexión externa desde " + peerId);
     }
 
     /**
@@ -261,21 +311,16 @@ public class ChatManager {
     public void handleConnectionToPeer(String ip, Integer port) {
         String contactId = ip + ":" + port;
     
-        new Thread(() -> {
+        ConnectionExecutor.getInstance().execute(() -> {
             boolean success = connectToPeer(ip, port);
 
             if (success) {
                 if(isContact(contactId)){
-                    String existingPeerId = contactIdToPeerIdMap.get(contactId);
-                    if (existingPeerId != null) {
-                        viewManager.updateContactPanel(contactId, existingPeerId, true);
-                    } else {
-                        contactIdToPeerIdMap.put(contactId, contactId);
-                        viewManager.updateContactPanel(contactId, contactId, true);
-                    }
+                    String existingPeerId = peerRegistry.getPeerIdByContactId(contactId);
+                    uiEvents.updateContactPanel(contactId, existingPeerId != null ? existingPeerId : contactId, true);
                 }
             }
-        }).start();
+        });
     }
     
     /**
@@ -293,13 +338,13 @@ public class ChatManager {
 
             registerNewConnection(contactId, chatClient);
 
-            viewManager.showMessage("Conectado exitosamente a " + contactId);
+            uiEvents.showMessage("Conectado exitosamente a " + contactId);
 
             sendInfoUserMessage(chatClient.getPeerConnection());
 
             return true;
         } catch(IOException e) {
-            viewManager.showErrorMessage("No se ha podido realizar la conexión: " + e.getMessage());
+            uiEvents.showErrorMessage("No se ha podido realizar la conexión: " + e.getMessage());
             return false;
         }
     }
@@ -312,68 +357,63 @@ public class ChatManager {
      */
     public void handleDisconnection(String contactId, String peerId) {
         try {
-            String actualPeerId = contactIdToPeerIdMap.getOrDefault(contactId, peerId);
+            String registeredPeerId = peerRegistry.getPeerIdByContactId(contactId);
+            String actualPeerId = registeredPeerId != null ? registeredPeerId : peerId;
 
             try {
-                ChatClient chatClient = chatClients.get(contactId);
-                if (chatClient == null) {
-                    chatClient = chatClients.get(actualPeerId);
-                }
+                // Se elimina el enlace antes de cerrar para que el cierre no se tome como una caída
+                reconnectManager.cancel(contactId);
+                PeerLink link = peerRegistry.unregisterPeer(actualPeerId);
+                peerRegistry.unregisterContact(contactId);
+                PeerConnection connection = link != null ? link.connection() : null;
 
-                if (chatClient != null && chatClient.getPeerConnection() != null) {
+                if (connection != null) {
                     try {
-                        if (chatClient.getPeerConnection().isConnected()) {
+                        if (connection.isConnected()) {
                             User currentUser = User.getCurrentUser();
                             Message disconnectMessage = Message.createDisconnectionMessage(currentUser);
-                            chatClient.getPeerConnection().sendMessage(disconnectMessage);
+                            connection.sendMessage(disconnectMessage);
                         }
                     } catch (Exception e) {
                         System.out.println("La conexión ya estaba cerrada: " + e.getMessage());
                     }
 
-                    chatClient.disconnect();
-                } else {
-                    PeerConnection connection = connections.get(actualPeerId);
-                    if (connection != null) {
-                        try {
-                            if (connection.isConnected()) {
-                                User currentUser = User.getCurrentUser();
-                                Message disconnectMessage = Message.createDisconnectionMessage(currentUser);
-                                connection.sendMessage(disconnectMessage);
-                            }
-                        } catch (Exception e) {
-                            System.out.println("La conexión ya estaba cerrada: " + e.getMessage());
-                        }
-
+                    if (link.chatClient() != null) {
+                        link.chatClient().disconnect();
+                    } else {
                         connection.close();
                     }
                 }
             } catch (Exception e) {
                 System.out.println("Error al intentar desconectar: " + e.getMessage());
             } finally {
-                connections.remove(actualPeerId);
-                chatClients.remove(contactId);
-                chatClients.remove(actualPeerId);
-                contactIdToPeerIdMap.remove(contactId);
+                fileTransferReceiver.suspendTransfers(actualPeerId);
+                peerRegistry.unregisterPeer(actualPeerId);
+                peerRegistry.unregisterContact(contactId);
                 chatSessions.remove(User.getCurrentUser().getUserId() + ":" + contactId);
+                deliveryTrackers.remove(contactId);
+                fileTransferSender.takeInterrupted(contactId);
+                transferScheduler.cancel(contactId);
                 
                 if (actualPeer != null && (actualPeer.getPeerId().equals(peerId) || actualPeer.getPeerId().equals(actualPeerId))) {
                     actualPeer = null;
-                    viewManager.showMessage("Desconexión realizada. No tienes ningún chat seleccionado");
-                    viewManager.setContactPanelAsSelected(null);
+                    uiEvents.showMessage("Desconexión realizada. No tienes ningún chat seleccionado");
+                    uiEvents.setContactPanelAsSelected(null);
                 } else {
-                    viewManager.showMessage("Desconexión realizada");
+                    uiEvents.showMessage("Desconexión realizada");
                 }
 
-                viewManager.updateContactPanel(contactId, actualPeerId, false);
+                uiEvents.updateContactPanel(contactId, actualPeerId, false);
             }
         } catch (Exception ex) {
-            viewManager.showErrorMessage("Error al realizar la desconexión con " + contactId);
+            uiEvents.showErrorMessage("Error al realizar la desconexión con " + contactId);
         }
     }
     
     /**
-     * Gestiona la entrada de un mensaje
+     * Gestiona la entrada de un mensaje.
+     * Lo llama la {@link InboundPipeline} desde la cola de la sesión: los archivos desde la de disco
+     * y todo lo demás desde la de estado, cada una en orden de llegada
      *
      * @param peerId
      * @param message Mensaje recibido
@@ -381,6 +421,7 @@ public class ChatManager {
     public void handleMessageReceived(String peerId, Message message) {
         switch (message.getType()) {
             case USER_INFO:
+                negotiateCompression(peerId, message);
                 handleUserInfoMessageReceived(peerId, message);
                 break;
             case CONNECTION:
@@ -390,14 +431,91 @@ public class ChatManager {
                 handleDisconnectionMessageReceived(peerId, message);
                 break;
             case TEXT:
-                handleTextMessageReceived(peerId, message);
+                handleSequencedMessageReceived(peerId, message);
                 break;
             case FILE:
                 handleFileMessageReceived(peerId, message);
                 break;
+            case FILE_CHUNK:
+                handleFileChunkReceived(peerId, message);
+                break;
+            case FILE_DATA:
+                handleFileDataReceived(peerId, message);
+                break;
+            case FILE_ACCEPT:
+                fileTransferSender.handleAccept(message);
+                break;
             case SYSTEM:
-                viewManager.showMessage("Mensaje del sistema: " + message.getContent());
+                uiEvents.showMessage("Mensaje del sistema: " + message.getContent());
                 break;
+            case RESUME:
+                negotiateCompression(peerId, message);
+                handleResumeMessageReceived(peerId, message);
+                break;
+            case ACK:
+                handleAckMessageReceived(peerId, message);
+                break;
+        }
+    }
+
+    /**
+     * Gestiona la recepción de un mensaje numerado: descarta los repetidos, entrega
+     * los demás en orden y programa el ACK acumulado
+     * 
+     * @param peerId ID del Peer que envía el mensaje
+     * @param message Mensaje recibido
+     */
+    private void handleSequencedMessageReceived(String peerId, Message message) {
+        User contact = getContactByPeerId(peerId);
+        if (contact == null || message.getEpoch() == 0) {
+            handleTextMessageReceived(peerId, message);
+            return;
+        }
+
+        String contactId = contact.getUserId();
+        DeliveryTracker tracker = getDeliveryTracker(contactId);
+
+        for (Message ready : tracker.receive(message)) {
+            handleTextMessageReceived(peerId, ready);
+        }
+
+        if (tracker.scheduleAck()) {
+            CompletableFuture.delayedExecutor(DELIVERY_ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS, ConnectionExecutor.getInstance()::execute)
+                    .execute(() -> sendAck(contactId, tracker));
+        }
+    }
+
+    /**
+     * Envía el ACK acumulado de un contacto por su conexión actual
+     * 
+     * @param contactId ID del contacto
+     * @param tracker Control de entrega del contacto
+     */
+    private void sendAck(String contactId, DeliveryTracker tracker) {
+        Message ack = tracker.createAck();
+        PeerConnection connection = peerRegistry.getConnection(peerRegistry.getPeerIdByContactId(contactId));
+        if (ack == null || connection == null) return;
+
+        try {
+            connection.send(ack);
+        } catch (IllegalStateException ex) {
+            // Sin conexión: se vuelve a confirmar con el siguiente mensaje tras reanudar
+        }
+    }
+
+    /**
+     * Gestiona la recepción de un ACK, liberando los mensajes confirmados
+     * 
+     * @param peerId ID del Peer que envía el mensaje
+     * @param message Mensaje recibido
+     */
+    private void handleAckMessageReceived(String peerId, Message message) {
+        User contact = getContactByPeerId(peerId);
+        if (contact == null) return;
+
+        DeliveryTracker tracker = deliveryTrackers.get(contact.getUserId());
+        if (tracker != null) {
+            tracker.acknowledge(message);
         }
     }
     
@@ -414,11 +532,35 @@ public class ChatManager {
         String contactId = contactUser.getUserId();
         String currentUserId = User.getCurrentUser().getUserId();
         
-        contactIdToPeerIdMap.put(contactId, peerId);
+        // Si la sesión esperaba una reconexión, se reanuda en esta conexión
+        String previousPeerId = peerRegistry.getPeerIdByContactId(contactId);
+        List<Message> pending = reconnectManager.resume(contactId);
+        if (pending != null && previousPeerId != null && !previousPeerId.equals(peerId)) {
+            peerRegistry.unregisterPeer(previousPeerId);
+        }
+
+        peerRegistry.bindContact(contactId, peerId);
         chatSessions.put(currentUserId + ":" + contactId, getOrCreateChatSession(contactId));
 
+        // Una sesión nueva empieza la numeración; la que se reanuda la conserva
+        if (pending == null && !peerRegistry.isOutbound(peerId)) {
+            getDeliveryTracker(contactId).reset();
+        }
+
+        if (pending != null) {
+            resumeSession(contactId, previousPeerId, peerRegistry.getConnection(peerId), pending);
+        }
+
+        // El lado que acepta la conexión responde con su información al primer mensaje
+        if (!peerRegistry.isOutbound(peerId)) {
+            PeerConnection conn = peerRegistry.getConnection(peerId);
+            if (conn != null) {
+                sendInfoUserMessage(conn);
+            }
+        }
+
         if (isContact(contactId)){
-            viewManager.updateContactPanel(contactId, peerId, true);
+            uiEvents.updateContactPanel(contactId, peerId, true);
             return;
         }
 
@@ -428,35 +570,71 @@ public class ChatManager {
             new UserClient.UserCallback<User>() {
                 @Override
                 public void onSuccess(User result) {
-                    contacts.put(contactId, result);
-
-                    
-                    if (!chatClients.containsKey(peerId)) {
-                        PeerConnection conn = connections.get(peerId);
-                        if (conn != null) {
-                            try {
-                                User currentUser = User.getCurrentUser();
-                                Message userInfoMessage = Message.createUserInfoMessage(currentUser);
-                                
-                                conn.sendMessage(userInfoMessage);
-                            } catch (IOException e) {
-                                viewManager.showErrorMessage("Error al enviar información de usuario: " + e.getMessage());
-                            }
-                        }
-                    }
+                    peerRegistry.addContact(result);
                     
-                    viewManager.createContactPanel(result, peerId);
-                    viewManager.showMessage("Contacto añadido: " + result.getUsername());
+                    uiEvents.createContactPanel(result, peerId);
+                    uiEvents.showMessage("Contacto añadido: " + result.getUsername());
                 }
 
                 @Override
                 public void onError(String errorMessage) {
-                    viewManager.showErrorMessage("Error al añadir contacto: " + errorMessage);
+                    uiEvents.showErrorMessage("Error al añadir contacto: " + errorMessage);
                 }
             }
         );
     }
     
+    /**
+     * Activa la compresión de lo que se envía a un Peer si ha anunciado en su USER_INFO
+     * o RESUME que sabe descomprimirla. Cada lado decide por su cuenta según lo que anuncia el otro
+     * 
+     * @param peerId ID del Peer que envía el mensaje
+     * @param message Mensaje recibido
+     */
+    private void negotiateCompression(String peerId, Message message) {
+        Object offered = message.getFileData().get("compression");
+        if (offered == null || !List.of(offered.toString().split(",")).contains(COMPRESSION_ALGORITHM)) return;
+
+        PeerConnection connection = peerRegistry.getConnection(peerId);
+        if (connection != null && !connection.isCompressionEnabled() && connection.enableCompression()) {
+            System.out.println("Compresión " + COMPRESSION_ALGORITHM + " activada con " + peerId);
+        }
+    }
+    
+    /**
+     * Gestiona la recepción de un mensaje de reanudación: el Peer ha vuelto a conectar tras
+     * una caída y la sesión sigue abierta, así que se asocia a la nueva conexión sin
+     * repetir el intercambio de USER_INFO. Si ya no hay sesión se trata como una conexión nueva
+     * 
+     * @param peerId ID del Peer que envía el mensaje
+     * @param message Mensaje recibido
+     */
+    private void handleResumeMessageReceived(String peerId, Message message) {
+        User contactUser = message.getUserData();
+        String contactId = contactUser.getUserId();
+        String sessionId = User.getCurrentUser().getUserId() + ":" + contactId;
+
+        List<Message> pending = reconnectManager.resume(contactId);
+        if (pending == null && (!isContact(contactId) || !chatSessions.containsKey(sessionId))) {
+            handleUserInfoMessageReceived(peerId, message);
+            return;
+        }
+
+        // Si aún no se había detectado la caída, la conexión anterior se descarta
+        String previousPeerId = peerRegistry.getPeerIdByContactId(contactId);
+        if (previousPeerId != null && !previousPeerId.equals(peerId)) {
+            PeerLink previous = peerRegistry.unregisterPeer(previousPeerId);
+            fileTransferReceiver.suspendTransfers(previousPeerId);
+
+            if (previous != null && previous.connection() != null) {
+                previous.connection().close();
+            }
+        }
+
+        peerRegistry.bindContact(contactId, peerId);
+        resumeSession(contactId, previousPeerId, peerRegistry.getConnection(peerId), pending);
+    }
+
     /**
      * Gestiona la recepción de un mensaje de conexión externa, actualizando la interfaz
      * 
@@ -466,8 +644,8 @@ public class ChatManager {
     private void handleConnectionMessageReceived(String peerId, Message message) {
         User contactUser = message.getUserData();
         
-        viewManager.updateContactPanel(contactUser.getUserId(), peerId, true);
-        viewManager.showMessage(contactUser.getUsername() + " se acaba de conectar. Conexión establecida");
+        uiEvents.updateContactPanel(contactUser.getUserId(), peerId, true);
+        uiEvents.showMessage(contactUser.getUsername() + " se acaba de conectar. Conexión establecida");
     }
     
     /**
@@ -480,34 +658,23 @@ public class ChatManager {
         User contactUser = message.getUserData();
         String contactId = contactUser.getUserId();
 
-        connections.remove(peerId);
-
-        ChatClient chatClient = chatClients.get(peerId);
-        if (chatClient != null) {
-            chatClients.remove(peerId);
-        }
+        fileTransferReceiver.suspendTransfers(peerId);
+        reconnectManager.cancel(contactId);
+        peerRegistry.unregisterPeer(peerId);
+        peerRegistry.unregisterContact(contactId);
 
-        chatClient = chatClients.get(contactId);
-        if (chatClient != null) {
-            chatClients.remove(contactId);
-        }
-        
-        String chatSessionId = User.getCurrentUser().getUserId() + ":" + contactId;
-        ChatSession chatSession = chatSessions.get(chatSessionId);
-        if (chatSession != null){
-            chatSessions.remove(chatSessionId);
-        }
-
-        contactIdToPeerIdMap.remove(contactId);
         chatSessions.remove(User.getCurrentUser().getUserId() + ":" + contactId);
+        deliveryTrackers.remove(contactId);
+        fileTransferSender.takeInterrupted(contactId);
+        transferScheduler.cancel(contactId);
         
-        viewManager.updateContactPanel(contactId, peerId, false);
+        uiEvents.updateContactPanel(contactId, peerId, false);
         if (actualPeer != null && actualPeer.getPeerId().equals(peerId)){
             actualPeer = null;
-            viewManager.showMessage(contactUser.getUsername() + " se ha desconectado. No tienes ningun chat seleccionado");
-            viewManager.setContactPanelAsSelected(null);
+            uiEvents.showMessage(contactUser.getUsername() + " se ha desconectado. No tienes ningun chat seleccionado");
+            uiEvents.setContactPanelAsSelected(null);
         } else {
-            viewManager.showMessage(contactUser.getUsername() + " se ha desconectado.");
+            uiEvents.showMessage(contactUser.getUsername() + " se ha desconectado.");
         }
     }
     
@@ -524,73 +691,121 @@ public class ChatManager {
         MessageEntry messageEntry = new MessageEntry(contact, message);
         chatSession.addMessage(contact, messageEntry);
         
-        PeerConnection peerConnection = connections.get(peerId);
+        PeerConnection peerConnection = peerRegistry.getConnection(peerId);
         if (actualPeer != null && peerConnection.equals(actualPeer)) {
-            if (viewManager instanceof ConsoleController c) {
-                List<MessageEntry> messageHistory = chatSession.getMessageHistory();
-                viewManager.displayChat(messageHistory);
-            } else {
-                viewManager.displayTextMessage(messageEntry);
-            }
+            uiEvents.displayMessage(messageEntry);
         }
     }
     
     /**
-     * Gestiona la recepción de un mensaje de archivo, actualizando la interfaz
+     * Gestiona la recepción del anuncio de un archivo, preparando su descarga o reanudándola.
+     * Se responde con los bloques que ya se tienen y el contenido que falta llega después en fragmentos
      * 
      * @param message Mensaje recibido
      * @param peerId ID del Peer que ha enviuado el mensaje
      */
     private void handleFileMessageReceived(String peerId, Message message) {
-        User contact = getContactByPeerId(peerId);
+        try {
+            IncomingTransfer transfer = fileTransferReceiver.startTransfer(peerId, message);
 
-        byte[] fileBytes = message.getFileContent();
-        String fileName = (String) message.getFileData().get("name");
-        if (fileName == null) {
-            fileName = "archivo_desconocido_" + System.currentTimeMillis();
-        }
+            PeerConnection connection = peerRegistry.getConnection(peerId);
+            if (connection != null) {
+                String transferId = (String) message.getFileData().get("transferId");
+                connection.send(Message.createFileAcceptMessage(transferId, transfer.getReceivedBlocks()));
+            }
 
-        File downloadsDir = new File("downloads");
-        if (!downloadsDir.exists()) {
-            downloadsDir.mkdir();
+            if (transfer.getOutputFile() != null) {
+                handleFileTransferCompleted(peerId, transfer);
+            } else if (transfer.getReceivedBytes() > 0) {
+                System.out.println("Reanudando la recepción de " + message.getFileData().get("name")
+                        + " desde " + transfer.getReceivedBytes() + " bytes");
+            }
+        } catch (IllegalStateException e) {
+            System.out.println("No se ha podido responder al anuncio del archivo: " + e.getMessage());
+        } catch (IOException e) {
+            uiEvents.showErrorMessage("Error al guardar el archivo: " + e.getMessage());
         }
-
-        File outputFile = new File(downloadsDir, fileName);
-
-        int counter = 1;
-        while (outputFile.exists()) {
-            int lastDot = fileName.lastIndexOf('.');
-            String name = fileName;
-            String extension = "";
-
-            if (lastDot > 0) {
-                name = fileName.substring(0, lastDot);
-                extension = fileName.substring(lastDot);
+    }
+    
+    /**
+     * Gestiona la recepción de un fragmento de archivo, escribiéndolo en disco
+     * 
+     * @param message Mensaje recibido
+     * @param peerId ID del Peer que ha enviuado el mensaje
+     */
+    private void handleFileChunkReceived(String peerId, Message message) {
+        try {
+            IncomingTransfer transfer = fileTransferReceiver.receiveChunk(peerId, message);
+            if (transfer != null) {
+                handleFileTransferCompleted(peerId, transfer);
             }
-
-            outputFile = new File(downloadsDir, name + "_" + counter + extension);
-            counter++;
+        } catch (IOException e) {
+            uiEvents.showErrorMessage("Error al guardar el archivo: " + e.getMessage());
         }
-
-        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
-            outputStream.write(fileBytes);
-        } catch (Exception e) {
-            viewManager.showErrorMessage("Error al guardar el archivo: " + e.getMessage());
-            e.printStackTrace();
+    }
+    
+    /**
+     * Devuelve el archivo en el que se escribe el contenido de un trozo FILE_DATA.
+     * Lo llama la conexión al recibir la trama, antes de leer el contenido
+     * 
+     * @param peerId ID del Peer que envía el trozo
+     * @param header Trama FILE_DATA recibida
+     * @return Canal del archivo de destino, o null si el contenido se debe descartar
+     */
+    public FileChannel openFileData(String peerId, Message header) {
+        try {
+            return fileTransferReceiver.openRegion(peerId, header);
+        } catch (IOException e) {
+            System.out.println("Trozo de archivo descartado: " + e.getMessage());
+            return null;
         }
+    }
+    
+    /**
+     * Gestiona la recepción de un trozo de archivo ya escrito en disco, verificándolo
+     * 
+     * @param message Trama FILE_DATA cuyo contenido se ha recibido
+     * @param peerId ID del Peer que ha enviuado el mensaje
+     */
+    private void handleFileDataReceived(String peerId, Message message) {
+        try {
+            IncomingTransfer transfer = fileTransferReceiver.completeRegion(peerId, message);
+            if (transfer != null) {
+                handleFileTransferCompleted(peerId, transfer);
+            }
+        } catch (IOException e) {
+            uiEvents.showErrorMessage("Error al guardar el archivo: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Gestiona un archivo recibido por completo. Se llega desde la cola de disco,
+     * así que la sesión y la interfaz se actualizan en la cola de estado
+     * 
+     * @param peerId ID del Peer que ha enviuado el archivo
+     * @param transfer Transferencia completada
+     */
+    private void handleFileTransferCompleted(String peerId, IncomingTransfer transfer) {
+        InboundPipeline.getInstance().execute(peerId, Stage.STATE, () -> showReceivedFile(peerId, transfer));
+    }
+    
+    /**
+     * Añade un archivo recibido a la sesión, actualizando la interfaz
+     * 
+     * @param peerId ID del Peer que ha enviuado el archivo
+     * @param transfer Transferencia completada
+     */
+    private void showReceivedFile(String peerId, IncomingTransfer transfer) {
+        User contact = getContactByPeerId(peerId);
+        Message message = transfer.getFileMessage();
 
         ChatSession chatSession = getChatSessionByPeerId(peerId);
         MessageEntry messageEntry = new MessageEntry(contact, message);
         chatSession.addMessage(contact, messageEntry);
 
-        PeerConnection peerConnection = connections.get(peerId);
+        PeerConnection peerConnection = peerRegistry.getConnection(peerId);
         if (actualPeer != null && peerConnection.equals(actualPeer)) {
-            if (viewManager instanceof ConsoleController c) {
-                List<MessageEntry> messageHistory = chatSession.getMessageHistory();
-                viewManager.displayChat(messageHistory);
-            } else {
-                viewManager.displayFileMessage(messageEntry);
-            }
+            uiEvents.displayMessage(messageEntry);
         }
     }
     
@@ -606,10 +821,43 @@ public class ChatManager {
         String sessionId = User.getCurrentUser().getUserId() + ":" + contactId;
         
         ChatSession chatSession = chatSessions.get(sessionId);
+        chatSession.resetOlderMessages();
         List<MessageEntry> messageHistory = chatSession.getMessageHistory();
         
-        viewManager.setContactPanelAsSelected(contactId);
-        viewManager.displayChat(messageHistory);
+        uiEvents.setContactPanelAsSelected(contactId);
+        uiEvents.displayChat(messageHistory);
+    }
+
+    /**
+     * Carga la página anterior del historial del chat que se está mostrando.
+     * La consulta se hace fuera del hilo de la interfaz y la página se añade delante del chat
+     *
+     * @return False si no hay chat seleccionado o no quedan mensajes anteriores
+     */
+    public boolean handleLoadOlderMessages() {
+        PeerConnection peer = actualPeer;
+        if (peer == null) return false;
+
+        User contact = getContactByPeerId(peer.getPeerId());
+        if (contact == null) return false;
+
+        ChatSession chatSession = chatSessions.get(User.getCurrentUser().getUserId() + ":" + contact.getUserId());
+        if (chatSession == null || !chatSession.hasOlderMessages()) return false;
+
+        // Mientras se carga una página no se pide otra
+        if (!loadingHistory.compareAndSet(false, true)) return true;
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                List<MessageEntry> older = chatSession.loadOlderMessages();
+                if (!older.isEmpty() && peer.equals(actualPeer)) {
+                    uiEvents.displayOlderMessages(older);
+                }
+            } finally {
+                loadingHistory.set(false);
+            }
+        });
+        return true;
     }
 
     /**
@@ -619,29 +867,47 @@ public class ChatManager {
      */
     public void handleTextMessageSent(Message message) {
         if (actualPeer == null) {
-            viewManager.showErrorMessage("No hay un contacto seleccionado para enviar el mensaje");
+            uiEvents.showErrorMessage("No hay un contacto seleccionado para enviar el mensaje");
             return;
         }
 
-        try {
-            actualPeer.sendMessage(message);
-            
-            User contact = getContactByPeerId(actualPeer.getPeerId());
-            if (contact != null) {
-                ChatSession chatSession = getOrCreateChatSession(contact.getUserId());
-                MessageEntry messageEntry = new MessageEntry(User.getCurrentUser(), message);
-                
-                chatSession.addMessage(User.getCurrentUser(), messageEntry);
-                
-                if (viewManager instanceof ConsoleController c) {
-                    List<MessageEntry> messageHistory = chatSession.getMessageHistory();
-                    viewManager.displayChat(messageHistory);
-                } else {
-                    viewManager.displayTextMessage(new MessageEntry(User.getCurrentUser(), message));
+        User contact = getContactByPeerId(actualPeer.getPeerId());
+
+        // El mensaje se guarda numerado hasta que el otro lado lo confirme
+        if (contact != null && !getDeliveryTracker(contact.getUserId()).stamp(message)) {
+            uiEvents.showErrorMessage("Hay demasiados mensajes sin confirmar, espera a que lleguen");
+            return;
+        }
+
+        // Si la conexión se está recuperando el mensaje se envía al reanudar la sesión
+        boolean buffered = contact != null && reconnectManager.buffer(contact.getUserId(), message);
+        
+        if (!buffered) {
+            try {
+                // No se espera a la escritura: un Peer lento no debe bloquear la interfaz.
+                // Si falla, el mensaje sigue sin confirmar y se reenvía al reanudar la sesión
+                actualPeer.send(message).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        System.out.println("Mensaje pendiente de reenvío: " + ex.getMessage());
+                    }
+                });
+            } catch (IllegalStateException ex) {
+                // Si no se puede retirar, el mensaje ya está en la cola de reenvío y se muestra como enviado
+                if (contact == null || getDeliveryTracker(contact.getUserId()).unstamp(message)) {
+                    uiEvents.showErrorMessage("No hay una conexión activa con este contacto");
+                    return;
                 }
+                uiEvents.showMessage("Sin conexión con " + contact.getUsername() + ". El mensaje se enviará al reanudar la sesión");
             }
-        } catch (IOException ex) {
-            Logger.getLogger(ChatManager.class.getName()).log(Level.SEVERE, null, ex);
+        }
+            
+        if (contact != null) {
+            ChatSession chatSession = getOrCreateChatSession(contact.getUserId());
+            MessageEntry messageEntry = new MessageEntry(User.getCurrentUser(), message);
+            
+            chatSession.addMessage(User.getCurrentUser(), messageEntry);
+            
+            uiEvents.displayMessage(messageEntry);
         }
     }
     
@@ -650,7 +916,7 @@ public class ChatManager {
      */
     public void handleFileMessageSentGUI() {
         if (actualPeer == null) {
-            viewManager.showErrorMessage("No hay un contacto seleccionado para enviar el mensaje");
+            uiEvents.showErrorMessage("No hay un contacto seleccionado para enviar el mensaje");
             return;
         }
 
@@ -661,31 +927,9 @@ public class ChatManager {
             final File selectedFile = fileChooser.getSelectedFile();
             final PeerConnection peerToSend = actualPeer;
 
-            viewManager.showMessage("Enviando archivo: " + selectedFile.getName() + "...");
-
-            new Thread(() -> {
-                try {
-                    Message fileMessage = Message.createFileMessage(selectedFile);
+            uiEvents.showMessage("Enviando archivo: " + selectedFile.getName() + "...");
 
-                    peerToSend.sendMessage(fileMessage);
-                    User contact = getContactByPeerId(peerToSend.getPeerId());
-                    if (contact != null) {
-                        ChatSession chatSession = getOrCreateChatSession(contact.getUserId());
-                        MessageEntry messageEntry = new MessageEntry(User.getCurrentUser(), fileMessage);
-                        chatSession.addMessage(User.getCurrentUser(), messageEntry);
-                    }
-
-                    SwingUtilities.invokeLater(() -> {
-                        viewManager.displayFileMessage(new MessageEntry(User.getCurrentUser(), fileMessage));
-                        viewManager.showMessage("Archivo enviado: " + selectedFile.getName());
-                    });
-                } catch (IOException ex) {
-                    SwingUtilities.invokeLater(() -> {
-                        viewManager.showErrorMessage("Error al enviar el archivo: " + ex.getMessage());
-                    });
-                    Logger.getLogger(ChatManager.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            }).start();
+            scheduleUpload(getContactByPeerId(peerToSend.getPeerId()), peerToSend, selectedFile);
         }
     }
 
@@ -696,41 +940,82 @@ public class ChatManager {
      */
     public void handleFileMessageSentCUI(String filePath) {
         if (actualPeer == null) {
-            viewManager.showErrorMessage("No hay un contacto seleccionado para enviar el mensaje");
+            uiEvents.showErrorMessage("No hay un contacto seleccionado para enviar el mensaje");
             return;
         }
 
         File selectedFile = new File(filePath);
         if (!selectedFile.exists()){
-            viewManager.showErrorMessage("Por favor, introduce una ruta válida");
+            uiEvents.showErrorMessage("Por favor, introduce una ruta válida");
             return;
         }
 
-        viewManager.showMessage("Enviando archivo: " + selectedFile.getName() + "...");
+        uiEvents.showMessage("Enviando archivo: " + selectedFile.getName() + "...");
 
         final PeerConnection peerToSend = actualPeer;
 
-        new Thread(() -> {
-            try {
-                Message fileMessage = Message.createFileMessage(selectedFile);
+        scheduleUpload(getContactByPeerId(peerToSend.getPeerId()), peerToSend, selectedFile);
+    }
 
-                peerToSend.sendMessage(fileMessage);
-                User contact = getContactByPeerId(peerToSend.getPeerId());
-                if (contact != null) {
-                    ChatSession chatSession = getOrCreateChatSession(contact.getUserId());
-                    MessageEntry messageEntry = new MessageEntry(User.getCurrentUser(), fileMessage);
-                    chatSession.addMessage(User.getCurrentUser(), messageEntry);
+    /**
+     * Encola el envío de un archivo en el planificador de transferencias.
+     * Si ya hay demasiados envíos en curso, el archivo espera su turno
+     * 
+     * @param contact Contacto al que se envía
+     * @param peerToSend Conexión por la que se envía
+     * @param file Archivo a enviar
+     */
+    private void scheduleUpload(User contact, PeerConnection peerToSend, File file) {
+        String contactId = contact != null ? contact.getUserId() : peerToSend.getPeerId();
 
-                    List<MessageEntry> messageHistory = chatSession.getMessageHistory();
-                    
-                    viewManager.displayChat(messageHistory);
-                    viewManager.showMessage("Archivo enviado: " + selectedFile.getName());
-                }
-            } catch (IOException ex) {
-                viewManager.showErrorMessage("Error al enviar el archivo: " + ex.getMessage());
-                Logger.getLogger(ChatManager.class.getName()).log(Level.SEVERE, null, ex);
+        if (transferScheduler.submit(contactId, file, transfer -> uploadFile(contact, peerToSend, file, transfer)) == null) {
+            uiEvents.showMessage(file.getName() + " ya se está enviando a este contacto");
+            return;
+        }
+
+        int queued = transferScheduler.getQueueDepth(contactId);
+        if (queued > 0) {
+            uiEvents.showMessage(queued + " archivo(s) en cola para este contacto");
+        }
+    }
+
+    /**
+     * Envía un archivo a un contacto y lo añade a su Sesión de Chat. Lo ejecuta el planificador fuera del hilo de la interfaz.
+     * Si la conexión se cae durante el envío y la sesión sigue abierta, el envío se repite al reanudarla
+     * y el receptor solo recibe lo que le falta
+     * 
+     * @param contact Contacto al que se envía
+     * @param peerToSend Conexión por la que se envía
+     * @param file Archivo a enviar
+     * @param transfer Envío en el planificador, que acumula lo enviado
+     */
+    private void uploadFile(User contact, PeerConnection peerToSend, File file, OutgoingTransfer transfer) {
+        Message fileMessage;
+
+        try {
+            fileMessage = fileTransferSender.sendFile(peerToSend, transfer.getContactId(), file, transfer::addSent);
+        } catch (IOException ex) {
+            String sessionId = contact != null ? User.getCurrentUser().getUserId() + ":" + contact.getUserId() : null;
+
+            if (sessionId != null && !peerToSend.isConnected() && chatSessions.containsKey(sessionId)) {
+                fileTransferSender.keepForResume(contact.getUserId(), file);
+                uiEvents.showMessage("Envío de " + file.getName() + " interrumpido, se reanudará al recuperar la conexión");
+                return;
             }
-        }).start();
+
+            uiEvents.showErrorMessage("Error al enviar el archivo: " + ex.getMessage());
+            Logger.getLogger(ChatManager.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+
+        if (contact == null) return;
+
+        ChatSession chatSession = getOrCreateChatSession(contact.getUserId());
+        MessageEntry messageEntry = new MessageEntry(User.getCurrentUser(), fileMessage);
+        chatSession.addMessage(User.getCurrentUser(), messageEntry);
+
+        uiEvents.displayMessage(messageEntry);
+        uiEvents.showMessage("Archivo enviado: " + file.getName());
     }
     
     /**
@@ -745,7 +1030,7 @@ public class ChatManager {
             @Override
             public void onSuccess(List<User> result) {
                 setContacts(result);
-                viewManager.setContactsList(result);
+                uiEvents.setContactsList(result);
                 
                 startApplication();
             }
@@ -775,7 +1060,7 @@ public class ChatManager {
      * @return True si está agregado
      */
     private boolean isContact(String userId) {
-        return contacts.get(userId) != null;
+        return peerRegistry.isContact(userId);
     }
     
     /**
@@ -784,7 +1069,7 @@ public class ChatManager {
      */
     private void setContacts(List<User> users){
         for (User user : users) {
-            contacts.put(user.getUserId(), user);
+            peerRegistry.addContact(user);
         }
     }
 
@@ -795,29 +1080,23 @@ public class ChatManager {
      * @param peerId ID del Peer externo
      */
     public void removePeer(String contactId, String peerId) {
-        ChatClient chatClient = chatClients.get(peerId);
-        if (chatClient != null) {
+        PeerLink link = peerRegistry.unregisterPeer(peerId);
+        if (link == null) {
+            link = peerRegistry.unregisterContact(contactId);
+        }
+
+        if (link != null && link.chatClient() != null) {
             User currentUser = User.getCurrentUser();
             Message userInfoMessage = Message.createDisconnectionMessage(currentUser);
                 
             try {
-                chatClient.getPeerConnection().sendMessage(userInfoMessage);
+                link.chatClient().getPeerConnection().sendMessage(userInfoMessage);
             } catch (IOException ex) {
                 Logger.getLogger(ChatManager.class.getName()).log(Level.SEVERE, null, ex);
             }
             
-            chatClient.disconnect();
-        } else {
-            for (Map.Entry<String, ChatClient> entry : chatClients.entrySet()) {
-                if (entry.getKey().contains(contactId.split(":")[0])) {
-                    entry.getValue().disconnect();
-                    chatClients.remove(entry.getKey());
-                    break;
-                }
-            }
+            link.chatClient().disconnect();
         }
-
-        connections.remove(peerId);
     }
     
     /**
@@ -842,22 +1121,7 @@ public class ChatManager {
      * @return Contacto si existe, null en caso contarrio
      */
     private User getContactByPeerId(String peerId){
-        if (peerId == null) return null;
-        
-        String contactId = null;
-
-        if (contactIdToPeerIdMap.size() == 0) {
-            return null;
-        }
-
-        for (Map.Entry<String, String> entry : contactIdToPeerIdMap.entrySet()) {
-            if (entry.getValue().equals(peerId)) {
-                contactId = entry.getKey();
-                break; 
-            }
-        }
-        
-        return contactId != null ? contacts.get(contactId) : null;
+        return peerRegistry.getContactByPeerId(peerId);
     }
     
     /**
@@ -867,53 +1131,168 @@ public class ChatManager {
      * @return ID de la conexión Peer si existe, null en caso contarrio
      */
     public String getPeerIdByContactId(String contactId){
-        if (contactId == null) return null;
-
-        if (contactIdToPeerIdMap.size() == 0) {
-            return null;
-        }
-        
-        String peerId = contactIdToPeerIdMap.get(contactId);
-        
-        return peerId != null ? peerId : null;
+        return peerRegistry.getPeerIdByContactId(contactId);
     }
     
     /**
      * Gestiona una desconexión abrupta por parte de un Peer.
-     * Establece la conexión Peer como desconectada (si se desconecta sin notificar)
+     * Si hay una sesión abierta se mantiene mientras se intenta recuperar la conexión: la
+     * reabre quien la abrió y el otro lado espera. El usuario no ve la caída salvo que no se recupere
      * 
      * @param peerId ID de la conexión Peer
+     * @param connection Conexión que se ha caído
      */
-    public void handleUnexpectedDisconnection(String peerId) {
+    public void handleUnexpectedDisconnection(String peerId, PeerConnection connection) {
+        // Una conexión ya sustituida o cerrada a propósito no afecta al enlace actual
+        PeerLink link = peerRegistry.getLink(peerId);
+        if (link == null || link.connection() != connection) return;
+
+        fileTransferReceiver.suspendTransfers(peerId);
+        
         User contactUser = getContactByPeerId(peerId);
         if (contactUser == null) return;
         
         String contactId = contactUser.getUserId();
-        
-        connections.remove(peerId);
 
-        ChatClient chatClient = chatClients.get(peerId);
-        if (chatClient != null) {
-            chatClients.remove(peerId);
+        if (chatSessions.containsKey(User.getCurrentUser().getUserId() + ":" + contactId)) {
+            if (link.chatClient() != null) {
+                reconnectManager.reconnect(contactUser);
+            } else {
+                reconnectManager.awaitResume(contactUser);
+            }
+            return;
         }
 
-        chatClient = chatClients.get(contactId);
-        if (chatClient != null) {
-            chatClients.remove(contactId);
+        closeSession(contactUser, peerId);
+    }
+
+    /**
+     * Gestiona una conexión recuperada por el ReconnectManager: la registra,
+     * envía el RESUME y reanuda la sesión
+     * 
+     * @param contact Contacto con el que se ha vuelto a conectar
+     * @param chatClient ChatClient de la nueva conexión
+     * @return True si se ha reanudado, false si la sesión ya no estaba a la espera
+     */
+    boolean handleReconnected(User contact, ChatClient chatClient) {
+        String contactId = contact.getUserId();
+        PeerConnection connection = chatClient.getPeerConnection();
+        String previousPeerId = peerRegistry.getPeerIdByContactId(contactId);
+
+        List<Message> pending = reconnectManager.resume(contactId);
+        if (pending == null) return false;
+
+        if (previousPeerId != null && !previousPeerId.equals(connection.getPeerId())) {
+            // El otro lado no repite su USER_INFO al reanudar: se mantiene lo que anunció
+            PeerConnection previous = peerRegistry.getConnection(previousPeerId);
+            if (previous != null && previous.isCompressionEnabled()) {
+                connection.enableCompression();
+            }
+
+            peerRegistry.unregisterPeer(previousPeerId);
         }
+        peerRegistry.registerConnection(connection.getPeerId(), connection, chatClient, contactId);
+
+        try {
+            connection.send(Message.createResumeMessage(User.getCurrentUser()));
+        } catch (IllegalStateException ex) {
+            // La nueva conexión ya se ha caído: se trata como cualquier otra caída
+            handleUnexpectedDisconnection(connection.getPeerId(), connection);
+            return true;
+        }
+
+        resumeSession(contactId, previousPeerId, connection, pending);
+        return true;
+    }
+
+    /**
+     * Cierra la sesión con un contacto que no ha vuelto a conectar a tiempo
+     * 
+     * @param contact Contacto desconectado
+     * @param lostMessages Mensajes guardados que no se han podido enviar
+     */
+    void handleReconnectFailed(User contact, int lostMessages) {
+        String peerId = peerRegistry.getPeerIdByContactId(contact.getUserId());
+
+        closeSession(contact, peerId);
+
+        if (lostMessages > 0) {
+            uiEvents.showErrorMessage(lostMessages + " mensajes a " + contact.getUsername() + " no se han podido enviar");
+        }
+    }
+
+    /**
+     * Reanuda una sesión en una nueva conexión: actualiza el chat seleccionado y la interfaz
+     * y envía los mensajes guardados durante la caída
+     * 
+     * @param contactId ID del contacto
+     * @param previousPeerId ID de la conexión Peer anterior
+     * @param connection Nueva conexión
+     * @param pending Mensajes guardados, o null si no había espera
+     */
+    private void resumeSession(String contactId, String previousPeerId, PeerConnection connection, List<Message> pending) {
+        if (connection == null) return;
+
+        if (actualPeer != null && actualPeer.getPeerId().equals(previousPeerId)) {
+            actualPeer = connection;
+        }
+
+        // Se reenvía todo lo no confirmado, que incluye lo guardado durante la caída;
+        // el otro lado descarta lo que ya hubiera recibido
+        DeliveryTracker tracker = deliveryTrackers.get(contactId);
+        List<Message> retransmit = tracker != null ? tracker.unacknowledged() : pending;
+
+        if (retransmit != null) {
+            for (Message message : retransmit) {
+                connection.send(message).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        System.out.println("Error reenviando un mensaje a " + contactId + ": " + ex.getMessage());
+                    }
+                });
+            }
+        }
+
+        // Los archivos que se estaban enviando continúan donde se quedaron
+        User contact = getContactByPeerId(connection.getPeerId());
+        for (File file : fileTransferSender.takeInterrupted(contactId)) {
+            scheduleUpload(contact, connection, file);
+        }
+
+        uiEvents.updateContactPanel(contactId, connection.getPeerId(), true);
+        System.out.println("Sesión con " + contactId + " reanudada");
+    }
+
+    /**
+     * Cierra la sesión con un contacto desconectado y actualiza la interfaz
+     * 
+     * @param contactUser Contacto desconectado
+     * @param peerId ID de la conexión Peer
+     */
+    private void closeSession(User contactUser, String peerId) {
+        String contactId = contactUser.getUserId();
+
+        peerRegistry.unregisterPeer(peerId);
+        peerRegistry.unregisterContact(contactId);
 
         String chatSessionId = User.getCurrentUser().getUserId() + ":" + contactId;
-        contactIdToPeerIdMap.remove(contactId);
         chatSessions.remove(chatSessionId);
 
-        viewManager.updateContactPanel(contactId, peerId, false);
+        fileTransferSender.takeInterrupted(contactId);
+        transferScheduler.cancel(contactId);
+
+        DeliveryTracker tracker = deliveryTrackers.remove(contactId);
+        if (tracker != null && tracker.getUnacknowledgedCount() > 0) {
+            System.out.println(tracker.getUnacknowledgedCount() + " mensajes a " + contactId + " sin confirmar al cerrar la sesión");
+        }
+
+        uiEvents.updateContactPanel(contactId, peerId, false);
         
         if (actualPeer != null && actualPeer.getPeerId().equals(peerId)){
             actualPeer = null;
-            viewManager.showMessage(contactUser.getUsername() + " se ha desconectado. No tienes ningun chat seleccionado");
-            viewManager.setContactPanelAsSelected(null);
+            uiEvents.showMessage(contactUser.getUsername() + " se ha desconectado. No tienes ningun chat seleccionado");
+            uiEvents.setContactPanelAsSelected(null);
         } else {
-            viewManager.showMessage(contactUser.getUsername() + " se ha desconectado.");
+            uiEvents.showMessage(contactUser.getUsername() + " se ha desconectado.");
         }
     }
      
@@ -923,13 +1302,13 @@ public class ChatManager {
      * @param contactId ID del Contacto a registrar
      * @param chatClient ChatClient creado con el Contacto
      */
-    private synchronized void registerNewConnection(String contactId, ChatClient chatClient){
+    private void registerNewConnection(String contactId, ChatClient chatClient){
         String currentUserId = User.getCurrentUser().getUserId();
         String peerId = chatClient.getPeerConnection().getPeerId();
         
-        connections.put(peerId, chatClient.getPeerConnection());
-        chatClients.put(peerId, chatClient);
-        contactIdToPeerIdMap.put(contactId, peerId);
+        reconnectManager.cancel(contactId);
+        getDeliveryTracker(contactId).reset();
+        peerRegistry.registerConnection(peerId, chatClient.getPeerConnection(), chatClient, contactId);
         
         chatSessions.put(currentUserId + ":" + contactId, new ChatSession(contactId));
     }
@@ -973,17 +1352,27 @@ public class ChatManager {
         return chatSessions.get(sessionId);
     }
     
+    /**
+     * Devuelve el control de entrega de un contacto, creándolo si no existe
+     * 
+     * @param contactId ID del contacto
+     * @return Control de entrega
+     */
+    DeliveryTracker getDeliveryTracker(String contactId) {
+        return deliveryTrackers.computeIfAbsent(contactId, id -> new DeliveryTracker());
+    }
+    
     /**
      * Establece el Peer actual con el que se está chateando
      * @param peerId ID del Peer actual
      */
     private void setActualPeerConnection(String peerId){
-        PeerConnection connection = connections.get(peerId);
+        PeerConnection connection = peerRegistry.getConnection(peerId);
         
         if (connection != null && connection.isConnected()) {
             actualPeer = connection;
         } else {
-            viewManager.showErrorMessage("No hay una conexión activa con este contacto");
+            uiEvents.showErrorMessage("No hay una conexión activa con este contacto");
             actualPeer = null;
         }
     }
@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import com.chat.model.Message;
 import com.chat.model.MessageEntry;
@@ -34,6 +36,8 @@ public class ConsoleController implements ViewManager {
     
     private boolean isRunning;             // Estado de la consola
     
+    private final Executor viewExecutor;   // Hilo que escribe las actualizaciones en la consola
+    
     public boolean menuCenter=true;
 
     /**
@@ -44,6 +48,11 @@ public class ConsoleController implements ViewManager {
         initializeWindows();
         this.scanner = new Scanner(System.in);
         this.isRunning = true;
+        this.viewExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "console-view");
+            thread.setDaemon(true);
+            return thread;
+        });
         
     }
     /**
@@ -132,6 +141,8 @@ public class ConsoleController implements ViewManager {
      * - /connect <ip> <puerto>: Conecta con un peer
      * - /disconnect <contactId>: Desconecta de un usuario
      * - /select <id>: Selecciona un chat
+     * - /more: Muestra los mensajes anteriores del chat
+     * - /stats: Muestra las métricas de la aplicación
      * - /help: Muestra los comandos disponibles
      * - /exit: Cierra la aplicación
      *
@@ -183,6 +194,16 @@ public class ConsoleController implements ViewManager {
                 }
                 break;
 
+            case "/stats":
+                chatWindow.displayStats(ChatManager.getInstance().getStatsReport());
+                break;
+
+            case "/more":
+                if (!ChatManager.getInstance().handleLoadOlderMessages()) {
+                    showMessage("No hay mensajes anteriores");
+                }
+                break;
+
             case "/file":
                 if (parts.length > 1) {
                     String filePath = parts[1];
@@ -268,14 +289,20 @@ public class ConsoleController implements ViewManager {
         ChatManager.getInstance().handleAddNewContact(ip, port);
     }
 
+    /** Las actualizaciones se escriben desde un único hilo para no mezclarse **/
+    @Override
+    public Executor getViewExecutor() {
+        return viewExecutor;
+    }
+
     @Override
     public void showMessage(String message) {
-        System.out.println("INFO: " + message);
+        chatWindow.displayNotice("INFO: " + message);
     }
 
     @Override
     public void showErrorMessage(String message) {
-        System.out.println("ERROR: " + message);
+        chatWindow.displayNotice("ERROR: " + message);
     }
 
     /** Muestra la ventana de chat y sus comandos disponibles */
@@ -340,11 +367,22 @@ public class ConsoleController implements ViewManager {
 
     @Override
     public void displayTextMessage(MessageEntry messageEntry) {
-        chatWindow.displayChat(List.of(messageEntry));
+        chatWindow.appendMessages(List.of(messageEntry));
     }
 
     @Override
     public void displayFileMessage(MessageEntry messageEntry) {
-        chatWindow.displayFileMessage(messageEntry);
+        chatWindow.appendMessages(List.of(messageEntry));
+    }
+
+    @Override
+    public void displayOlderMessages(List<MessageEntry> messageEntries) {
+        chatWindow.displayOlderMessages(messageEntries);
+    }
+
+    /** Añade solo los mensajes nuevos, sin volver a escribir el historial **/
+    @Override
+    public void displayMessages(List<MessageEntry> messageEntries) {
+        chatWindow.appendMessages(messageEntries);
     }
 }
\ No newline at end of file
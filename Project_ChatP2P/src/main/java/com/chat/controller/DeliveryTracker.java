@@ -0,0 +1,249 @@
+package com.chat.controller;
+
+import com.chat.model.Message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.chat.utils.Constants.DELIVERY_WINDOW_SIZE;
+
+/**
+ * Control de entrega de los mensajes de una Sesión de Chat.
+ *
+ * Cada lado numera sus mensajes dentro de una sesión de numeración (epoch) que se
+ * renueva al empezar una sesión nueva, y los guarda hasta que el otro lado confirma
+ * con un ACK acumulado el último que ha recibido sin huecos. Al reanudar tras una
+ * caída se reenvían los que no se han confirmado.
+ *
+ * El receptor entrega los mensajes en orden: descarta los repetidos y retiene los que
+ * llegan adelantados, dentro de una ventana, hasta que llegan los que faltan.
+ * La confirmación de un epoch desconocido se ignora, y un mensaje de un epoch nuevo
+ * hace que el receptor empiece a contar desde él.
+ */
+class DeliveryTracker {
+
+    /** Propiedades del emisor **/
+    private int outboundEpoch;                                  // Sesión de numeración propia
+    private long nextSequence;                                  // Siguiente número de secuencia
+    private final Map<Long, Pending> unacknowledged;            // Mensajes enviados sin confirmar, en orden
+
+    /** Propiedades del receptor **/
+    private int inboundEpoch;                                   // Sesión de numeración del otro lado
+    private long delivered;                                     // Último número entregado sin huecos
+    private final TreeMap<Long, Message> held;                  // Mensajes adelantados a la espera
+    private boolean ackScheduled;                               // True si hay un ACK programado
+
+    /** Métricas **/
+    private long acknowledgedCount;                             // Mensajes confirmados
+    private long retransmittedCount;                            // Mensajes reenviados tras una reconexión
+    private long duplicateCount;                                // Mensajes repetidos descartados
+    private long droppedCount;                                  // Mensajes descartados por salirse de la ventana
+    private long totalLatencyNanos;                             // Suma de los tiempos hasta la confirmación
+    private long maxLatencyNanos;                               // Mayor tiempo hasta la confirmación
+
+    /** Constructor por defecto **/
+    DeliveryTracker() {
+        this.unacknowledged = new LinkedHashMap<>();
+        this.held = new TreeMap<>();
+        reset();
+    }
+
+    /**
+     * Empieza una sesión de numeración nueva, olvidando los mensajes pendientes de ambos sentidos
+     */
+    synchronized void reset() {
+        outboundEpoch = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+        nextSequence = 1;
+        unacknowledged.clear();
+
+        inboundEpoch = 0;
+        delivered = 0;
+        held.clear();
+    }
+
+    /**
+     * Numera un mensaje saliente y lo guarda hasta que se confirme
+     * @param message Mensaje a enviar
+     * @return True si se ha numerado, false si hay demasiados mensajes sin confirmar
+     */
+    synchronized boolean stamp(Message message) {
+        if (unacknowledged.size() >= DELIVERY_WINDOW_SIZE) return false;
+
+        message.setEpoch(outboundEpoch);
+        message.setSequence(nextSequence);
+        unacknowledged.put(nextSequence, new Pending(message, System.nanoTime()));
+        nextSequence++;
+
+        return true;
+    }
+
+    /**
+     * Retira un mensaje recién numerado que no se ha llegado a enviar.
+     * Solo es posible si es el último numerado: si no, quitarlo dejaría un hueco
+     * que bloquearía la entrega en orden al otro lado
+     * @param message Mensaje numerado con {@link #stamp(Message)}
+     * @return True si se ha retirado, false si sigue pendiente y se reenviará al reanudar
+     */
+    synchronized boolean unstamp(Message message) {
+        if (message.getEpoch() != outboundEpoch || message.getSequence() != nextSequence - 1) return false;
+
+        unacknowledged.remove(message.getSequence());
+        nextSequence--;
+        return true;
+    }
+
+    /**
+     * Procesa un ACK acumulado, liberando todos los mensajes confirmados
+     * @param ack Mensaje ACK recibido
+     * @return Número de mensajes confirmados
+     */
+    synchronized int acknowledge(Message ack) {
+        if (ack.getEpoch() != outboundEpoch) return 0;
+
+        long now = System.nanoTime();
+        int count = 0;
+
+        Iterator<Map.Entry<Long, Pending>> iterator = unacknowledged.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Pending> entry = iterator.next();
+            if (entry.getKey() > ack.getSequence()) break;
+
+            long latency = now - entry.getValue().sentAt();
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+
+            iterator.remove();
+            count++;
+        }
+
+        acknowledgedCount += count;
+        return count;
+    }
+
+    /**
+     * Devuelve los mensajes sin confirmar para reenviarlos tras una reconexión
+     * @return Mensajes en orden de envío
+     */
+    synchronized List<Message> unacknowledged() {
+        List<Message> messages = new ArrayList<>(unacknowledged.size());
+        for (Pending pending : unacknowledged.values()) {
+            messages.add(pending.message());
+        }
+
+        retransmittedCount += messages.size();
+        return messages;
+    }
+
+    /**
+     * Procesa un mensaje numerado recibido
+     * @param message Mensaje recibido
+     * @return Mensajes que se pueden entregar ya, en orden. Vacío si es repetido o llega adelantado
+     */
+    synchronized List<Message> receive(Message message) {
+        if (message.getEpoch() != inboundEpoch) {
+            inboundEpoch = message.getEpoch();
+            delivered = message.getSequence() - 1;
+            held.clear();
+        }
+
+        long sequence = message.getSequence();
+
+        if (sequence <= delivered || held.containsKey(sequence)) {
+            duplicateCount++;
+            return List.of();
+        }
+
+        if (sequence > delivered + 1) {
+            if (sequence - delivered > DELIVERY_WINDOW_SIZE) {
+                droppedCount++;
+            } else {
+                held.put(sequence, message);
+            }
+            return List.of();
+        }
+
+        List<Message> ready = new ArrayList<>();
+        ready.add(message);
+        delivered = sequence;
+
+        Message next;
+        while ((next = held.remove(delivered + 1)) != null) {
+            ready.add(next);
+            delivered++;
+        }
+
+        return ready;
+    }
+
+    /**
+     * Marca que hay que enviar un ACK. Los mensajes que llegan mientras tanto se confirman juntos
+     * @return True si no había ningún ACK programado
+     */
+    synchronized boolean scheduleAck() {
+        if (ackScheduled) return false;
+
+        ackScheduled = true;
+        return true;
+    }
+
+    /**
+     * Devuelve el ACK acumulado de lo recibido hasta ahora
+     * @return Mensaje ACK, o null si aún no se ha recibido nada
+     */
+    synchronized Message createAck() {
+        ackScheduled = false;
+        return inboundEpoch != 0 ? Message.createAckMessage(inboundEpoch, delivered) : null;
+    }
+
+    /**
+     * Getters
+     */
+    synchronized int getUnacknowledgedCount() {
+        return unacknowledged.size();
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas de entrega
+     * @return Métricas actuales
+     */
+    synchronized Stats getStats() {
+        double averageLatency = acknowledgedCount > 0 ? totalLatencyNanos / 1_000_000.0 / acknowledgedCount : 0;
+
+        return new Stats(unacknowledged.size(), acknowledgedCount, retransmittedCount, duplicateCount,
+                droppedCount, averageLatency, maxLatencyNanos / 1_000_000.0);
+    }
+
+    /** Mensaje enviado a la espera de confirmación **/
+    private record Pending(Message message, long sentAt) { }
+
+    /**
+     * Métricas de entrega de una Sesión de Chat
+     * @param unacknowledged Mensajes enviados sin confirmar
+     * @param acknowledged Mensajes confirmados
+     * @param retransmitted Mensajes reenviados tras una reconexión
+     * @param duplicates Mensajes repetidos descartados
+     * @param dropped Mensajes descartados por salirse de la ventana
+     * @param averageLatencyMillis Tiempo medio hasta la confirmación
+     * @param maxLatencyMillis Mayor tiempo hasta la confirmación
+     */
+    record Stats(int unacknowledged,
+                 long acknowledged,
+                 long retransmitted,
+                 long duplicates,
+                 long dropped,
+                 double averageLatencyMillis,
+                 double maxLatencyMillis) {
+
+        @Override
+        public String toString() {
+            return String.format("%d confirmados (media %.1f ms, máx %.1f ms), %d sin confirmar, %d reenviados, %d repetidos, %d descartados",
+                    acknowledged, averageLatencyMillis, maxLatencyMillis, unacknowledged, retransmitted, duplicates, dropped);
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.chat.controller;
+
+import com.chat.model.User;
+import com.chat.network.socket.ChatClient;
+import com.chat.network.socket.PeerConnection;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro de contactos y conexiones Peer activas.
+ * Relaciona cada Peer con su contacto en ambos sentidos para que las búsquedas sean O(1).
+ * Las escrituras se hacen bajo un mismo cerrojo para que los índices no queden desalineados
+ * y las lecturas no se bloquean nunca.
+ */
+class PeerRegistry {
+
+    /**
+     * Enlace inmutable entre una conexión Peer y su contacto.
+     * Cualquier cambio se hace sustituyendo el enlace completo
+     *
+     * @param peerId ID de la conexión Peer
+     * @param connection Conexión Peer (null si aún no hay conexión)
+     * @param chatClient Cliente si la conexión la abrimos nosotros, null si es externa
+     * @param contactId ID del contacto asociado (null si aún no se conoce)
+     */
+    record PeerLink(String peerId, PeerConnection connection, ChatClient chatClient, String contactId) {
+
+        PeerLink withContactId(String newContactId) {
+            return new PeerLink(peerId, connection, chatClient, newContactId);
+        }
+    }
+
+    /** Propiedades **/
+    private final Map<String, User> contacts;                 // Contactos por su ID
+    private final Map<String, PeerLink> linksByPeerId;        // Enlaces por ID del Peer
+    private final Map<String, PeerLink> linksByContactId;     // Enlaces por ID del contacto
+    private final Object writeLock;                           // Cerrojo de las escrituras
+
+    /** Constructor por defecto **/
+    PeerRegistry() {
+        this.contacts = new ConcurrentHashMap<>();
+        this.linksByPeerId = new ConcurrentHashMap<>();
+        this.linksByContactId = new ConcurrentHashMap<>();
+        this.writeLock = new Object();
+    }
+
+    /**
+     * Añade o actualiza un contacto
+     * @param user Contacto
+     */
+    void addContact(User user) {
+        contacts.put(user.getUserId(), user);
+    }
+
+    /**
+     * Verifica si un usuario está agregado como contacto
+     * @param contactId ID del contacto
+     * @return True si está agregado
+     */
+    boolean isContact(String contactId) {
+        return contactId != null && contacts.containsKey(contactId);
+    }
+
+    /**
+     * Registra una conexión Peer, sustituyendo la que hubiera con el mismo ID.
+     * Si ya había un contacto asociado al Peer se conserva
+     *
+     * @param peerId ID de la conexión Peer
+     * @param connection Conexión Peer
+     * @param chatClient Cliente si la conexión la abrimos nosotros, null si es externa
+     * @return Enlace anterior del Peer, o null si no había
+     */
+    PeerLink registerConnection(String peerId, PeerConnection connection, ChatClient chatClient) {
+        synchronized (writeLock) {
+            PeerLink previous = linksByPeerId.get(peerId);
+            String contactId = previous != null ? previous.contactId() : null;
+
+            put(new PeerLink(peerId, connection, chatClient, contactId));
+            return previous;
+        }
+    }
+
+    /**
+     * Registra una conexión Peer ya asociada a un contacto
+     *
+     * @param peerId ID de la conexión Peer
+     * @param connection Conexión Peer
+     * @param chatClient Cliente si la conexión la abrimos nosotros, null si es externa
+     * @param contactId ID del contacto
+     * @return Enlace anterior del Peer, o null si no había
+     */
+    PeerLink registerConnection(String peerId, PeerConnection connection, ChatClient chatClient, String contactId) {
+        synchronized (writeLock) {
+            PeerLink previous = linksByPeerId.get(peerId);
+
+            unbindContact(contactId, peerId);
+            put(new PeerLink(peerId, connection, chatClient, contactId));
+            return previous;
+        }
+    }
+
+    /**
+     * Asocia un contacto a una conexión Peer.
+     * Si el contacto estaba asociado a otro Peer, ese Peer queda sin contacto
+     *
+     * @param contactId ID del contacto
+     * @param peerId ID de la conexión Peer
+     */
+    void bindContact(String contactId, String peerId) {
+        synchronized (writeLock) {
+            PeerLink link = linksByPeerId.get(peerId);
+
+            unbindContact(contactId, peerId);
+            put(link != null
+                    ? link.withContactId(contactId)
+                    : new PeerLink(peerId, null, null, contactId));
+        }
+    }
+
+    /**
+     * Elimina el enlace de una conexión Peer
+     * @param peerId ID de la conexión Peer
+     * @return Enlace eliminado, o null si no había
+     */
+    PeerLink unregisterPeer(String peerId) {
+        if (peerId == null) return null;
+
+        synchronized (writeLock) {
+            PeerLink link = linksByPeerId.remove(peerId);
+            if (link != null && link.contactId() != null) {
+                linksByContactId.remove(link.contactId(), link);
+            }
+            return link;
+        }
+    }
+
+    /**
+     * Elimina el enlace asociado a un contacto. El contacto sigue agregado
+     * @param contactId ID del contacto
+     * @return Enlace eliminado, o null si no había
+     */
+    PeerLink unregisterContact(String contactId) {
+        if (contactId == null) return null;
+
+        synchronized (writeLock) {
+            PeerLink link = linksByContactId.remove(contactId);
+            if (link != null) {
+                linksByPeerId.remove(link.peerId(), link);
+            }
+            return link;
+        }
+    }
+
+    /**
+     * Busca un contacto por el ID de su conexión Peer
+     * @param peerId ID de la conexión Peer
+     * @return Contacto si existe, null en caso contrario
+     */
+    User getContactByPeerId(String peerId) {
+        if (peerId == null) return null;
+
+        PeerLink link = linksByPeerId.get(peerId);
+        return link != null && link.contactId() != null ? contacts.get(link.contactId()) : null;
+    }
+
+    /**
+     * Busca el ID de la conexión Peer de un contacto
+     * @param contactId ID del contacto
+     * @return ID de la conexión Peer si existe, null en caso contrario
+     */
+    String getPeerIdByContactId(String contactId) {
+        if (contactId == null) return null;
+
+        PeerLink link = linksByContactId.get(contactId);
+        return link != null ? link.peerId() : null;
+    }
+
+    /**
+     * Devuelve el enlace de una conexión Peer
+     * @param peerId ID de la conexión Peer
+     * @return Enlace si existe, null en caso contrario
+     */
+    PeerLink getLink(String peerId) {
+        return peerId != null ? linksByPeerId.get(peerId) : null;
+    }
+
+    /**
+     * Devuelve la conexión de un Peer
+     * @param peerId ID de la conexión Peer
+     * @return Conexión si existe, null en caso contrario
+     */
+    PeerConnection getConnection(String peerId) {
+        PeerLink link = getLink(peerId);
+        return link != null ? link.connection() : null;
+    }
+
+    /**
+     * Verifica si la conexión con un Peer la abrimos nosotros
+     * @param peerId ID de la conexión Peer
+     * @return True si hay un ChatClient para ese Peer
+     */
+    boolean isOutbound(String peerId) {
+        PeerLink link = getLink(peerId);
+        return link != null && link.chatClient() != null;
+    }
+
+    /**
+     * Getter
+     */
+    Collection<User> getContacts() {
+        return contacts.values();
+    }
+
+    /**
+     * Guarda un enlace en los dos índices. Debe llamarse con el cerrojo tomado
+     * @param link Enlace a guardar
+     */
+    private void put(PeerLink link) {
+        linksByPeerId.put(link.peerId(), link);
+        if (link.contactId() != null) {
+            linksByContactId.put(link.contactId(), link);
+        }
+    }
+
+    /**
+     * Quita un contacto del Peer al que estuviera asociado, salvo que sea el indicado.
+     * Debe llamarse con el cerrojo tomado
+     *
+     * @param contactId ID del contacto
+     * @param peerId ID del Peer que va a quedar asociado
+     */
+    private void unbindContact(String contactId, String peerId) {
+        if (contactId == null) return;
+
+        PeerLink previous = linksByContactId.remove(contactId);
+        if (previous != null && !previous.peerId().equals(peerId)) {
+            linksByPeerId.replace(previous.peerId(), previous, previous.withContactId(null));
+        }
+
+        PeerLink current = linksByPeerId.get(peerId);
+        if (current != null && current.contactId() != null && !current.contactId().equals(contactId)) {
+            linksByContactId.remove(current.contactId(), current);
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+package com.chat.controller;
+
+import com.chat.model.Message;
+import com.chat.model.User;
+import com.chat.network.socket.ChatClient;
+import com.chat.network.socket.ConnectionExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.chat.utils.Constants.RECONNECT_BASE_DELAY_MILLIS;
+import static com.chat.utils.Constants.RECONNECT_BUFFER_SIZE;
+import static com.chat.utils.Constants.RECONNECT_MAX_DELAY_MILLIS;
+import static com.chat.utils.Constants.RECONNECT_WINDOW_MILLIS;
+
+/**
+ * Mantiene durante un tiempo limitado las sesiones de los Peers que se desconectan sin avisar.
+ *
+ * Solo reconecta el lado que abrió la conexión, con esperas exponenciales y aleatorias para que
+ * los reintentos de varios Peers no coincidan; el otro lado espera el RESUME.
+ * Mientras dura la espera los mensajes salientes se guardan y se envían al reanudar.
+ * Si la conexión no se recupera a tiempo se cierra la sesión como hasta ahora.
+ */
+class ReconnectManager {
+
+    /** Propiedades **/
+    private final ChatManager chatManager;                   // Controlador al que se avisa
+    private final Map<String, Suspension> suspensions;       // Sesiones en espera por ID del contacto
+    private final ScheduledExecutorService scheduler;        // Hilo de los reintentos y los plazos
+    private final AtomicLong resumedCount;                   // Sesiones reanudadas
+    private final AtomicLong failedCount;                    // Sesiones cerradas sin poder reanudar
+
+    /** Constructor por parámetros **/
+    ReconnectManager(ChatManager chatManager) {
+        this.chatManager = chatManager;
+        this.suspensions = new ConcurrentHashMap<>();
+        this.resumedCount = new AtomicLong();
+        this.failedCount = new AtomicLong();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "chat-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Suspende la sesión con un contacto y empieza a reconectar con él.
+     * Se usa en el lado que abrió la conexión
+     *
+     * @param contact Contacto desconectado
+     */
+    void reconnect(User contact) {
+        Suspension suspension = suspend(contact);
+        if (suspension != null) {
+            scheduleAttempt(suspension);
+        }
+    }
+
+    /**
+     * Suspende la sesión con un contacto a la espera de que vuelva a conectar.
+     * Se usa en el lado que aceptó la conexión
+     *
+     * @param contact Contacto desconectado
+     */
+    void awaitResume(User contact) {
+        Suspension suspension = suspend(contact);
+        if (suspension != null) {
+            suspension.schedule(scheduler.schedule(() -> expire(suspension), RECONNECT_WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Verifica si la sesión con un contacto está a la espera de reanudarse
+     * @param contactId ID del contacto
+     * @return True si está suspendida
+     */
+    boolean isSuspended(String contactId) {
+        return suspensions.containsKey(contactId);
+    }
+
+    /**
+     * Guarda un mensaje para enviarlo cuando se reanude la sesión
+     * @param contactId ID del contacto
+     * @param message Mensaje a enviar
+     * @return True si se ha guardado, false si la sesión no está suspendida o el buffer está lleno
+     */
+    boolean buffer(String contactId, Message message) {
+        Suspension suspension = suspensions.get(contactId);
+        return suspension != null && suspension.offer(message);
+    }
+
+    /**
+     * Termina la espera de una sesión porque se ha vuelto a conectar
+     * @param contactId ID del contacto
+     * @return Mensajes guardados durante la espera, en orden, o null si la sesión no estaba suspendida
+     */
+    List<Message> resume(String contactId) {
+        Suspension suspension = suspensions.remove(contactId);
+        if (suspension == null) return null;
+
+        resumedCount.incrementAndGet();
+        return suspension.close();
+    }
+
+    /**
+     * Cancela la espera de una sesión descartando los mensajes guardados
+     * @param contactId ID del contacto
+     */
+    void cancel(String contactId) {
+        Suspension suspension = suspensions.remove(contactId);
+        if (suspension != null) {
+            suspension.close();
+        }
+    }
+
+    /**
+     * Registra la suspensión de una sesión si no lo estaba ya
+     * @param contact Contacto desconectado
+     * @return Suspensión nueva, o null si ya había una
+     */
+    private Suspension suspend(User contact) {
+        Suspension suspension = new Suspension(contact, System.currentTimeMillis() + RECONNECT_WINDOW_MILLIS);
+        if (suspensions.putIfAbsent(contact.getUserId(), suspension) != null) return null;
+
+        System.out.println("Conexión con " + contact.getUserId() + " perdida, se intentará recuperar");
+        return suspension;
+    }
+
+    /**
+     * Programa el siguiente intento de reconexión
+     * @param suspension Sesión suspendida
+     */
+    private void scheduleAttempt(Suspension suspension) {
+        long remaining = suspension.deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            expire(suspension);
+            return;
+        }
+
+        long delay = Math.min(backoff(suspension.attempts), remaining);
+        suspension.schedule(scheduler.schedule(
+                () -> ConnectionExecutor.getInstance().execute(() -> attempt(suspension)),
+                delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Intenta volver a conectar con el contacto. La conexión puede tardar, así que no
+     * se ejecuta en el hilo del planificador
+     *
+     * @param suspension Sesión suspendida
+     */
+    private void attempt(Suspension suspension) {
+        User contact = suspension.contact;
+        if (suspensions.get(contact.getUserId()) != suspension) return;
+
+        suspension.attempts++;
+        ChatClient chatClient = new ChatClient();
+
+        try {
+            chatClient.connect(contact.getIp(), contact.getPort());
+        } catch (IOException ex) {
+            System.out.println("Reintento " + suspension.attempts + " con " + contact.getUserId() + " fallido: " + ex.getMessage());
+            scheduleAttempt(suspension);
+            return;
+        }
+
+        if (!chatManager.handleReconnected(contact, chatClient)) {
+            chatClient.disconnect();
+        }
+    }
+
+    /**
+     * Cierra la sesión porque no se ha recuperado a tiempo
+     * @param suspension Sesión suspendida
+     */
+    private void expire(Suspension suspension) {
+        String contactId = suspension.contact.getUserId();
+        if (!suspensions.remove(contactId, suspension)) return;
+
+        failedCount.incrementAndGet();
+        List<Message> lost = suspension.close();
+        chatManager.handleReconnectFailed(suspension.contact, lost.size());
+    }
+
+    /**
+     * Calcula la espera antes de un intento: crece exponencialmente hasta un máximo
+     * y se elige al azar en su mitad superior
+     *
+     * @param attempts Intentos ya realizados
+     * @return Espera en milisegundos
+     */
+    private static long backoff(int attempts) {
+        long delay = RECONNECT_BASE_DELAY_MILLIS << Math.min(attempts, 16);
+        delay = Math.min(delay, RECONNECT_MAX_DELAY_MILLIS);
+
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas de reconexión
+     * @return Métricas actuales
+     */
+    Stats getStats() {
+        return new Stats(suspensions.size(), resumedCount.get(), failedCount.get());
+    }
+
+    /**
+     * Métricas de reconexión
+     * @param suspended Sesiones a la espera de reanudarse
+     * @param resumed Sesiones reanudadas
+     * @param failed Sesiones cerradas sin poder reanudar
+     */
+    record Stats(int suspended, long resumed, long failed) {
+
+        @Override
+        public String toString() {
+            return String.format("%d en espera, %d reanudadas, %d cerradas sin reanudar", suspended, resumed, failed);
+        }
+    }
+
+    /** Sesión a la espera de reanudarse **/
+    private static final class Suspension {
+
+        private final User contact;                          // Contacto desconectado
+        private final long deadline;                         // Momento en el que se deja de esperar
+        private final List<Message> pending;                 // Mensajes salientes guardados
+        private volatile int attempts;                       // Intentos de reconexión realizados
+        private ScheduledFuture<?> task;                     // Siguiente intento o fin del plazo
+        private boolean closed;                              // True si ya no admite mensajes
+
+        private Suspension(User contact, long deadline) {
+            this.contact = contact;
+            this.deadline = deadline;
+            this.pending = new ArrayList<>();
+        }
+
+        private synchronized boolean offer(Message message) {
+            if (closed || pending.size() >= RECONNECT_BUFFER_SIZE) return false;
+
+            pending.add(message);
+            return true;
+        }
+
+        private synchronized void schedule(ScheduledFuture<?> next) {
+            if (closed) {
+                next.cancel(false);
+            } else {
+                task = next;
+            }
+        }
+
+        private synchronized List<Message> close() {
+            closed = true;
+            if (task != null) {
+                task.cancel(false);
+            }
+
+            List<Message> messages = new ArrayList<>(pending);
+            pending.clear();
+            return messages;
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
@@ -339,6 +340,30 @@ public class UIController implements ViewManager {
     public void displayFileMessage(MessageEntry messageEntry){
         chatWindow.displayFileMessage(messageEntry);
     }
+    
+    /** Muestra varios mensajes nuevos de una vez en la pantalla de Chat
+     * 
+     * @param messageEntries Mensajes recibidos o enviados, en orden
+    **/
+    @Override
+    public void displayMessages(List<MessageEntry> messageEntries){
+        chatWindow.displayMessages(messageEntries);
+    }
+    
+    /** Muestra delante del chat una página anterior del historial
+     * 
+     * @param messageEntries Mensajes de más antiguo a más reciente
+    **/
+    @Override
+    public void displayOlderMessages(List<MessageEntry> messageEntries){
+        chatWindow.displayOlderMessages(messageEntries);
+    }
+    
+    /** Las actualizaciones se hacen en el hilo de Swing **/
+    @Override
+    public Executor getViewExecutor(){
+        return SwingUtilities::invokeLater;
+    }
 
     /** MÉTODOS PARA NOTIFICAR AL USUARIO **/
     
@@ -0,0 +1,65 @@
+package com.chat.controller;
+
+import com.chat.model.MessageEntry;
+import com.chat.model.User;
+
+import java.util.List;
+
+/**
+ * Eventos que el ChatManager publica para la interfaz a través del {@link UiEventBus}
+ */
+public sealed interface UiEvent {
+
+    /**
+     * Aviso al usuario
+     * @param text Texto del aviso
+     * @param error True si es un error
+     */
+    record Notice(String text, boolean error) implements UiEvent { }
+
+    /**
+     * Lista de contactos cargada
+     * @param contacts Contactos del usuario actual
+     */
+    record ContactsLoaded(List<User> contacts) implements UiEvent { }
+
+    /**
+     * Contacto nuevo
+     * @param contact Contacto añadido
+     * @param peerId ID de su conexión
+     */
+    record ContactCreated(User contact, String peerId) implements UiEvent { }
+
+    /**
+     * Cambio de estado de la conexión de un contacto
+     * @param contactId ID del contacto
+     * @param peerId ID de su conexión
+     * @param connected True si está conectado
+     */
+    record ContactStatus(String contactId, String peerId, boolean connected) implements UiEvent { }
+
+    /**
+     * Contacto seleccionado
+     * @param contactId ID del contacto, o null si no hay ninguno
+     */
+    record ContactSelected(String contactId) implements UiEvent { }
+
+    /**
+     * Chat completo a mostrar, que sustituye al que se esté mostrando
+     * @param messageHistory Historial de mensajes
+     */
+    record ChatShown(List<MessageEntry> messageHistory) implements UiEvent { }
+
+    /**
+     * Mensaje nuevo en el chat que se está mostrando
+     * @param messageEntry Mensaje de texto o de archivo
+     */
+    record MessageShown(MessageEntry messageEntry) implements UiEvent { }
+
+    /**
+     * Página anterior del historial, que se añade delante del chat que se está mostrando
+     * @param messageEntries Mensajes de más antiguo a más reciente
+     */
+    record HistoryLoaded(List<MessageEntry> messageEntries) implements UiEvent { }
+
+}
@@ -0,0 +1,274 @@
+package com.chat.controller;
+
+import com.chat.controller.UiEvent.ChatShown;
+import com.chat.controller.UiEvent.ContactCreated;
+import com.chat.controller.UiEvent.ContactSelected;
+import com.chat.controller.UiEvent.ContactStatus;
+import com.chat.controller.UiEvent.ContactsLoaded;
+import com.chat.controller.UiEvent.HistoryLoaded;
+import com.chat.controller.UiEvent.MessageShown;
+import com.chat.controller.UiEvent.Notice;
+import com.chat.model.MessageEntry;
+import com.chat.model.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.chat.utils.Constants.UI_FRAME_MILLIS;
+
+/**
+ * Canal de eventos entre el ChatManager y la interfaz.
+ * Los eventos se publican desde cualquier hilo y se entregan a la vista por lotes, como mucho
+ * uno por fotograma, en el hilo de la vista ({@link ViewManager#getViewExecutor()}).
+ * Dentro de un lote solo se aplica lo último de cada cosa:
+ *   - Un chat completo anula los mensajes, chats e historial anteriores del lote.
+ *   - De cada contacto solo cuenta su último estado, y de la selección la última.
+ *   - Los mensajes seguidos se pintan de una vez y los avisos seguidos del mismo tipo se juntan.
+ * Así una ráfaga de mensajes acaba en unos pocos repintados en lugar de uno por mensaje.
+ */
+public class UiEventBus {
+
+    /** Propiedades **/
+    private final ViewManager view;                      // Vista que recibe los eventos
+    private final Queue<UiEvent> pending;                // Eventos publicados y aún sin entregar
+    private final AtomicBoolean scheduled;               // Hay una entrega programada
+    private volatile long lastFlushMillis;               // Momento de la última entrega
+    private final AtomicLong publishedEvents;            // Eventos publicados
+    private final AtomicLong viewCalls;                  // Llamadas hechas a la vista
+    private final AtomicLong batches;                    // Lotes entregados
+
+    /** Constructor por parámetros **/
+    public UiEventBus(ViewManager view) {
+        this.view = view;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+        this.publishedEvents = new AtomicLong();
+        this.viewCalls = new AtomicLong();
+        this.batches = new AtomicLong();
+    }
+
+    /**
+     * Publica un evento. Se entrega en el siguiente fotograma
+     * @param event Evento a publicar
+     */
+    public void publish(UiEvent event) {
+        pending.add(event);
+        publishedEvents.incrementAndGet();
+
+        if (scheduled.compareAndSet(false, true)) {
+            long delay = Math.max(0, lastFlushMillis + UI_FRAME_MILLIS - System.currentTimeMillis());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, view.getViewExecutor())
+                    .execute(this::flush);
+        }
+    }
+
+    /** Atajos para publicar cada tipo de evento **/
+
+    public void showMessage(String text) {
+        publish(new Notice(text, false));
+    }
+
+    public void showErrorMessage(String text) {
+        publish(new Notice(text, true));
+    }
+
+    public void setContactsList(List<User> contacts) {
+        publish(new ContactsLoaded(contacts));
+    }
+
+    public void createContactPanel(User contact, String peerId) {
+        publish(new ContactCreated(contact, peerId));
+    }
+
+    public void updateContactPanel(String contactId, String peerId, boolean connected) {
+        publish(new ContactStatus(contactId, peerId, connected));
+    }
+
+    public void setContactPanelAsSelected(String contactId) {
+        publish(new ContactSelected(contactId));
+    }
+
+    public void displayChat(List<MessageEntry> messageHistory) {
+        publish(new ChatShown(List.copyOf(messageHistory)));
+    }
+
+    public void displayMessage(MessageEntry messageEntry) {
+        publish(new MessageShown(messageEntry));
+    }
+
+    public void displayOlderMessages(List<MessageEntry> messageEntries) {
+        publish(new HistoryLoaded(List.copyOf(messageEntries)));
+    }
+
+    /**
+     * Entrega a la vista todo lo publicado. Se ejecuta en el hilo de la vista
+     */
+    private void flush() {
+        scheduled.set(false);
+        lastFlushMillis = System.currentTimeMillis();
+
+        List<UiEvent> batch = new ArrayList<>();
+        UiEvent event;
+        while ((event = pending.poll()) != null) {
+            batch.add(event);
+        }
+        if (batch.isEmpty()) return;
+
+        batches.incrementAndGet();
+        deliver(batch);
+    }
+
+    /**
+     * Aplica un lote en orden, saltando lo que anula un evento posterior del mismo lote
+     * @param batch Eventos en orden de publicación
+     */
+    private void deliver(List<UiEvent> batch) {
+        int lastChat = -1;
+        int lastSelection = -1;
+        int lastContacts = -1;
+        Map<String, Integer> lastStatus = new HashMap<>();
+
+        for (int i = 0; i < batch.size(); i++) {
+            switch (batch.get(i)) {
+                case ChatShown c -> lastChat = i;
+                case ContactSelected s -> lastSelection = i;
+                case ContactsLoaded l -> lastContacts = i;
+                case ContactStatus s -> lastStatus.put(s.contactId(), i);
+                default -> { }
+            }
+        }
+
+        List<MessageEntry> messages = new ArrayList<>();
+        StringBuilder notices = new StringBuilder();
+        boolean noticesAreErrors = false;
+
+        for (int i = 0; i < batch.size(); i++) {
+            UiEvent event = batch.get(i);
+
+            if (event instanceof MessageShown shown) {
+                if (i > lastChat) messages.add(shown.messageEntry());
+                continue;
+            }
+
+            if (event instanceof Notice notice) {
+                if (!notices.isEmpty() && notice.error() != noticesAreErrors) {
+                    showNotice(notices.toString(), noticesAreErrors);
+                    notices.setLength(0);
+                }
+                if (!notices.isEmpty()) notices.append('\n');
+                notices.append(notice.text());
+                noticesAreErrors = notice.error();
+                continue;
+            }
+
+            boolean superseded = switch (event) {
+                case ChatShown c -> i != lastChat;
+                case HistoryLoaded h -> i < lastChat;
+                case ContactSelected s -> i != lastSelection;
+                case ContactsLoaded l -> i != lastContacts;
+                case ContactStatus s -> lastStatus.get(s.contactId()) != i;
+                default -> false;
+            };
+            if (superseded) continue;
+
+            // Los contactos no tocan el chat; un chat completo o su historial sí van detrás de lo ya pintado
+            if (event instanceof ChatShown || event instanceof HistoryLoaded) {
+                showMessages(messages);
+                if (!notices.isEmpty()) {
+                    showNotice(notices.toString(), noticesAreErrors);
+                    notices.setLength(0);
+                }
+            }
+
+            apply(event);
+        }
+
+        showMessages(messages);
+        if (!notices.isEmpty()) {
+            showNotice(notices.toString(), noticesAreErrors);
+        }
+    }
+
+    /**
+     * Llama a la vista con un evento
+     * @param event Evento a aplicar
+     */
+    private void apply(UiEvent event) {
+        try {
+            switch (event) {
+                case ChatShown c -> view.displayChat(c.messageHistory());
+                case ContactSelected s -> view.setContactPanelAsSelected(s.contactId());
+                case ContactsLoaded l -> view.setContactsList(l.contacts());
+                case ContactStatus s -> view.updateContactPanel(s.contactId(), s.peerId(), s.connected());
+                case ContactCreated c -> view.createContactPanel(c.contact(), c.peerId());
+                case MessageShown m -> view.displayMessages(List.of(m.messageEntry()));
+                case HistoryLoaded h -> view.displayOlderMessages(h.messageEntries());
+                case Notice n -> {
+                    showNotice(n.text(), n.error());
+                    return;
+                }
+            }
+            viewCalls.incrementAndGet();
+        } catch (RuntimeException ex) {
+            System.out.println("Error actualizando la interfaz: " + ex.getMessage());
+        }
+    }
+
+    private void showMessages(List<MessageEntry> messages) {
+        if (messages.isEmpty()) return;
+
+        try {
+            view.displayMessages(List.copyOf(messages));
+            viewCalls.incrementAndGet();
+        } catch (RuntimeException ex) {
+            System.out.println("Error actualizando la interfaz: " + ex.getMessage());
+        }
+        messages.clear();
+    }
+
+    private void showNotice(String text, boolean error) {
+        try {
+            if (error) {
+                view.showErrorMessage(text);
+            } else {
+                view.showMessage(text);
+            }
+            viewCalls.incrementAndGet();
+        } catch (RuntimeException ex) {
+            System.out.println("Error actualizando la interfaz: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas del canal
+     * @return Métricas actuales
+     */
+    public Stats getStats() {
+        return new Stats(publishedEvents.get(), batches.get(), viewCalls.get(), pending.size());
+    }
+
+    /**
+     * Métricas del canal de eventos
+     * @param publishedEvents Eventos publicados
+     * @param batches Lotes entregados
+     * @param viewCalls Llamadas hechas a la vista
+     * @param pendingEvents Eventos a la espera del siguiente fotograma
+     */
+    public record Stats(long publishedEvents, long batches, long viewCalls, int pendingEvents) {
+
+        @Override
+        public String toString() {
+            return String.format("%d eventos en %d lotes, %d llamadas a la vista, %d pendientes",
+                    publishedEvents, batches, viewCalls, pendingEvents);
+        }
+    }
+
+}
@@ -1,16 +1,28 @@
 package com.chat.controller;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+import com.chat.model.Message.MessageType;
 import com.chat.model.MessageEntry;
 import com.chat.model.User;
  
 
 /**
+ * Vista de la aplicación.
+ * El ChatManager no llama directamente a los métodos que actualizan la interfaz: publica eventos
+ * en un {@link UiEventBus}, que los entrega agrupados y siempre desde {@link #getViewExecutor()}.
+ * Las implementaciones pueden suponer que esos métodos se llaman en su hilo y nunca a la vez.
  *
  * @author wenfi
  */
 public interface ViewManager {
     
+    /**
+     * Hilo en el que la vista recibe las actualizaciones
+     * @return Ejecutor del hilo de la vista
+     */
+    Executor getViewExecutor();
+    
     void showChatWindow();
     
     void showMessage(String message);
@@ -33,4 +45,25 @@ public interface ViewManager {
     
     void displayFileMessage(MessageEntry messageEntry);
     
+    /**
+     * Añade delante del chat que se está mostrando una página anterior del historial
+     * @param messageEntries Mensajes de más antiguo a más reciente
+     */
+    void displayOlderMessages(List<MessageEntry> messageEntries);
+    
+    /**
+     * Añade varios mensajes nuevos al chat que se está mostrando.
+     * Las vistas que pueden pintarlos de una vez lo sobrescriben
+     * @param messageEntries Mensajes de texto o de archivo, en orden
+     */
+    default void displayMessages(List<MessageEntry> messageEntries) {
+        for (MessageEntry messageEntry : messageEntries) {
+            if (messageEntry.getMessage().getType() == MessageType.FILE) {
+                displayFileMessage(messageEntry);
+            } else {
+                displayTextMessage(messageEntry);
+            }
+        }
+    }
+    
 }
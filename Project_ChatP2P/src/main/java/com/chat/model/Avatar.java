@@ -38,6 +38,13 @@ public class Avatar implements Serializable {
         loadImage();
     }
 
+    /** Constructor de copia: la imagen en memoria no se comparte con el original **/
+    public Avatar(Avatar other) {
+        this.localPath = other.localPath;
+        this.storageUrl = other.storageUrl;
+        this.imageData = other.imageData != null ? other.imageData.clone() : null;
+    }
+
 
     /**
      * Comprueba si una imagen es válida
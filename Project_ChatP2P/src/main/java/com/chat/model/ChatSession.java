@@ -4,10 +4,21 @@
  */
 package com.chat.model;
 
+import com.chat.storage.HistoryPage;
+import com.chat.storage.MessageStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.chat.utils.Constants.HISTORY_PAGE_SIZE;
+import static com.chat.utils.Constants.HISTORY_WINDOW_SIZE;
 
 /**
+ * Sesión de Chat con un contacto.
+ * En memoria solo se guardan los últimos mensajes en un buffer circular;
+ * los anteriores se consultan por páginas en el historial guardado.
  *
  * @author jairo
  */
@@ -19,15 +30,35 @@ public class ChatSession {
     private final String localUserId;                 // ID del Usuario actual
     private final String remoteUserId;                // ID del Contacto
     
-    private List<MessageEntry> messageHistory;        // Historial de mensajes
+    private final int windowSize;                     // Mensajes que se mantienen en memoria
+    private final AtomicReferenceArray<MessageEntry> ring;  // Buffer circular, el doble de la ventana
+    private volatile long count;                      // Mensajes añadidos desde que se abrió la sesión
+    
+    private final HistoryPage initialPage;            // Página cargada al abrir la sesión
+    private HistoryPage olderPage;                    // Última página anterior consultada
     
     /** Constructor por parámetros **/
     public ChatSession(String remoteUserId) {
+        this(remoteUserId, HISTORY_WINDOW_SIZE);
+    }
+
+    /** Constructor por parámetros **/
+    public ChatSession(String remoteUserId, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("La ventana del historial debe ser positiva");
+        }
+
         this.localUserId = User.getCurrentUser().getUserId();
         this.remoteUserId = remoteUserId;
         this.sessionId = generateSessionId();
 
-        this.messageHistory = new CopyOnWriteArrayList<>();
+        this.windowSize = windowSize;
+        this.ring = new AtomicReferenceArray<>(windowSize * 2);
+
+        this.initialPage = MessageStore.getInstance().loadLatest(sessionId, Math.min(HISTORY_PAGE_SIZE, windowSize));
+        for (MessageEntry entry : initialPage.entries()) {
+            append(entry);
+        }
     }
     
     /**
@@ -48,7 +79,69 @@ public class ChatSession {
      * @param messageEntry Entrada de mensaje a registrar
      */
     public void addMessage(User user, MessageEntry messageEntry) {
-        messageHistory.add(messageEntry);
+        append(messageEntry);
+        MessageStore.getInstance().append(sessionId, messageEntry);
+    }
+
+    /**
+     * Añade una entrada al buffer circular, sustituyendo la más antigua si está lleno
+     * 
+     * @param messageEntry Entrada de mensaje
+     */
+    private synchronized void append(MessageEntry messageEntry) {
+        long position = count;
+        ring.set((int) (position % ring.length()), messageEntry);
+        count = position + 1;
+    }
+
+    /**
+     * Carga la página anterior del historial guardado, empezando por los mensajes
+     * que ya no están en memoria. Los mensajes cargados no se añaden a la ventana
+     * 
+     * @return Mensajes cargados, de más antiguo a más reciente (vacío si no hay más)
+     */
+    public synchronized List<MessageEntry> loadOlderMessages() {
+        if (!hasOlderMessages()) return List.of();
+
+        HistoryPage cursor = olderPage;
+        if (cursor == null) {
+            // Se guarda lo pendiente para que el mensaje más antiguo en memoria tenga su ID
+            MessageStore.getInstance().flush();
+
+            List<MessageEntry> history = getMessageHistory();
+            if (history.isEmpty()) {
+                cursor = HistoryPage.EMPTY;
+            } else {
+                MessageEntry oldest = history.get(0);
+                long id = oldest.getStoreId() != 0 ? oldest.getStoreId() : Long.MIN_VALUE;
+                cursor = HistoryPage.before(oldest.getTimestampMillis(), id);
+            }
+        }
+
+        HistoryPage page = MessageStore.getInstance().loadBefore(sessionId, cursor, HISTORY_PAGE_SIZE);
+        olderPage = page;
+
+        return page.entries();
+    }
+
+    /**
+     * Vuelve a empezar la paginación desde los mensajes en memoria, al volver a mostrar el chat
+     */
+    public synchronized void resetOlderMessages() {
+        olderPage = null;
+    }
+
+    /**
+     * Verifica si quedan mensajes anteriores a los cargados en el historial guardado
+     * 
+     * @return True si hay más mensajes
+     */
+    public synchronized boolean hasOlderMessages() {
+        if (olderPage != null) {
+            return olderPage.hasMore();
+        }
+
+        return initialPage.hasMore() || (count > windowSize && MessageStore.getInstance().isAvailable());
     }
 
     /** Getters **/
@@ -64,8 +157,32 @@ public class ChatSession {
         return remoteUserId;
     }
     
+    /**
+     * Devuelve una copia de los mensajes en memoria, de más antiguo a más reciente.
+     * No bloquea a quien añade mensajes: si mientras se copia se sobrescribe
+     * alguna posición, se vuelve a copiar
+     * 
+     * @return Últimos mensajes de la sesión
+     */
     public List<MessageEntry> getMessageHistory() {
-        return messageHistory;
+        while (true) {
+            long end = count;
+            long start = Math.max(0, end - windowSize);
+
+            List<MessageEntry> snapshot = new ArrayList<>((int) (end - start));
+            for (long position = start; position < end; position++) {
+                snapshot.add(ring.get((int) (position % ring.length())));
+            }
+
+            // La posición 'start' solo se reescribe al añadir el mensaje número start + capacidad
+            if (count - start < ring.length()) {
+                return Collections.unmodifiableList(snapshot);
+            }
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
     }
     
 }
@@ -3,9 +3,12 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+
+import static com.chat.utils.Constants.COMPRESSION_ALGORITHM;
 
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -18,6 +21,14 @@ public class Message implements Serializable {
         USER_INFO,        // Información de usuario
         CONNECTION,       // Conexión a/de contacto
         DISCONNECTION,    // Desconexión de/de parte de contacto
+        FILE_CHUNK,       // Fragmento de un archivo en transferencia
+        PING,             // Comprobación de que el Peer sigue vivo
+        PONG,             // Respuesta a un PING
+        RESUME,           // Reanudación de una sesión tras una reconexión
+        ACK,              // Confirmación acumulada de los mensajes recibidos
+        FILE_DATA,        // Trozo de un archivo cuyo contenido va en bruto detrás de la trama
+        FILE_ACCEPT,      // Respuesta a un anuncio de archivo con los bloques que ya se tienen
+        HANDSHAKE,        // Intercambio de claves de una conexión cifrada
     }
 
     /** Propiedades básicas **/
@@ -29,7 +40,11 @@ public class Message implements Serializable {
     
     /** Propiedades para FILE **/
     private byte[] fileContent;                // Contenido binario del archivo
-    private Map<String, Object> fileData;      // Nombre del archivo
+    private Map<String, Object> fileData;      // Datos del archivo (nombre, tamaño, transferencia...)
+    
+    /** Propiedades de entrega **/
+    private int epoch;                         // Sesión de numeración del emisor, 0 si no se numera
+    private long sequence;                     // Número de secuencia dentro de la sesión, o último confirmado en un ACK
     
     /** Constructor vacío **/
     public Message() { fileData = new HashMap<>(); }
@@ -52,21 +67,96 @@ public class Message implements Serializable {
         return message;
     }
     
-    /** Método para crear un mensaje de archivo **/
-    public static Message createFileMessage(File file) throws IOException {
+    /**
+     * Método para crear un mensaje de archivo.
+     * Solo anuncia la transferencia, el contenido viaja después en mensajes FILE_CHUNK o FILE_DATA.
+     * El ID de la transferencia se deriva del emisor, del receptor y del archivo, de modo que al volver a
+     * enviar el mismo archivo el receptor puede reanudar lo que ya tenía, y el mismo archivo enviado
+     * a dos contactos son dos transferencias distintas
+     * @param file Archivo a anunciar
+     * @param recipientId ID del contacto que lo recibe
+     */
+    public static Message createFileMessage(File file, String recipientId) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("No se puede leer el archivo: " + file.getPath());
+        }
+
+        User sender = User.getCurrentUser();
+        String identity = (sender != null ? sender.getUserId() : "") + "|" + recipientId + "|"
+                + file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+
         Message message = new Message();
         message.setType(MessageType.FILE);
-        message.setFileContent(Files.readAllBytes(file.toPath()));
         message.setFileData(file);
+        message.getFileData().put("transferId",
+                UUID.nameUUIDFromBytes(identity.getBytes(StandardCharsets.UTF_8)).toString());
+
+        return message;
+    }
+
+    /**
+     * Método para crear la respuesta a un anuncio de archivo
+     * @param transferId ID de la transferencia
+     * @param receivedBlocks Mapa de bits de los bloques que ya se tienen
+     * @return Mensaje a enviar
+     */
+    public static Message createFileAcceptMessage(String transferId, byte[] receivedBlocks) {
+        Message message = new Message();
+        message.setType(MessageType.FILE_ACCEPT);
+        message.setFileContent(receivedBlocks);
+        message.getFileData().put("transferId", transferId);
+
+        return message;
+    }
+
+    /**
+     * Método para crear un fragmento de un archivo en transferencia
+     * @param transferId ID de la transferencia
+     * @param offset Posición del fragmento dentro del archivo
+     * @param data Bytes del fragmento
+     * @param checksum CRC32 de los bytes del fragmento
+     * @return Mensaje a enviar
+     */
+    public static Message createFileChunkMessage(String transferId, long offset, byte[] data, long checksum) {
+        Message message = new Message();
+        message.setType(MessageType.FILE_CHUNK);
+        message.setFileContent(data);
+        message.getFileData().put("transferId", transferId);
+        message.getFileData().put("offset", offset);
+        message.getFileData().put("checksum", checksum);
 
         return message;
     }
     
-    /** Método para crear un mensaje de información de usuario **/
+    /**
+     * Método para crear la cabecera de un trozo de archivo que se envía en bruto.
+     * El contenido no va en el mensaje: lo escribe la conexión justo detrás de la trama
+     * @param transferId ID de la transferencia
+     * @param offset Posición del trozo dentro del archivo
+     * @param length Número de bytes del trozo
+     * @param checksum CRC32 de los bytes del trozo
+     * @return Mensaje a enviar
+     */
+    public static Message createFileDataMessage(String transferId, long offset, long length, long checksum) {
+        Message message = new Message();
+        message.setType(MessageType.FILE_DATA);
+        message.getFileData().put("transferId", transferId);
+        message.getFileData().put("offset", offset);
+        message.getFileData().put("length", length);
+        message.getFileData().put("checksum", checksum);
+
+        return message;
+    }
+    
+    /**
+     * Método para crear un mensaje de información de usuario.
+     * Anuncia también la compresión que se sabe descomprimir
+     */
     public static Message createUserInfoMessage(User user) {
         Message message = new Message();
         message.setType(MessageType.USER_INFO);
         message.setUserData(user);
+        message.getFileData().put("compression", COMPRESSION_ALGORITHM);
         
         return message;
     }
@@ -97,6 +187,96 @@ public class Message implements Serializable {
         return message;
     }
     
+    /**
+     * Método para crear un mensaje de reanudación de la sesión tras volver a conectar.
+     * Como USER_INFO, anuncia la compresión que se sabe descomprimir
+     * @param user Usuario actual
+     * @return Mensaje a enviar
+     */
+    public static Message createResumeMessage(User user) {
+        Message message = new Message();
+        message.setType(MessageType.RESUME);
+        message.setUserData(user);
+        message.getFileData().put("compression", COMPRESSION_ALGORITHM);
+        
+        return message;
+    }
+    
+    /**
+     * Método para crear la confirmación acumulada de los mensajes recibidos
+     * @param epoch Sesión de numeración del emisor de los mensajes
+     * @param sequence Último número de secuencia recibido sin huecos
+     * @return Mensaje a enviar
+     */
+    public static Message createAckMessage(int epoch, long sequence) {
+        Message message = new Message();
+        message.setType(MessageType.ACK);
+        message.setEpoch(epoch);
+        message.setSequence(sequence);
+        
+        return message;
+    }
+    
+    /**
+     * Método para crear un mensaje de comprobación de la conexión
+     * @param sentAt Momento del envío (System.nanoTime), se devuelve en el PONG
+     * @return Mensaje a enviar
+     */
+    public static Message createPingMessage(long sentAt) {
+        Message message = new Message();
+        message.setType(MessageType.PING);
+        message.setContent(Long.toString(sentAt));
+        
+        return message;
+    }
+    
+    /**
+     * Método para crear la respuesta a un PING
+     * @param ping PING recibido
+     * @return Mensaje a enviar
+     */
+    public static Message createPongMessage(Message ping) {
+        Message message = new Message();
+        message.setType(MessageType.PONG);
+        message.setContent(ping.getContent());
+        
+        return message;
+    }
+    
+    /**
+     * Método para crear el inicio del handshake de una conexión cifrada
+     * @param publicKey Clave pública efímera de quien conecta
+     * @param nonce Bytes aleatorios de esta conexión
+     * @param ticketId Ticket para reanudar la sesión anterior, o null
+     * @return Mensaje a enviar
+     */
+    public static Message createHandshakeMessage(byte[] publicKey, byte[] nonce, String ticketId) {
+        Message message = new Message();
+        message.setType(MessageType.HANDSHAKE);
+        message.setFileContent(publicKey);
+        message.getFileData().put("nonce", nonce);
+        if (ticketId != null) message.getFileData().put("ticket", ticketId);
+        
+        return message;
+    }
+    
+    /**
+     * Método para crear la respuesta al handshake de una conexión cifrada
+     * @param publicKey Clave pública efímera de quien acepta, o null si se reanuda la sesión
+     * @param nonce Bytes aleatorios de esta conexión
+     * @param resumed True si se reanuda la sesión con el ticket recibido
+     * @return Mensaje a enviar
+     */
+    public static Message createHandshakeReplyMessage(byte[] publicKey, byte[] nonce, boolean resumed) {
+        Message message = new Message();
+        message.setType(MessageType.HANDSHAKE);
+        message.setFileContent(publicKey);
+        message.getFileData().put("nonce", nonce);
+        message.getFileData().put("resumed", resumed);
+        
+        return message;
+    }
+    
     /** Métodos adicionales **/
     
     /**
@@ -149,5 +329,21 @@ public class Message implements Serializable {
     public void setFileData(Map<String, Object> fileData) {
         this.fileData = fileData;
     }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(int epoch) {
+        this.epoch = epoch;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
     
 }
\ No newline at end of file
@@ -4,7 +4,8 @@
  */
 package com.chat.model;
 
-import java.time.LocalTime;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 /**
@@ -14,15 +15,23 @@ import java.time.format.DateTimeFormatter;
 public class MessageEntry {
     
     /** Propiedades **/
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+
     private final User sender;                   // Usuario que envió el mensaje
     private final Message message;               // El mensaje en sí
-    private final LocalTime timestamp;           // Momento en que se añadió
+    private final long timestamp;                // Momento en que se añadió (milisegundos desde epoch)
+    private volatile long storeId;               // ID en el historial guardado, 0 si aún no se ha guardado
         
     /** Constructor por parámetros **/
     public MessageEntry(User sender, Message message) {
+        this(sender, message, System.currentTimeMillis());
+    }
+
+    /** Constructor por parámetros, para entradas cargadas del historial **/
+    public MessageEntry(User sender, Message message, long timestamp) {
         this.sender = sender;
         this.message = message;
-        this.timestamp = LocalTime.now();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -38,10 +47,21 @@ public class MessageEntry {
     }
 
     public String getTimestamp() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
-        String formattedTime = timestamp.format(formatter);
-        
-        return formattedTime;
+        return Instant.ofEpochMilli(timestamp)
+                .atZone(ZoneId.systemDefault())
+                .format(TIME_FORMATTER);
+    }
+
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    public long getStoreId() {
+        return storeId;
+    }
+
+    public void setStoreId(long storeId) {
+        this.storeId = storeId;
     }
     
 }
@@ -32,6 +32,16 @@ public class User implements Serializable {
         this.contactsIds = new ArrayList();
     }
 
+    /** Constructor de copia: el avatar y la lista de contactos no se comparten con el original **/
+    public User(User other) {
+        this.userId = other.userId;
+        this.username = other.username;
+        this.ip = other.ip;
+        this.port = other.port;
+        this.avatar = other.avatar != null ? new Avatar(other.avatar) : null;
+        this.contactsIds = other.contactsIds != null ? new ArrayList<>(other.contactsIds) : new ArrayList<>();
+    }
+
     /**
      * Devuelve la instancia estática del usuario actual
      * @return Instancia estática del usuario actual
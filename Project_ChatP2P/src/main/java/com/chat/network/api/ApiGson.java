@@ -0,0 +1,214 @@
+package com.chat.network.api;
+
+import com.chat.model.Avatar;
+import com.chat.model.User;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Gson compartido por todo lo que habla con la API.
+ * Se crea una vez, así su caché de adaptadores sirve para todas las respuestas, y lleva
+ * adaptadores propios para User y Avatar que leen el JSON en streaming, sin reflexión.
+ * El de Avatar además entiende la imagen en Base64, que es como la envía {@link Avatar#toMap()}.
+ */
+public final class ApiGson {
+
+    /** Propiedades **/
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(User.class, new UserAdapter().nullSafe())
+            .registerTypeAdapter(Avatar.class, new AvatarAdapter().nullSafe())
+            .create();
+
+    private ApiGson() { }
+
+    /**
+     * Devuelve el Gson compartido
+     * @return Gson con los adaptadores de la API
+     */
+    public static Gson get() {
+        return GSON;
+    }
+
+    /** Lee y escribe un usuario con los mismos campos que {@link User#toMap()} **/
+    private static final class UserAdapter extends TypeAdapter<User> {
+
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            out.beginObject();
+            out.name("userId").value(user.getUserId());
+            out.name("username").value(user.getUsername());
+            out.name("ip").value(user.getIp());
+            out.name("port").value(user.getPort());
+            if (user.getAvatar() != null) {
+                out.name("avatar");
+                GSON.getAdapter(Avatar.class).write(out, user.getAvatar());
+            }
+            out.name("contacts").beginArray();
+            if (user.getContactsIds() != null) {
+                for (String contactId : user.getContactsIds()) {
+                    out.value(contactId);
+                }
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            User user = new User(null, null, null, 0, null);
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "userId" -> user.setUserId(in.nextString());
+                    case "username" -> user.setUsername(in.nextString());
+                    case "ip" -> user.setIp(in.nextString());
+                    case "port" -> user.setPort((int) in.nextDouble());
+                    case "avatar" -> user.setAvatar(GSON.getAdapter(Avatar.class).read(in));
+                    case "contacts" -> user.setContactsIds(readStrings(in));
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return user;
+        }
+
+        private static List<String> readStrings(JsonReader in) throws IOException {
+            List<String> values = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                values.add(in.nextString());
+            }
+            in.endArray();
+            return values;
+        }
+    }
+
+    /** Lee y escribe un avatar con la imagen en Base64, sin leer el archivo ni descargarlo **/
+    private static final class AvatarAdapter extends TypeAdapter<Avatar> {
+
+        @Override
+        public void write(JsonWriter out, Avatar avatar) throws IOException {
+            out.beginObject();
+            out.name("storageUrl").value(avatar.getStorageUrl());
+            if (avatar.getImageData() != null) {
+                out.name("imageData").value(avatar.toBase64());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Avatar read(JsonReader in) throws IOException {
+            String storageUrl = null;
+            byte[] imageData = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "storageUrl" -> storageUrl = in.nextString();
+                    case "imageData" -> imageData = readBytes(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            // Sin ruta local el constructor no lee nada del disco ni de la red
+            Avatar avatar = new Avatar(null, storageUrl);
+            avatar.setImageData(imageData);
+            return avatar;
+        }
+
+        /**
+         * La imagen llega en Base64 o, en datos antiguos, como lista de bytes
+         */
+        private static byte[] readBytes(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.STRING) {
+                try {
+                    return Base64.getDecoder().decode(in.nextString());
+                } catch (IllegalArgumentException ex) {
+                    return null;
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            in.beginArray();
+            while (in.hasNext()) {
+                bytes.write(in.nextInt());
+            }
+            in.endArray();
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * PRUEBA: compara leer una lista grande de contactos como antes (a un mapa genérico y luego
+     * de vuelta a User con un Gson nuevo) y directamente a {@link ContactsResponse}
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String json = contactsJson(count);
+
+        for (int round = 0; round < 5; round++) {
+            boolean last = round == 4;
+            measure("ApiResponse + getObjectList", last, () ->
+                    new Gson().fromJson(json, ApiResponse.class).getObjectList("contacts", User.class).size());
+            measure("ContactsResponse", last, () ->
+                    GSON.fromJson(json, ContactsResponse.class).getContacts().size());
+        }
+    }
+
+    private static void measure(String name, boolean print, java.util.function.IntSupplier parse) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int parsed = parse.getAsInt();
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        if (print) {
+            System.out.printf("%-28s %d contactos en %.1f ms, %.1f MB reservados%n",
+                    name, parsed, nanos / 1e6, allocated / 1024.0 / 1024.0);
+        }
+    }
+
+    private static String contactsJson(int count) {
+        StringBuilder json = new StringBuilder("{\"success\":true,\"message\":\"ok\",\"data\":{\"contacts\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"userId\":\"10.0.").append(i / 256).append('.').append(i % 256).append(":5000\",")
+                .append("\"username\":\"usuario").append(i).append("\",")
+                .append("\"ip\":\"10.0.").append(i / 256).append('.').append(i % 256).append("\",")
+                .append("\"port\":5000,")
+                .append("\"avatar\":{\"storageUrl\":\"https://storage.example/avatars/").append(i).append(".png\"},")
+                .append("\"contacts\":[\"10.0.0.1:5000\",\"10.0.0.2:5000\"]}");
+        }
+        return json.append("]}}").toString();
+    }
+
+}
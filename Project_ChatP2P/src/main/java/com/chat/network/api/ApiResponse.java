@@ -74,7 +74,7 @@ public class ApiResponse {
      * @return Valor Double, o null si no existe o no es un Double
      */
     public <T> T getObject(String key, Class<T> type) {
-        Gson gson = new Gson();
+        Gson gson = ApiGson.get();
         JsonElement element = data.get(key) != null ? gson.toJsonTree(data.get(key)) : null;
 
         return element != null ? gson.fromJson(element, type) : null;
@@ -92,7 +92,7 @@ public class ApiResponse {
             return new ArrayList<>();
         }
 
-        Gson gson = new Gson();
+        Gson gson = ApiGson.get();
         Object value = data.get(key);
 
         if (value == null) {
@@ -0,0 +1,25 @@
+package com.chat.network.api;
+
+import com.chat.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Respuesta de getContacts
+ */
+public class ContactsResponse extends DataResponse<ContactsResponse.Data> {
+
+    /**
+     * Contactos de la respuesta
+     * @return Contactos del usuario, o lista vacía si no tiene
+     */
+    public List<User> getContacts() {
+        return getData() != null && getData().contacts != null ? getData().contacts : new ArrayList<>();
+    }
+
+    /** Campo "data" de la respuesta **/
+    public static class Data {
+        private List<User> contacts;       // Contactos del usuario
+    }
+}
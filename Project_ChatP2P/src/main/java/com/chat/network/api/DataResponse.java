@@ -0,0 +1,28 @@
+package com.chat.network.api;
+
+/**
+ * Respuesta de la API con los datos ya decodificados a su tipo.
+ * Retrofit la lee de una vez con {@link ApiGson}, sin pasar por el mapa genérico de {@link ApiResponse}
+ *
+ * @param <T> Tipo del campo "data" de la respuesta
+ */
+public abstract class DataResponse<T> {
+
+    /** Propiedades **/
+    private boolean success;               // Estado de la respuesta
+    private String message;                // Mensaje de la respuesta
+    private T data;                        // Datos de la respuesta
+
+    /** Getters **/
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public T getData() {
+        return data;
+    }
+}
@@ -0,0 +1,151 @@
+package com.chat.network.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché en memoria de las respuestas de la API por clave.
+ * Cada entrada guarda el valor, su ETag y cuándo se comprobó por última vez:
+ *   - Si es más reciente que el TTL se sirve sin preguntar a la API.
+ *   - Si ha caducado y tiene ETag, se revalida con If-None-Match; un 304 la da por buena otra vez.
+ *   - Si supera el máximo de entradas se descarta la que lleva más tiempo sin usarse.
+ *
+ * @param <T> Tipo del valor guardado
+ */
+public class ResponseCache<T> {
+
+    /** Propiedades **/
+    private final Map<String, Entry<T>> entries;          // Entradas por clave, en orden de uso
+    private final long ttlMillis;                         // Tiempo que una entrada es válida sin revalidar
+    private final AtomicLong hits;                        // Servidas sin ir a la API
+    private final AtomicLong misses;                      // Pedidas a la API sin nada guardado
+    private final AtomicLong revalidated;                 // Caducadas que la API ha confirmado con un 304
+    private final AtomicLong refreshed;                   // Caducadas que la API ha cambiado
+
+    /**
+     * Constructor por parámetros
+     * @param ttlMillis Tiempo que una entrada es válida sin revalidar
+     * @param maxEntries Máximo de entradas guardadas
+     */
+    public ResponseCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.revalidated = new AtomicLong();
+        this.refreshed = new AtomicLong();
+    }
+
+    /**
+     * Busca una entrada que se pueda servir sin preguntar a la API
+     * @param key Clave de la entrada
+     * @return Valor guardado, o null si no hay o ha caducado
+     */
+    public synchronized T getFresh(String key) {
+        Entry<T> entry = entries.get(key);
+        if (entry == null || System.currentTimeMillis() - entry.checkedAt() > ttlMillis) {
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.value();
+    }
+
+    /**
+     * ETag de la entrada guardada, para revalidarla
+     * @param key Clave de la entrada
+     * @return ETag, o null si no hay entrada o la API no lo envió
+     */
+    public synchronized String getETag(String key) {
+        Entry<T> entry = entries.get(key);
+        return entry != null ? entry.etag() : null;
+    }
+
+    /**
+     * Guarda la respuesta de la API
+     * @param key Clave de la entrada
+     * @param value Valor recibido
+     * @param etag ETag de la respuesta, o null
+     */
+    public synchronized void put(String key, T value, String etag) {
+        Entry<T> previous = entries.put(key, new Entry<>(value, etag, System.currentTimeMillis()));
+        if (previous != null) {
+            refreshed.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Da por buena otra vez la entrada guardada tras un 304
+     * @param key Clave de la entrada
+     * @return Valor guardado, o null si se ha descartado mientras tanto
+     */
+    public synchronized T revalidate(String key) {
+        Entry<T> entry = entries.get(key);
+        if (entry == null) return null;
+
+        entries.put(key, new Entry<>(entry.value(), entry.etag(), System.currentTimeMillis()));
+        revalidated.incrementAndGet();
+        return entry.value();
+    }
+
+    /**
+     * Actualiza un valor que se acaba de escribir en la API, sin ETag hasta la próxima lectura
+     * @param key Clave de la entrada
+     * @param value Valor escrito
+     */
+    public synchronized void update(String key, T value) {
+        entries.put(key, new Entry<>(value, null, System.currentTimeMillis()));
+    }
+
+    /**
+     * Descarta una entrada que ya no es válida
+     * @param key Clave de la entrada
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas de la caché
+     * @return Métricas actuales
+     */
+    public synchronized Stats getStats() {
+        return new Stats(entries.size(), hits.get(), misses.get(), revalidated.get(), refreshed.get());
+    }
+
+    private record Entry<T>(T value, String etag, long checkedAt) { }
+
+    /**
+     * Métricas de la caché
+     * @param entries Entradas guardadas
+     * @param hits Servidas sin ir a la API
+     * @param misses Pedidas a la API sin nada guardado
+     * @param revalidated Caducadas que la API ha confirmado con un 304
+     * @param refreshed Caducadas que la API ha cambiado
+     */
+    public record Stats(int entries, long hits, long misses, long revalidated, long refreshed) {
+
+        /**
+         * Proporción de consultas que no han descargado los datos
+         */
+        public double hitRatio() {
+            long total = hits + misses + revalidated + refreshed;
+            return total == 0 ? 0 : (double) (hits + revalidated) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d entradas, %d aciertos, %d fallos, %d revalidadas, %d renovadas (%.0f%% sin descarga)",
+                    entries, hits, misses, revalidated, refreshed, hitRatio() * 100);
+        }
+    }
+
+}
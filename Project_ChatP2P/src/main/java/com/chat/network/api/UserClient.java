@@ -9,23 +9,40 @@ import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import static com.chat.utils.Constants.USER_CACHE_SIZE;
+import static com.chat.utils.Constants.USER_CACHE_TTL_MILLIS;
+
+/**
+ * Cliente de la API de usuarios.
+ * Las lecturas (getUser y getContacts) pasan por una caché: lo reciente se sirve sin ir a la API
+ * y lo caducado se revalida con su ETag. Las escrituras actualizan o descartan lo guardado.
+ * Los callbacks nunca se ejecutan en el hilo que hace la petición, venga o no de la caché.
+ */
 public class UserClient {
 
     /** Propiedades **/
     private static UserClient instance;        // Singleton de UserClient
     private UserService userService;           // Servicio de usuarios
+    
+    private final ResponseCache<User> users;               // Usuarios por ID
+    private final ResponseCache<List<User>> contacts;      // Contactos por ID del usuario
 
     /** Constructor privado **/
     private UserClient() {
         Retrofit retrofit = new Retrofit.Builder()
-                .addConverterFactory(GsonConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create(ApiGson.get()))
                 .baseUrl(Constants.API_URL)
                 .build();
 
         userService = retrofit.create(UserService.class);
+        users = new ResponseCache<>(USER_CACHE_TTL_MILLIS, USER_CACHE_SIZE);
+        contacts = new ResponseCache<>(USER_CACHE_TTL_MILLIS, USER_CACHE_SIZE);
     }
 
     /** Obtiene la instancia de UserClient **/
@@ -55,6 +72,7 @@ public class UserClient {
                         }
                     }
 
+                    users.update(user.getUserId(), copy(user));
                     callback.onSuccess(user);
                 } else {
                     String errorMsg = apiResponse != null ?
@@ -71,19 +89,51 @@ public class UserClient {
         });
     }
 
-    /** Obtiene un usuario de la base de datos **/
+    /** Obtiene un usuario de la base de datos, o de la caché si es reciente **/
     public void getUser(String userId, UserCallback<User> callback){
-       Call<ApiResponse> call = userService.getUser(userId);
+       User cached = users.getFresh(userId);
+       if (cached != null) {
+           deliverCached(callback, copy(cached));
+           return;
+       }
 
-       call.enqueue(new Callback<ApiResponse>() {
-           @Override
-           public void onResponse(Call<ApiResponse> call, Response<ApiResponse> response) {
-                ApiResponse apiResponse = response.body();
+       fetchUser(userId, users.getETag(userId), callback);
+    }
 
-                if (response.isSuccessful() && apiResponse != null && apiResponse.isSuccess()) {
-                     User user = apiResponse.getObject("user", User.class);
+    /**
+     * Pide un usuario a la API
+     * @param userId ID del usuario
+     * @param etag ETag de la copia en caché, o null para pedirlo completo
+     * @param callback Callback para manejar el resultado
+     */
+    private void fetchUser(String userId, String etag, UserCallback<User> callback) {
+       Call<UserResponse> call = userService.getUser(userId, etag);
+
+       call.enqueue(new Callback<UserResponse>() {
+           @Override
+           public void onResponse(Call<UserResponse> call, Response<UserResponse> response) {
+                UserResponse apiResponse = response.body();
+
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                     User user = users.revalidate(userId);
+                     if (user != null) {
+                         callback.onSuccess(copy(user));
+                     } else if (etag != null) {
+                         // La entrada se ha descartado mientras tanto: se pide una vez completa
+                         fetchUser(userId, null, callback);
+                     } else {
+                         callback.onError("Respuesta 304 sin copia en caché");
+                     }
+                } else if (response.isSuccessful() && apiResponse != null && apiResponse.isSuccess()) {
+                     User user = apiResponse.getUser();
+                     if (user != null) {
+                         users.put(userId, copy(user), response.headers().get("ETag"));
+                     } else {
+                         users.invalidate(userId);
+                     }
                      callback.onSuccess(user);
                 } else {
+                     users.invalidate(userId);
                      String errorMsg = apiResponse != null ?
                             apiResponse.getMessage() :
                             "Error desconocido";
@@ -92,29 +142,59 @@ public class UserClient {
            }
 
            @Override
-           public void onFailure(Call<ApiResponse> call, Throwable throwable) {
+           public void onFailure(Call<UserResponse> call, Throwable throwable) {
                 callback.onError("Error de conexión: " + throwable.getMessage());
            }
        });
     }
 
     /**
-     * Obtiene los contactos de un usuario
+     * Obtiene los contactos de un usuario, o de la caché si son recientes
      * @param userId ID del usuario cuyos contactos se quieren obtener
      * @param callback Callback para manejar el resultado
      */
     public void getContacts(String userId, UserCallback<List<User>> callback) {
-        Call<ApiResponse> call = userService.getContacts(userId);
+        List<User> cached = contacts.getFresh(userId);
+        if (cached != null) {
+            deliverCached(callback, copyAll(cached));
+            return;
+        }
 
-        call.enqueue(new Callback<ApiResponse>() {
-            @Override
-            public void onResponse(Call<ApiResponse> call, Response<ApiResponse> response) {
-                ApiResponse apiResponse = response.body();
+        fetchContacts(userId, contacts.getETag(userId), callback);
+    }
 
-                if (response.isSuccessful() && apiResponse != null && apiResponse.isSuccess()) {
+    /**
+     * Pide los contactos de un usuario a la API
+     * @param userId ID del usuario cuyos contactos se quieren obtener
+     * @param etag ETag de la copia en caché, o null para pedirlos completos
+     * @param callback Callback para manejar el resultado
+     */
+    private void fetchContacts(String userId, String etag, UserCallback<List<User>> callback) {
+        Call<ContactsResponse> call = userService.getContacts(userId, etag);
+
+        call.enqueue(new Callback<ContactsResponse>() {
+            @Override
+            public void onResponse(Call<ContactsResponse> call, Response<ContactsResponse> response) {
+                ContactsResponse apiResponse = response.body();
+
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    List<User> revalidated = contacts.revalidate(userId);
+                    if (revalidated != null) {
+                        callback.onSuccess(copyAll(revalidated));
+                    } else if (etag != null) {
+                        // La entrada se ha descartado mientras tanto: se piden una vez completos
+                        fetchContacts(userId, null, callback);
+                    } else {
+                        callback.onError("Respuesta 304 sin copia en caché");
+                    }
+                } else if (response.isSuccessful() && apiResponse != null && apiResponse.isSuccess()) {
                     try {
-                        List<User> contacts = apiResponse.getObjectList("contacts", User.class);
-                        callback.onSuccess(contacts);
+                        List<User> result = apiResponse.getContacts();
+                        contacts.put(userId, List.copyOf(copyAll(result)), response.headers().get("ETag"));
+                        for (User contact : result) {
+                            users.update(contact.getUserId(), copy(contact));
+                        }
+                        callback.onSuccess(result);
                     } catch (Exception e) {
                         callback.onError("Error al procesar los contactos: " + e.getMessage());
                     }
@@ -127,7 +207,7 @@ public class UserClient {
             }
 
             @Override
-            public void onFailure(Call<ApiResponse> call, Throwable throwable) {
+            public void onFailure(Call<ContactsResponse> call, Throwable throwable) {
                 callback.onError("Error de conexión: " + throwable.getMessage());
             }
         });
@@ -151,6 +231,7 @@ public class UserClient {
                         user.setAvatar(updatedUser.getAvatar());
                     }
 
+                    users.update(user.getUserId(), copy(user));
                     callback.onSuccess(user);
                 } else {
                     String errorMsg = apiResponse != null ?
@@ -178,6 +259,10 @@ public class UserClient {
 
                 if (response.isSuccessful() && apiResponse != null && apiResponse.isSuccess()) {
                     User contact = apiResponse.getObject("contact", User.class);
+                    contacts.invalidate(userId);
+                    if (contact != null) {
+                        users.update(contact.getUserId(), copy(contact));
+                    }
                     callback.onSuccess(contact);
                 } else {
                     String errorMsg = apiResponse != null ?
@@ -204,6 +289,7 @@ public class UserClient {
                 ApiResponse apiResponse = response.body();
 
                 if (response.isSuccessful() && apiResponse != null && apiResponse.isSuccess()) {
+                    contacts.invalidate(userId);
                     User contact = apiResponse.getObject("contact", User.class);
                     callback.onSuccess(contact);
                 } else {
@@ -221,6 +307,36 @@ public class UserClient {
         });
     }
 
+    /**
+     * Copia un usuario para guardarlo en la caché o entregarlo desde ella,
+     * de modo que lo que haga quien lo recibe no cambia la entrada guardada
+     * @param user Usuario
+     * @return Copia del usuario
+     */
+    private static User copy(User user) {
+        return new User(user);
+    }
+
+    /**
+     * Copia una lista de usuarios y cada uno de ellos
+     * @param users Usuarios
+     * @return Lista nueva con copias de los usuarios
+     */
+    private static List<User> copyAll(List<User> users) {
+        List<User> copies = new ArrayList<>(users.size());
+        for (User user : users) {
+            copies.add(copy(user));
+        }
+        return copies;
+    }
+
+    /**
+     * Entrega un valor de la caché fuera del hilo que lo ha pedido, como haría la API
+     */
+    private static <T> void deliverCached(UserCallback<T> callback, T value) {
+        CompletableFuture.runAsync(() -> callback.onSuccess(value));
+    }
+
     /**
      * Getter
      */
@@ -228,6 +344,22 @@ public class UserClient {
         return userService;
     }
 
+    /**
+     * Devuelve las métricas de la caché de usuarios
+     * @return Métricas actuales
+     */
+    public ResponseCache.Stats getUserCacheStats() {
+        return users.getStats();
+    }
+
+    /**
+     * Devuelve las métricas de la caché de contactos
+     * @return Métricas actuales
+     */
+    public ResponseCache.Stats getContactsCacheStats() {
+        return contacts.getStats();
+    }
+
     /** Interfaz para notificar el resultado de la petición **/
     public interface UserCallback<T> {
         void onSuccess(T result);
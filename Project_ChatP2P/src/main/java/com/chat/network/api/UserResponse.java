@@ -0,0 +1,22 @@
+package com.chat.network.api;
+
+import com.chat.model.User;
+
+/**
+ * Respuesta de getUser
+ */
+public class UserResponse extends DataResponse<UserResponse.Data> {
+
+    /**
+     * Usuario de la respuesta
+     * @return Usuario, o null si no existe
+     */
+    public User getUser() {
+        return getData() != null ? getData().user : null;
+    }
+
+    /** Campo "data" de la respuesta **/
+    public static class Data {
+        private User user;                 // Usuario encontrado
+    }
+}
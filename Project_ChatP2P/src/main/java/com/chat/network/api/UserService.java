@@ -11,10 +11,10 @@ public interface UserService {
     Call<ApiResponse> addUser(@Body Map<String, Object> userData);
 
     @GET("getUser")
-    Call<ApiResponse> getUser(@Query("userId") String userId);
+    Call<UserResponse> getUser(@Query("userId") String userId, @Header("If-None-Match") String etag);
 
     @GET("getContacts")
-    Call<ApiResponse> getContacts(@Query("userId") String userId);
+    Call<ContactsResponse> getContacts(@Query("userId") String userId, @Header("If-None-Match") String etag);
 
     @PATCH("updateUser")
     Call<ApiResponse> updateUser(@Body Map<String, Object> userData);
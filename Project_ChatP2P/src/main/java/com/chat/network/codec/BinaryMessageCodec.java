@@ -0,0 +1,402 @@
+package com.chat.network.codec;
+
+import com.chat.model.Avatar;
+import com.chat.model.Message;
+import com.chat.model.Message.MessageType;
+import com.chat.model.User;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec binario compacto para los mensajes entre Peers.
+ *
+ * Formato de la trama:
+ *   [tipo: 1 byte][campos presentes: 1 byte][campos...]
+ * Los enteros se escriben como varint y las cadenas como varint de longitud + UTF-8.
+ * El tipo es el ordinal de {@link MessageType}, por lo que el orden del enum
+ * forma parte del protocolo: los tipos nuevos se añaden siempre al final.
+ * El bit más alto de los campos marca una trama comprimida por {@link FrameCompressor}.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    /** Campos presentes en la trama **/
+    private static final int HAS_CONTENT = 1;
+    private static final int HAS_USER = 1 << 1;
+    private static final int HAS_FILE_CONTENT = 1 << 2;
+    private static final int HAS_FILE_DATA = 1 << 3;
+    private static final int HAS_SEQUENCE = 1 << 4;
+
+    /** Tipos de valor del mapa de datos del archivo **/
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_LONG = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_BOOLEAN = 4;
+    private static final int VALUE_BYTES = 5;
+    private static final int VALUE_DOUBLE = 6;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private final FrameCompressor compressor = new FrameCompressor();   // Compresión de las tramas de la conexión
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        if (message.getType() == null) {
+            throw new IOException("El mensaje no tiene tipo");
+        }
+
+        Encoder encoder = new Encoder(estimateSize(message));
+
+        int flags = 0;
+        if (message.getContent() != null) flags |= HAS_CONTENT;
+        if (message.getUserData() != null) flags |= HAS_USER;
+        if (message.getFileContent() != null) flags |= HAS_FILE_CONTENT;
+        if (message.getFileData() != null && !message.getFileData().isEmpty()) flags |= HAS_FILE_DATA;
+        if (message.getEpoch() != 0) flags |= HAS_SEQUENCE;
+
+        encoder.writeByte(message.getType().ordinal());
+        encoder.writeByte(flags);
+
+        if ((flags & HAS_CONTENT) != 0) encoder.writeString(message.getContent());
+        if ((flags & HAS_USER) != 0) writeUser(encoder, message.getUserData());
+        if ((flags & HAS_FILE_CONTENT) != 0) encoder.writeBytes(message.getFileContent());
+        if ((flags & HAS_FILE_DATA) != 0) writeMap(encoder, message.getFileData());
+        if ((flags & HAS_SEQUENCE) != 0) {
+            encoder.writeVarint(message.getEpoch());
+            encoder.writeVarint(message.getSequence());
+        }
+
+        return compressor.compress(message, encoder.toByteArray());
+    }
+
+    @Override
+    public Message decode(byte[] frame, int offset, int length) throws IOException {
+        byte[] decompressed = compressor.decompress(frame, offset, length);
+        Decoder decoder = decompressed != null
+                ? new Decoder(decompressed, 0, decompressed.length)
+                : new Decoder(frame, offset, length);
+
+        int tag = decoder.readByte();
+        if (tag >= TYPES.length) {
+            throw new IOException("Tipo de mensaje desconocido: " + tag);
+        }
+
+        int flags = decoder.readByte();
+
+        Message message = new Message();
+        message.setType(TYPES[tag]);
+
+        if ((flags & HAS_CONTENT) != 0) message.setContent(decoder.readString());
+        if ((flags & HAS_USER) != 0) message.setUserData(readUser(decoder));
+        if ((flags & HAS_FILE_CONTENT) != 0) message.setFileContent(decoder.readBytes());
+        if ((flags & HAS_FILE_DATA) != 0) message.setFileData(readMap(decoder));
+        if ((flags & HAS_SEQUENCE) != 0) {
+            message.setEpoch((int) decoder.readVarint());
+            message.setSequence(decoder.readVarint());
+        }
+
+        return message;
+    }
+
+    @Override
+    public boolean enableCompression() {
+        compressor.enable();
+        return true;
+    }
+
+    @Override
+    public boolean isCompressionEnabled() {
+        return compressor.isEnabled();
+    }
+
+    @Override
+    public FrameCompressor.CompressionStats getCompressionStats() {
+        return compressor.getStats();
+    }
+
+    /**
+     * Estima el tamaño de la trama para evitar redimensionar el buffer
+     * @param message Mensaje a codificar
+     * @return Tamaño estimado en bytes
+     */
+    private int estimateSize(Message message) {
+        int size = 16;
+        if (message.getContent() != null) size += message.getContent().length() * 3;
+        if (message.getUserData() != null) size += 128;
+        if (message.getFileContent() != null) size += message.getFileContent().length;
+        return size;
+    }
+
+    /** USUARIOS **/
+
+    private void writeUser(Encoder encoder, User user) {
+        encoder.writeNullableString(user.getUserId());
+        encoder.writeNullableString(user.getUsername());
+        encoder.writeNullableString(user.getIp());
+        encoder.writeVarint(user.getPort());
+
+        Avatar avatar = user.getAvatar();
+        encoder.writeByte(avatar != null ? 1 : 0);
+        if (avatar != null) {
+            encoder.writeNullableString(avatar.getStorageUrl());
+            encoder.writeNullableBytes(avatar.getImageData());
+        }
+
+        List<String> contactsIds = user.getContactsIds();
+        encoder.writeVarint(contactsIds != null ? contactsIds.size() : 0);
+        if (contactsIds != null) {
+            for (String contactId : contactsIds) {
+                encoder.writeNullableString(contactId);
+            }
+        }
+    }
+
+    private User readUser(Decoder decoder) throws IOException {
+        String userId = decoder.readNullableString();
+        String username = decoder.readNullableString();
+        String ip = decoder.readNullableString();
+        int port = (int) decoder.readVarint();
+
+        Avatar avatar = null;
+        if (decoder.readByte() == 1) {
+            avatar = new Avatar(null, decoder.readNullableString());
+            avatar.setImageData(decoder.readNullableBytes());
+        }
+
+        User user = new User(userId, username, ip, port, avatar);
+
+        int contactsCount = decoder.readLength();
+        List<String> contactsIds = new ArrayList<>(contactsCount);
+        for (int i = 0; i < contactsCount; i++) {
+            contactsIds.add(decoder.readNullableString());
+        }
+        user.setContactsIds(contactsIds);
+
+        return user;
+    }
+
+    /** MAPA DE DATOS DEL ARCHIVO **/
+
+    private void writeMap(Encoder encoder, Map<String, Object> map) throws IOException {
+        encoder.writeVarint(map.size());
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            encoder.writeString(entry.getKey());
+
+            Object value = entry.getValue();
+            if (value == null) {
+                encoder.writeByte(VALUE_NULL);
+            } else if (value instanceof String s) {
+                encoder.writeByte(VALUE_STRING);
+                encoder.writeString(s);
+            } else if (value instanceof Long l) {
+                encoder.writeByte(VALUE_LONG);
+                encoder.writeVarint(Varint.zigZag(l));
+            } else if (value instanceof Integer i) {
+                encoder.writeByte(VALUE_INTEGER);
+                encoder.writeVarint(Varint.zigZag(i));
+            } else if (value instanceof Boolean b) {
+                encoder.writeByte(VALUE_BOOLEAN);
+                encoder.writeByte(b ? 1 : 0);
+            } else if (value instanceof byte[] bytes) {
+                encoder.writeByte(VALUE_BYTES);
+                encoder.writeBytes(bytes);
+            } else if (value instanceof Double d) {
+                encoder.writeByte(VALUE_DOUBLE);
+                encoder.writeVarint(Double.doubleToRawLongBits(d));
+            } else {
+                throw new IOException("Tipo de dato no soportado en el mensaje: " + value.getClass().getName());
+            }
+        }
+    }
+
+    private Map<String, Object> readMap(Decoder decoder) throws IOException {
+        int size = decoder.readLength();
+        Map<String, Object> map = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            String key = decoder.readString();
+            int valueType = decoder.readByte();
+
+            Object value = switch (valueType) {
+                case VALUE_NULL -> null;
+                case VALUE_STRING -> decoder.readString();
+                case VALUE_LONG -> Varint.unZigZag(decoder.readVarint());
+                case VALUE_INTEGER -> (int) Varint.unZigZag(decoder.readVarint());
+                case VALUE_BOOLEAN -> decoder.readByte() == 1;
+                case VALUE_BYTES -> decoder.readBytes();
+                case VALUE_DOUBLE -> Double.longBitsToDouble(decoder.readVarint());
+                default -> throw new IOException("Tipo de dato desconocido en la trama: " + valueType);
+            };
+
+            map.put(key, value);
+        }
+
+        return map;
+    }
+
+    /** Buffer de escritura que crece según se necesita **/
+    private static final class Encoder {
+
+        private byte[] buffer;
+        private int position;
+
+        Encoder(int initialCapacity) {
+            buffer = new byte[Math.max(initialCapacity, 16)];
+        }
+
+        void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensure(Varint.MAX_VARINT_SIZE);
+            position = Varint.write(buffer, position, value);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeNullableBytes(byte[] bytes) {
+            if (bytes == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeNullableString(String value) {
+            writeNullableBytes(value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
+        byte[] toByteArray() {
+            return position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+        }
+    }
+
+    /** Lector secuencial de una trama **/
+    private static final class Decoder {
+
+        private final byte[] buffer;
+        private final int limit;
+        private int position;
+
+        Decoder(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new EOFException("Trama incompleta");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Varint demasiado largo");
+        }
+
+        int readLength() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Longitud no válida en la trama: " + length);
+            }
+            return (int) length;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readLength();
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        byte[] readNullableBytes() throws IOException {
+            long marker = readVarint();
+            if (marker == 0) return null;
+
+            long length = marker - 1;
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Longitud no válida en la trama: " + length);
+            }
+
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + (int) length);
+            position += (int) length;
+            return bytes;
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readNullableString() throws IOException {
+            byte[] bytes = readNullableBytes();
+            return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        }
+    }
+
+    /** PRUEBA: compara el tamaño y el coste de un mensaje de texto frente a la serialización de Java **/
+    public static void main(String[] args) throws IOException {
+        MessageCodec binary = new BinaryMessageCodec();
+        MessageCodec serialization = new SerializationMessageCodec();
+        Message message = Message.createTextMessage("Hola, ¿qué tal va todo?");
+
+        for (MessageCodec codec : new MessageCodec[] { serialization, binary }) {
+            int iterations = 200_000;
+
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(codec.encode(message));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(codec.encode(message));
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%s: %d bytes, %d ns/mensaje%n",
+                    codec.getClass().getSimpleName(),
+                    codec.encode(message).length,
+                    elapsed / iterations);
+        }
+    }
+
+}
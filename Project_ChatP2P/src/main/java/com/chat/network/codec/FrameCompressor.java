@@ -0,0 +1,285 @@
+package com.chat.network.codec;
+
+import com.chat.model.Message;
+import com.chat.model.Message.MessageType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.chat.utils.Constants.COMPRESSION_MIN_SAVING;
+import static com.chat.utils.Constants.COMPRESSION_MIN_SIZE;
+import static com.chat.utils.Constants.MAX_FRAME_SIZE;
+
+/**
+ * Compresión de las tramas de una conexión con deflate al nivel más rápido.
+ * Solo se comprime lo que va detrás de la cabecera [tipo][campos]; la trama comprimida es
+ *   [tipo][campos | COMPRESSED][longitud original: varint][deflate]
+ *
+ * Los mensajes por debajo de {@link com.chat.utils.Constants#COMPRESSION_MIN_SIZE} bytes no se tocan.
+ * Los fragmentos de archivo se comprimen mientras compense: si uno no ahorra al menos
+ * {@link com.chat.utils.Constants#COMPRESSION_MIN_SAVING}, el resto de su transferencia va sin comprimir.
+ * La descompresión está siempre disponible; la compresión solo se activa cuando el Peer la anuncia.
+ */
+public class FrameCompressor {
+
+    /** Propiedades **/
+    static final int COMPRESSED = 1 << 7;                   // Bit de los campos que marca la trama comprimida
+    private static final int HEADER = 2;                     // Bytes de tipo y campos, que nunca se comprimen
+    private static final int MAX_SKIPPED_TRANSFERS = 64;     // Transferencias incompresibles recordadas
+
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();   // Compresores reutilizables
+    private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();   // Descompresores reutilizables
+
+    private volatile boolean enabled;                        // El Peer admite tramas comprimidas
+    private final Map<String, Boolean> skippedTransfers;     // Transferencias que no compensa comprimir
+    private final CompressionStats stats;                    // Métricas de la conexión
+
+    /** Constructor **/
+    public FrameCompressor() {
+        this.skippedTransfers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_SKIPPED_TRANSFERS;
+            }
+        };
+        this.stats = new CompressionStats();
+    }
+
+    /**
+     * Comprime una trama si está activado y compensa
+     * @param message Mensaje codificado
+     * @param frame Trama sin comprimir
+     * @return Trama comprimida, o la misma si no se comprime
+     */
+    byte[] compress(Message message, byte[] frame) {
+        if (!enabled) return frame;
+
+        byte[] result = frame;
+        if (shouldCompress(message, frame.length - HEADER)) {
+            byte[] compressed = deflate(frame);
+
+            if (compressed != null) {
+                result = compressed;
+            } else if (message.getType() == MessageType.FILE_CHUNK) {
+                skipTransfer(message);
+            }
+        }
+
+        stats.recordSent(frame.length, result.length, result != frame);
+        return result;
+    }
+
+    /**
+     * Descomprime una trama si viene comprimida
+     * @param frame Bytes recibidos
+     * @param offset Posición inicial de la trama
+     * @param length Longitud de la trama
+     * @return Trama sin comprimir, o null si no venía comprimida
+     * @throws IOException si la trama comprimida no es válida
+     */
+    byte[] decompress(byte[] frame, int offset, int length) throws IOException {
+        if (length < HEADER || (frame[offset + 1] & COMPRESSED) == 0) {
+            stats.recordReceived(length, length, false);
+            return null;
+        }
+
+        int position = offset + HEADER;
+        long originalLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= offset + length || shift > 28) {
+                throw new IOException("Longitud comprimida no válida");
+            }
+            int b = frame[position++] & 0xFF;
+            originalLength |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+
+        if (originalLength > MAX_FRAME_SIZE) {
+            throw new IOException("La trama descomprimida supera el tamaño máximo: " + originalLength);
+        }
+
+        byte[] result = new byte[HEADER + (int) originalLength];
+        result[0] = frame[offset];
+        result[1] = (byte) (frame[offset + 1] & ~COMPRESSED);
+
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            inflater.setInput(frame, position, offset + length - position);
+            int inflated = 0;
+            while (inflated < originalLength) {
+                int count = inflater.inflate(result, HEADER + inflated, (int) originalLength - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+
+            if (inflated != originalLength) {
+                throw new IOException("Trama comprimida incompleta");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Trama comprimida no válida", ex);
+        } finally {
+            inflater.reset();
+            INFLATERS.offer(inflater);
+        }
+
+        stats.recordReceived(result.length, length, true);
+        return result;
+    }
+
+    /**
+     * Decide si se intenta comprimir un mensaje
+     * @param message Mensaje codificado
+     * @param bodyLength Bytes que se comprimirían
+     * @return True si se intenta
+     */
+    private boolean shouldCompress(Message message, int bodyLength) {
+        if (bodyLength < COMPRESSION_MIN_SIZE) return false;
+
+        return switch (message.getType()) {
+            case FILE_DATA -> false;
+            case FILE_CHUNK -> !isSkipped(message);
+            default -> true;
+        };
+    }
+
+    /**
+     * Comprime el cuerpo de una trama
+     * @param frame Trama sin comprimir
+     * @return Trama comprimida, o null si no ahorra lo suficiente
+     */
+    private static byte[] deflate(byte[] frame) {
+        int bodyLength = frame.length - HEADER;
+        int maxLength = bodyLength - (int) (bodyLength * COMPRESSION_MIN_SAVING);
+
+        byte[] output = new byte[HEADER + Varint.size(bodyLength) + maxLength];
+        output[0] = frame[0];
+        output[1] = (byte) (frame[1] | COMPRESSED);
+        int position = Varint.write(output, HEADER, bodyLength);
+
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+
+        try {
+            deflater.setInput(frame, HEADER, bodyLength);
+            deflater.finish();
+
+            while (!deflater.finished() && position < output.length) {
+                position += deflater.deflate(output, position, output.length - position);
+            }
+
+            if (!deflater.finished()) return null;
+        } finally {
+            deflater.reset();
+            DEFLATERS.offer(deflater);
+        }
+
+        return position == output.length ? output : Arrays.copyOf(output, position);
+    }
+
+    private boolean isSkipped(Message message) {
+        Object transferId = message.getFileData().get("transferId");
+        synchronized (skippedTransfers) {
+            return transferId != null && skippedTransfers.containsKey(transferId.toString());
+        }
+    }
+
+    private void skipTransfer(Message message) {
+        Object transferId = message.getFileData().get("transferId");
+        if (transferId == null) return;
+
+        synchronized (skippedTransfers) {
+            skippedTransfers.put(transferId.toString(), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Activa la compresión de las tramas que se envían
+     */
+    void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Getters
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    CompressionStats getStats() {
+        return stats;
+    }
+
+    /** Métricas de compresión de una conexión **/
+    public static class CompressionStats {
+
+        private final AtomicLong sentBytes = new AtomicLong();            // Bytes enviados antes de comprimir
+        private final AtomicLong sentWireBytes = new AtomicLong();        // Bytes enviados por la conexión
+        private final AtomicLong sentCompressed = new AtomicLong();       // Tramas enviadas comprimidas
+        private final AtomicLong receivedBytes = new AtomicLong();        // Bytes recibidos tras descomprimir
+        private final AtomicLong receivedWireBytes = new AtomicLong();    // Bytes recibidos por la conexión
+        private final AtomicLong receivedCompressed = new AtomicLong();   // Tramas recibidas comprimidas
+
+        void recordSent(long original, long wire, boolean compressed) {
+            sentBytes.addAndGet(original);
+            sentWireBytes.addAndGet(wire);
+            if (compressed) sentCompressed.incrementAndGet();
+        }
+
+        void recordReceived(long original, long wire, boolean compressed) {
+            receivedBytes.addAndGet(original);
+            receivedWireBytes.addAndGet(wire);
+            if (compressed) receivedCompressed.incrementAndGet();
+        }
+
+        /**
+         * Relación de compresión de lo enviado
+         * @return Bytes originales por cada byte enviado, 1 si no se ha comprimido nada
+         */
+        public double getSentRatio() {
+            long wire = sentWireBytes.get();
+            return wire > 0 ? (double) sentBytes.get() / wire : 1;
+        }
+
+        /**
+         * Relación de compresión de lo recibido
+         * @return Bytes descomprimidos por cada byte recibido, 1 si no se ha comprimido nada
+         */
+        public double getReceivedRatio() {
+            long wire = receivedWireBytes.get();
+            return wire > 0 ? (double) receivedBytes.get() / wire : 1;
+        }
+
+        public long getSentCompressedFrames() {
+            return sentCompressed.get();
+        }
+
+        public long getReceivedCompressedFrames() {
+            return receivedCompressed.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("enviado %d KB en %d KB (x%.2f, %d tramas comprimidas), recibido %d KB en %d KB (x%.2f, %d tramas comprimidas)",
+                    sentBytes.get() / 1024, sentWireBytes.get() / 1024, getSentRatio(), sentCompressed.get(),
+                    receivedBytes.get() / 1024, receivedWireBytes.get() / 1024, getReceivedRatio(), receivedCompressed.get());
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.chat.network.codec;
+
+import com.chat.model.Message;
+
+import java.io.IOException;
+
+/**
+ * Codificador de mensajes para el transporte entre Peers.
+ * La conexión se encarga de delimitar cada trama con su longitud,
+ * el codec solo convierte un Mensaje en bytes y viceversa.
+ */
+public interface MessageCodec {
+
+    /**
+     * Codifica un mensaje en una trama de bytes
+     * @param message Mensaje a codificar
+     * @return Bytes de la trama
+     * @throws IOException si el mensaje no se puede codificar
+     */
+    byte[] encode(Message message) throws IOException;
+
+    /**
+     * Decodifica una trama de bytes en un mensaje
+     * @param frame Bytes de la trama
+     * @param offset Posición inicial de la trama
+     * @param length Longitud de la trama
+     * @return Mensaje decodificado
+     * @throws IOException si la trama no es válida
+     */
+    Message decode(byte[] frame, int offset, int length) throws IOException;
+
+    /**
+     * Decodifica una trama de bytes completa en un mensaje
+     * @param frame Bytes de la trama
+     * @return Mensaje decodificado
+     * @throws IOException si la trama no es válida
+     */
+    default Message decode(byte[] frame) throws IOException {
+        return decode(frame, 0, frame.length);
+    }
+
+    /**
+     * Activa la compresión de las tramas que se envían, si el codec la admite.
+     * Solo debe activarse cuando el Peer ha anunciado que sabe descomprimirlas
+     * @return True si se ha activado
+     */
+    default boolean enableCompression() {
+        return false;
+    }
+
+    /**
+     * Indica si las tramas que se envían se comprimen
+     * @return True si la compresión está activada
+     */
+    default boolean isCompressionEnabled() {
+        return false;
+    }
+
+    /**
+     * Devuelve las métricas de compresión del codec
+     * @return Métricas, o null si el codec no comprime
+     */
+    default FrameCompressor.CompressionStats getCompressionStats() {
+        return null;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.chat.network.codec;
+
+import com.chat.model.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Codec basado en la serialización estándar de Java.
+ * Se mantiene como alternativa y como referencia para comparar con el codec binario.
+ */
+public class SerializationMessageCodec implements MessageCodec {
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(message);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] frame, int offset, int length) throws IOException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(frame, offset, length))) {
+            return (Message) input.readObject();
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new IOException("Trama no válida: " + ex.getMessage(), ex);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.chat.network.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Utilidades para enteros de longitud variable (7 bits por byte, LEB128)
+ */
+public final class Varint {
+
+    /** Tamaño máximo de un varint de 64 bits **/
+    public static final int MAX_VARINT_SIZE = 10;
+
+    private Varint() { }
+
+    /**
+     * Escribe un entero sin signo como varint
+     * @param output Salida
+     * @param value Valor a escribir
+     * @throws IOException si hay error al escribir
+     */
+    public static void write(OutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    /**
+     * Escribe un entero sin signo como varint en un array
+     * @param buffer Array destino
+     * @param position Posición de escritura
+     * @param value Valor a escribir
+     * @return Nueva posición de escritura
+     */
+    public static int write(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+
+        return position;
+    }
+
+    /**
+     * Lee un varint de una entrada
+     * @param input Entrada
+     * @return Valor leído
+     * @throws IOException si la entrada termina o el varint no es válido
+     */
+    public static long read(InputStream input) throws IOException {
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Fin de la entrada leyendo un varint");
+            }
+
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Varint demasiado largo");
+    }
+
+    /**
+     * Intenta leer un varint de un buffer.
+     * Si el buffer aún no contiene el varint completo no avanza su posición
+     * @param buffer Buffer en modo lectura
+     * @return Valor leído, o -1 si faltan bytes
+     * @throws IOException si el varint no es válido
+     */
+    public static long read(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return -1;
+            }
+
+            int b = buffer.get() & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Varint demasiado largo");
+    }
+
+    /**
+     * Calcula cuántos bytes ocupa un valor como varint
+     * @param value Valor
+     * @return Número de bytes
+     */
+    public static int size(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /** Codifica un entero con signo para que los valores pequeños ocupen poco (ZigZag) **/
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /** Decodifica un entero codificado con ZigZag **/
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.chat.network.crypto;
+
+import com.chat.model.Message;
+import com.chat.model.Message.MessageType;
+import com.chat.network.codec.BinaryMessageCodec;
+import com.chat.network.codec.MessageCodec;
+import com.chat.network.codec.Varint;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.chat.utils.Constants.ENCRYPTION_PROPERTY;
+import static com.chat.utils.Constants.HANDSHAKE_TIMEOUT_MILLIS;
+import static com.chat.utils.Constants.MAX_FRAME_SIZE;
+import static com.chat.utils.Constants.SESSION_TICKET_LIFETIME_MILLIS;
+import static com.chat.utils.Constants.SESSION_TICKET_CACHE_SIZE;
+
+/**
+ * Handshake de las conexiones cifradas, al estilo del patrón NN de Noise:
+ *   1. Quien conecta envía HANDSHAKE con una clave X25519 efímera, un nonce y, si lo tiene, su ticket.
+ *   2. Quien acepta responde con HANDSHAKE: su clave efímera y su nonce, o solo su nonce si reanuda con el ticket.
+ * Las claves de cada sentido salen con HKDF-SHA256 del secreto compartido y de todo lo intercambiado,
+ * así que un cambio en cualquiera de los dos mensajes deja a los Peers con claves distintas
+ * y la primera trama cifrada falla.
+ *
+ * Cada handshake deja a ambos lados un ticket de un solo uso. Al reconectar con el mismo Peer
+ * el ticket sustituye al intercambio de claves; si quien acepta no lo reconoce (se ha reiniciado
+ * o ha caducado) hace el intercambio completo con la clave efímera que siempre se envía.
+ *
+ * No hay autenticación de los Peers: protege frente a quien escucha la red, no frente a quien
+ * se interpone en ella, porque la aplicación no tiene claves de larga duración con las que firmar.
+ */
+public class SecureHandshake {
+
+    /** Propiedades **/
+    private static final byte[] PROTOCOL = "ChatP2P-X25519-AESGCM-SHA256".getBytes(StandardCharsets.US_ASCII);
+    private static final int NONCE_SIZE = 32;
+    private static final int KEY_SIZE = 32;
+    private static final int TICKET_ID_SIZE = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final Map<String, Ticket> clientTickets = lruMap();    // Tickets propios por IP:puerto del Peer
+    private static final Map<String, Ticket> serverTickets = lruMap();    // Tickets emitidos por ID
+
+    /** Constructor privado **/
+    private SecureHandshake() { }
+
+    /**
+     * Indica si las conexiones que se abren deben cifrarse.
+     * Las que se aceptan se cifran siempre que el otro Peer lo pida
+     * @return False si la propiedad chat.encryption vale "off"
+     */
+    public static boolean isEnabled() {
+        return !"off".equalsIgnoreCase(System.getProperty(ENCRYPTION_PROPERTY, "on"));
+    }
+
+    /**
+     * Indica si las conexiones que se aceptan deben rechazar a los Peers que no piden cifrado,
+     * para que quien se interpone en la red no pueda quitar el HANDSHAKE y forzar una conexión en claro
+     * @return True si la propiedad chat.encryption vale "required"
+     */
+    public static boolean isRequired() {
+        return "required".equalsIgnoreCase(System.getProperty(ENCRYPTION_PROPERTY, "on"));
+    }
+
+    /**
+     * Hace el handshake del lado que conecta, antes de que la conexión empiece a leer.
+     * Lee y escribe directamente en el socket bloqueante, sin buffer de lectura, para no consumir
+     * nada de lo que llegue detrás de la respuesta
+     * @param socket Socket recién conectado y en modo bloqueante
+     * @param remote IP:puerto del Peer, con el que se guarda el ticket
+     * @return Cifrado de la conexión
+     * @throws IOException si el Peer no responde al handshake o la respuesta no es válida
+     */
+    public static SessionCipher initiate(Socket socket, String remote) throws IOException {
+        MessageCodec codec = new BinaryMessageCodec();
+        int previousTimeout = socket.getSoTimeout();
+
+        try {
+            KeyPair ephemeral = generateKeyPair();
+            byte[] clientPublic = ephemeral.getPublic().getEncoded();
+            byte[] clientNonce = randomBytes(NONCE_SIZE);
+            Ticket ticket = takeTicket(clientTickets, remote);
+
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            byte[] hello = codec.encode(Message.createHandshakeMessage(clientPublic, clientNonce,
+                    ticket != null ? ticket.id() : null));
+            Varint.write(output, hello.length);
+            output.write(hello);
+            output.flush();
+
+            socket.setSoTimeout((int) HANDSHAKE_TIMEOUT_MILLIS);
+            Message reply = readReply(new DataInputStream(socket.getInputStream()), codec);
+
+            byte[] serverNonce = (byte[]) reply.getFileData().get("nonce");
+            boolean resumed = Boolean.TRUE.equals(reply.getFileData().get("resumed"));
+            byte[] serverPublic = reply.getFileContent();
+            checkNonce(serverNonce);
+
+            byte[] secret;
+            if (resumed) {
+                if (ticket == null) {
+                    throw new IOException("El Peer ha reanudado una sesión sin ticket");
+                }
+                secret = ticket.secret();
+            } else {
+                secret = agree(ephemeral, serverPublic);
+            }
+
+            SessionKeys keys = deriveKeys(secret, clientPublic, clientNonce,
+                    resumed ? null : serverPublic, serverNonce, resumed ? ticket.id() : null);
+            clientTickets.put(remote, keys.ticket());
+
+            return new SessionCipher(keys.clientToServer(), keys.serverToClient(), resumed);
+        } catch (GeneralSecurityException | ClassCastException ex) {
+            throw new IOException("Handshake no válido con " + remote, ex);
+        } finally {
+            if (!socket.isClosed()) {
+                socket.setSoTimeout(previousTimeout);
+            }
+        }
+    }
+
+    /**
+     * Lee la respuesta del handshake. Los PING que el Peer envíe antes de ella van en claro y se ignoran
+     */
+    private static Message readReply(DataInputStream input, MessageCodec codec) throws IOException {
+        while (true) {
+            long length = Varint.read(input);
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Longitud de trama no válida: " + length);
+            }
+
+            byte[] frame = input.readNBytes((int) length);
+            if (frame.length < length) {
+                throw new IOException("El Peer ha cerrado la conexión durante el handshake");
+            }
+
+            Message message = codec.decode(frame, 0, frame.length);
+            if (message.getType() == MessageType.HANDSHAKE) return message;
+
+            if (message.getType() != MessageType.PING && message.getType() != MessageType.PONG) {
+                throw new IOException("El Peer no admite conexiones cifradas");
+            }
+        }
+    }
+
+    /**
+     * Atiende el HANDSHAKE de quien conecta
+     * @param hello Mensaje HANDSHAKE recibido
+     * @return Respuesta a enviar en claro y cifrado de la conexión
+     * @throws IOException si el mensaje no es válido
+     */
+    public static Accepted accept(Message hello) throws IOException {
+        try {
+            byte[] clientPublic = hello.getFileContent();
+            byte[] clientNonce = (byte[]) hello.getFileData().get("nonce");
+            Object ticketId = hello.getFileData().get("ticket");
+            checkNonce(clientNonce);
+
+            byte[] serverNonce = randomBytes(NONCE_SIZE);
+            Ticket ticket = ticketId != null ? takeTicket(serverTickets, ticketId.toString()) : null;
+
+            byte[] secret;
+            byte[] serverPublic = null;
+            if (ticket != null) {
+                secret = ticket.secret();
+            } else {
+                KeyPair ephemeral = generateKeyPair();
+                serverPublic = ephemeral.getPublic().getEncoded();
+                secret = agree(ephemeral, clientPublic);
+            }
+
+            SessionKeys keys = deriveKeys(secret, clientPublic, clientNonce,
+                    serverPublic, serverNonce, ticket != null ? ticket.id() : null);
+            serverTickets.put(keys.ticket().id(), keys.ticket());
+
+            Message reply = Message.createHandshakeReplyMessage(serverPublic, serverNonce, ticket != null);
+            return new Accepted(reply, new SessionCipher(keys.serverToClient(), keys.clientToServer(), ticket != null));
+        } catch (GeneralSecurityException | ClassCastException ex) {
+            throw new IOException("Handshake no válido", ex);
+        }
+    }
+
+    /**
+     * Deriva las claves de la sesión y el siguiente ticket.
+     * La sal es el hash de todo lo intercambiado, de modo que ambos lados solo coinciden si han visto lo mismo
+     */
+    private static SessionKeys deriveKeys(byte[] secret, byte[] clientPublic, byte[] clientNonce,
+                                          byte[] serverPublic, byte[] serverNonce, String resumedTicket)
+            throws GeneralSecurityException {
+        MessageDigest transcript = MessageDigest.getInstance("SHA-256");
+        transcript.update(PROTOCOL);
+        update(transcript, clientPublic);
+        update(transcript, clientNonce);
+        update(transcript, serverPublic);
+        update(transcript, serverNonce);
+        update(transcript, resumedTicket != null ? resumedTicket.getBytes(StandardCharsets.US_ASCII) : null);
+
+        byte[] prk = hmac(transcript.digest(), secret);
+        byte[] clientToServer = expand(prk, "c2s", KEY_SIZE);
+        byte[] serverToClient = expand(prk, "s2c", KEY_SIZE);
+        byte[] resumption = expand(prk, "resumption", KEY_SIZE);
+        String ticketId = HexFormat.of().formatHex(expand(prk, "ticket", TICKET_ID_SIZE));
+
+        Ticket ticket = new Ticket(ticketId, resumption, System.currentTimeMillis() + SESSION_TICKET_LIFETIME_MILLIS);
+        return new SessionKeys(clientToServer, serverToClient, ticket);
+    }
+
+    /**
+     * Añade un campo al hash con su longitud delante, para que no se confunda con el siguiente
+     */
+    private static void update(MessageDigest digest, byte[] field) {
+        int length = field != null ? field.length : 0;
+        digest.update(new byte[] { (byte) (length >>> 8), (byte) length });
+        if (field != null) digest.update(field);
+    }
+
+    /**
+     * HKDF-Expand con HMAC-SHA256
+     * @param prk Clave extraída
+     * @param info Etiqueta de la clave a derivar
+     * @param length Bytes a derivar, como mucho 32 * 255
+     * @return Clave derivada
+     */
+    private static byte[] expand(byte[] prk, String info, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+
+        byte[] result = new byte[length];
+        byte[] block = new byte[0];
+        for (int position = 0, counter = 1; position < length; counter++) {
+            mac.update(block);
+            mac.update(info.getBytes(StandardCharsets.US_ASCII));
+            mac.update((byte) counter);
+            block = mac.doFinal();
+
+            int count = Math.min(block.length, length - position);
+            System.arraycopy(block, 0, result, position, count);
+            position += count;
+        }
+
+        return result;
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    private static KeyPair generateKeyPair() throws GeneralSecurityException {
+        return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+    }
+
+    /**
+     * Calcula el secreto compartido con la clave pública del otro Peer
+     */
+    private static byte[] agree(KeyPair ephemeral, byte[] otherPublic) throws GeneralSecurityException, IOException {
+        if (otherPublic == null) {
+            throw new IOException("Falta la clave pública del Peer");
+        }
+
+        PublicKey publicKey = KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(otherPublic));
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+        agreement.init(ephemeral.getPrivate());
+        agreement.doPhase(publicKey, true);
+        return agreement.generateSecret();
+    }
+
+    private static void checkNonce(byte[] nonce) throws IOException {
+        if (nonce == null || nonce.length != NONCE_SIZE) {
+            throw new IOException("Nonce de handshake no válido");
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Saca un ticket de la caché: cada ticket se usa una sola vez
+     * @return Ticket vigente, o null si no hay
+     */
+    private static Ticket takeTicket(Map<String, Ticket> tickets, String key) {
+        Ticket ticket = tickets.remove(key);
+        return ticket != null && ticket.expiresAt() > System.currentTimeMillis() ? ticket : null;
+    }
+
+    private static Map<String, Ticket> lruMap() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ticket> eldest) {
+                return size() > SESSION_TICKET_CACHE_SIZE;
+            }
+        });
+    }
+
+    /**
+     * Resultado del handshake de quien acepta
+     * @param reply Respuesta HANDSHAKE, que se envía en claro
+     * @param cipher Cifrado de la conexión
+     */
+    public record Accepted(Message reply, SessionCipher cipher) { }
+
+    /**
+     * Ticket para reanudar una sesión
+     * @param id ID del ticket, el mismo en ambos Peers
+     * @param secret Secreto de reanudación
+     * @param expiresAt Momento en que caduca
+     */
+    private record Ticket(String id, byte[] secret, long expiresAt) { }
+
+    private record SessionKeys(byte[] clientToServer, byte[] serverToClient, Ticket ticket) { }
+
+}
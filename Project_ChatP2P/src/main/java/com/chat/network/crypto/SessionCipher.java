@@ -0,0 +1,190 @@
+package com.chat.network.crypto;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cifrado AEAD de las tramas de una conexión con AES-256-GCM.
+ * Cada sentido tiene su clave y su contador: el nonce es el número de trama, así que no viaja
+ * y una trama repetida, reordenada o eliminada hace fallar la siguiente verificación.
+ *
+ * Cada sentido lo usa un único hilo (el escritor de la conexión para cifrar y el lector para
+ * descifrar), por lo que los Cipher se crean una vez y se reutilizan en todas las tramas.
+ * Tanto al cifrar como al descifrar el resultado va a un array distinto del de entrada: descifrar
+ * sobre el mismo array obliga a GCM a copiar la trama antes y cuesta en torno a un 40% del ritmo.
+ */
+public class SessionCipher {
+
+    /** Propiedades **/
+    public static final int TAG_SIZE = 16;                 // Bytes de la etiqueta de autenticación
+    private static final int NONCE_SIZE = 12;              // Bytes del nonce de GCM
+
+    private final SecretKeySpec sendKey;                   // Clave de lo que se envía
+    private final SecretKeySpec receiveKey;                // Clave de lo que se recibe
+    private final Cipher sealer;                           // Cifrador, solo en el escritor
+    private final Cipher opener;                           // Descifrador, solo en el lector
+    private final byte[] sendNonce;                        // Nonce de la siguiente trama enviada
+    private final byte[] receiveNonce;                     // Nonce de la siguiente trama recibida
+    private long sendCounter;                              // Tramas enviadas
+    private long receiveCounter;                           // Tramas recibidas
+    private final boolean resumed;                         // Sesión reanudada con un ticket, sin intercambio de claves
+
+    /**
+     * Constructor por parámetros
+     * @param sendKey Clave de 32 bytes para lo que se envía
+     * @param receiveKey Clave de 32 bytes para lo que se recibe
+     * @param resumed True si la sesión se ha reanudado con un ticket
+     */
+    public SessionCipher(byte[] sendKey, byte[] receiveKey, boolean resumed) throws GeneralSecurityException {
+        this.sendKey = new SecretKeySpec(sendKey, "AES");
+        this.receiveKey = new SecretKeySpec(receiveKey, "AES");
+        this.sealer = Cipher.getInstance("AES/GCM/NoPadding");
+        this.opener = Cipher.getInstance("AES/GCM/NoPadding");
+        this.sendNonce = new byte[NONCE_SIZE];
+        this.receiveNonce = new byte[NONCE_SIZE];
+        this.resumed = resumed;
+    }
+
+    /**
+     * Cifra una trama
+     * @param frame Trama en claro
+     * @return Trama cifrada con su etiqueta, {@link #TAG_SIZE} bytes más larga
+     * @throws IOException si no se puede cifrar
+     */
+    public byte[] seal(byte[] frame) throws IOException {
+        byte[] sealed = new byte[frame.length + TAG_SIZE];
+        seal(frame, sealed, 0);
+        return sealed;
+    }
+
+    /**
+     * Cifra una trama en un array ya reservado, para no crear uno por trama
+     * @param frame Trama en claro
+     * @param out Array de destino, con al menos {@link #TAG_SIZE} bytes más que la trama desde offset
+     * @param offset Posición de destino
+     * @return Longitud de la trama cifrada
+     * @throws IOException si no se puede cifrar
+     */
+    public int seal(byte[] frame, byte[] out, int offset) throws IOException {
+        try {
+            setCounter(sendNonce, sendCounter++);
+            sealer.init(Cipher.ENCRYPT_MODE, sendKey, new GCMParameterSpec(TAG_SIZE * 8, sendNonce));
+            return sealer.doFinal(frame, 0, frame.length, out, offset);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("No se ha podido cifrar la trama", ex);
+        }
+    }
+
+    /**
+     * Descifra una trama en otro array
+     * @param frame Bytes recibidos
+     * @param offset Posición inicial de la trama
+     * @param length Longitud de la trama cifrada
+     * @param out Array de destino, de al menos length bytes. La trama en claro empieza en la posición 0
+     * @return Longitud de la trama en claro
+     * @throws IOException si la trama no es auténtica
+     */
+    public int open(byte[] frame, int offset, int length, byte[] out) throws IOException {
+        if (length < TAG_SIZE) {
+            throw new IOException("Trama cifrada demasiado corta");
+        }
+
+        try {
+            setCounter(receiveNonce, receiveCounter++);
+            opener.init(Cipher.DECRYPT_MODE, receiveKey, new GCMParameterSpec(TAG_SIZE * 8, receiveNonce));
+            return opener.doFinal(frame, offset, length, out, 0);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Trama cifrada no auténtica", ex);
+        }
+    }
+
+    /**
+     * Escribe el contador de tramas en los últimos 8 bytes del nonce
+     */
+    private static void setCounter(byte[] nonce, long counter) {
+        for (int i = NONCE_SIZE - 1; i >= NONCE_SIZE - Long.BYTES; i--) {
+            nonce[i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    /**
+     * Getter
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * PRUEBA: compara el ritmo de envío de un archivo en fragmentos de 64KB por una conexión local,
+     * en claro y cifrado, con el mismo escritor y lector que una conexión entre Peers
+     */
+    public static void main(String[] args) throws Exception {
+        int chunk = 64 * 1024;
+        long total = 512L * 1024 * 1024;
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+
+        for (int round = 0; round < 2; round++) {
+            for (boolean encrypted : new boolean[] { false, true }) {
+                SessionCipher sender = encrypted ? new SessionCipher(key, key, false) : null;
+                SessionCipher receiver = encrypted ? new SessionCipher(key, key, false) : null;
+                double rate = loopback(chunk, total, sender, receiver);
+
+                if (round == 1) {
+                    System.out.printf("%s: %.0f MB/s%n", encrypted ? "AES-256-GCM" : "En claro", rate);
+                }
+            }
+        }
+    }
+
+    private static double loopback(int chunk, long total, SessionCipher sender, SessionCipher receiver) throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            CompletableFuture<Void> reading = CompletableFuture.runAsync(() -> {
+                try (Socket socket = server.accept();
+                     DataInputStream input = new DataInputStream(socket.getInputStream())) {
+                    byte[] frame = new byte[chunk + TAG_SIZE];
+                    byte[] opened = new byte[chunk + TAG_SIZE];
+                    for (long received = 0; received < total; received += chunk) {
+                        int length = input.readInt();
+                        input.readFully(frame, 0, length);
+                        if (receiver != null) receiver.open(frame, 0, length, opened);
+                    }
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+
+            byte[] data = new byte[chunk];
+            byte[] sealed = new byte[chunk + TAG_SIZE];
+            Arrays.fill(data, (byte) 7);
+
+            long start = System.nanoTime();
+            try (Socket socket = new Socket("localhost", server.getLocalPort());
+                 DataOutputStream output = new DataOutputStream(socket.getOutputStream())) {
+                for (long sent = 0; sent < total; sent += chunk) {
+                    byte[] frame = sender != null ? sealed : data;
+                    int length = sender != null ? sender.seal(data, sealed, 0) : data.length;
+                    output.writeInt(length);
+                    output.write(frame, 0, length);
+                }
+                output.flush();
+                reading.join();
+            }
+
+            return total / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+}
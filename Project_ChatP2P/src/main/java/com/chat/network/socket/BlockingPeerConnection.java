@@ -0,0 +1,126 @@
+package com.chat.network.socket;
+
+import com.chat.model.Message;
+import com.chat.network.codec.BinaryMessageCodec;
+import com.chat.network.codec.MessageCodec;
+import com.chat.network.codec.Varint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static com.chat.utils.Constants.FILE_BLOCK_SIZE;
+import static com.chat.utils.Constants.WRITE_BATCH_SIZE;
+
+/**
+ * Conexión Peer en modo bloqueante: un {@link ClientHandler} lee de ella en su propio hilo.
+ * Solo estas conexiones tienen lado de lectura bloqueante, así que una {@link NioPeerConnection}
+ * no puede llegar a un ClientHandler.
+ */
+public class BlockingPeerConnection extends PeerConnection {
+
+    /** Propiedades **/
+    private final DataInputStream input;           // Entrada de la conexión
+    private ReadableByteChannel bodyInput;         // Entrada del contenido de los archivos, solo en el lector
+    private byte[] frameBuffer;                    // Tramas leídas, solo en el lector
+
+    /** Constructor por parámetros **/
+    public BlockingPeerConnection(Socket socket) throws IOException {
+        this(socket, new BinaryMessageCodec());
+    }
+
+    /** Constructor por parámetros **/
+    public BlockingPeerConnection(Socket socket, MessageCodec codec) throws IOException {
+        super(socket, codec, new BufferedOutputStream(socket.getOutputStream(), WRITE_BATCH_SIZE));
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * Recibe un mensaje de una conexión
+     * @return El mensaje recibido
+     */
+    public Message receiveMessage() throws IOException, ClassNotFoundException {
+        if (!isConnected()) {
+            throw new IllegalStateException("La conexión no está activa");
+        }
+
+        try {
+            long length = Varint.read(input);
+            checkFrameLength(length);
+
+            byte[] frame = reuse(frameBuffer, (int) length);
+            frameBuffer = keep(frame);
+            input.readFully(frame, 0, (int) length);
+
+            return decodeFrame(frame, 0, (int) length);
+        } catch (IOException ex) {
+            markDisconnected();
+            throw ex;
+        }
+    }
+
+    /**
+     * Recibe el contenido que sigue a una trama FILE_DATA y lo escribe en el archivo.
+     * Debe llamarse justo después de recibir la trama, antes de leer la siguiente.
+     * Se lee por bloques y cada uno cuenta como señal de vida, para que en un enlace lento
+     * el monitor de latidos no cierre la conexión en mitad de un trozo
+     * @param header Trama FILE_DATA recibida
+     * @param target Archivo de destino, o null para descartar el contenido
+     * @throws IOException si se corta la conexión o falla la escritura
+     */
+    public void receiveFileData(Message header, FileChannel target) throws IOException {
+        long position = ((Number) header.getFileData().get("offset")).longValue();
+        long remaining = ((Number) header.getFileData().get("length")).longValue();
+
+        try {
+            if (target == null) {
+                while (remaining > 0) {
+                    long step = Math.min(remaining, FILE_BLOCK_SIZE);
+                    input.skipNBytes(step);
+                    remaining -= step;
+                    markReceived();
+                }
+                return;
+            }
+
+            // Se lee a través del stream para no perder lo que ya esté en su buffer
+            if (bodyInput == null) {
+                bodyInput = Channels.newChannel(input);
+            }
+
+            while (remaining > 0) {
+                long transferred = target.transferFrom(bodyInput, position, Math.min(remaining, FILE_BLOCK_SIZE));
+                if (transferred <= 0) {
+                    throw new EOFException("Conexión cerrada durante la recepción de un archivo");
+                }
+                position += transferred;
+                remaining -= transferred;
+                markReceived();
+            }
+        } catch (IOException ex) {
+            markDisconnected();
+            throw ex;
+        }
+    }
+
+    /**
+     * Cierra la conexión
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        try {
+            input.close();
+        } catch (IOException ignored) {
+            // El socket ya está cerrado
+        }
+    }
+
+}
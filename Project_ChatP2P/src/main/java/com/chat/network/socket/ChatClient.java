@@ -2,9 +2,13 @@ package com.chat.network.socket;
 
 import com.chat.controller.ChatManager;
 import com.chat.model.Message;
+import com.chat.network.crypto.SecureHandshake;
+import com.chat.network.crypto.SessionCipher;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public class ChatClient {
 
@@ -21,10 +25,34 @@ public class ChatClient {
      * @throws IOException si hay error al conectar
      */
     public void connect(String ip, int port) throws IOException {
-        Socket socket = new Socket(ip, port);
-        peerConnection = new PeerConnection(socket);
+        if (TransportMode.current() == TransportMode.NIO) {
+            NioPeerConnection nioConnection = NioPeerConnection.connect(ip, port);
+            peerConnection = nioConnection;
+            nioConnection.start();
+            return;
+        }
+
+        // Socket con canal para poder enviar los archivos con transferTo
+        Socket socket = SocketChannel.open(new InetSocketAddress(ip, port)).socket();
+        BlockingPeerConnection blockingConnection;
+
+        try {
+            // El handshake va antes de crear la conexión, para que su buffer de lectura empiece detrás de la respuesta
+            SessionCipher cipher = SecureHandshake.isEnabled()
+                    ? SecureHandshake.initiate(socket, ip + ":" + port)
+                    : null;
+
+            blockingConnection = new BlockingPeerConnection(socket);
+            if (cipher != null) {
+                blockingConnection.startEncryption(cipher);
+            }
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
 
-        new Thread(new ClientHandler(peerConnection)).start();
+        peerConnection = blockingConnection;
+        ConnectionExecutor.getInstance().execute(new ClientHandler(blockingConnection));
     }
 
     /**
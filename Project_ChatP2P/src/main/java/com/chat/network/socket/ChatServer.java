@@ -3,8 +3,12 @@ package com.chat.network.socket;
 import com.chat.controller.ChatManager;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import static com.chat.utils.Constants.MAX_PORT;
 import static com.chat.utils.Constants.MIN_PORT;
@@ -14,6 +18,7 @@ public class ChatServer {
     /** Propiedades **/
     private static ChatServer instance;                              // Singleton del servidor
     private ServerSocket serverSocket;                               // Socket del servidor
+    private ServerSocketChannel serverChannel;                       // Canal del servidor en modo NIO
     private final int port;                                          // Puerto del servidor
     private boolean running;                                         // Estado del servidor
 
@@ -68,9 +73,15 @@ public class ChatServer {
     public void startServer() {
         running = true;
 
-        new Thread(() -> {
+        if (TransportMode.current() == TransportMode.NIO) {
+            startNioServer();
+            return;
+        }
+
+        ConnectionExecutor.getInstance().execute(() -> {
             try {
-                serverSocket = new ServerSocket(port);
+                // Socket con canal para poder enviar los archivos con transferTo
+                serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(port)).socket();
                 System.out.println("Servidor iniciado en el puerto " + port);
 
                 while(running) {
@@ -80,7 +91,27 @@ public class ChatServer {
             } catch (IOException ex) {
                 System.out.println("No se ha podido iniciar el servidor: " + ex.getMessage());
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Inicia el servidor en modo NIO.
+     * Las conexiones aceptadas se reparten entre los bucles de eventos del grupo
+     */
+    private void startNioServer() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+
+            NioEventLoopGroup.getInstance().next()
+                    .register(serverChannel, SelectionKey.OP_ACCEPT, key -> acceptNioConnections(), null);
+
+            System.out.println("Servidor iniciado en el puerto " + port);
+        } catch (IOException ex) {
+            running = false;
+            System.out.println("No se ha podido iniciar el servidor: " + ex.getMessage());
+        }
     }
 
     /**
@@ -90,6 +121,11 @@ public class ChatServer {
         try {
             running = false;
 
+            if (serverChannel != null) {
+                serverChannel.close();
+                System.out.println("Servidor detenido");
+            }
+
             if (serverSocket != null) {
                 serverSocket.close();
                 System.out.println("Servidor detenido");
@@ -130,10 +166,28 @@ public class ChatServer {
 
             Socket socket = serverSocket.accept();
 
-            PeerConnection peerConnection = new PeerConnection(socket);
+            BlockingPeerConnection peerConnection = new BlockingPeerConnection(socket);
             handleConnection(peerConnection);
             
-            new Thread(new ClientHandler(peerConnection)).start();
+            ConnectionExecutor.getInstance().execute(new ClientHandler(peerConnection));
+        } catch (IOException ex) {
+            System.out.println("Error aceptando conexión " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Acepta todas las conexiones pendientes en modo NIO
+     */
+    private void acceptNioConnections() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                NioPeerConnection peerConnection =
+                        new NioPeerConnection(channel, NioEventLoopGroup.getInstance().next());
+
+                handleConnection(peerConnection);
+                peerConnection.start();
+            }
         } catch (IOException ex) {
             System.out.println("Error aceptando conexión " + ex.getMessage());
         }
@@ -4,14 +4,15 @@ import com.chat.controller.ChatManager;
 import com.chat.model.Message;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 public class ClientHandler implements Runnable {
 
     /** Propiedades **/
-    PeerConnection peerConnection;        // Conexión externa
+    BlockingPeerConnection peerConnection;        // Conexión externa
 
     /** Constructor por parámetros **/
-    public ClientHandler(PeerConnection peerConnection) {
+    public ClientHandler(BlockingPeerConnection peerConnection) {
         this.peerConnection = peerConnection;
     }
 
@@ -20,42 +21,69 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
+        HeartbeatMonitor.getInstance().register(peerConnection);
+
         while (peerConnection.isConnected()) {
             try {
                 Message message = peerConnection.receiveMessage();
-                handleMessageReceived(message);
+                if (message.getType() == Message.MessageType.FILE_DATA) {
+                    if (receiveFileData(message)) {
+                        handleMessageReceived(message);
+                    }
+                } else if (!peerConnection.handleControlMessage(message)) {
+                    handleMessageReceived(message);
+                }
             } catch (IOException | ClassNotFoundException e) {
-                handleDisconnection();
                 break;
             }
         }
+
+        // También si la conexión se ha cerrado desde otro hilo mientras el lector esperaba
+        handleDisconnection();
     }
 
     /**
-     * Gestiona una entrada de mensaje avisando al controlador de chat y de eventos
+     * Entrega un mensaje a la cola de su sesión, sin esperar a que se procese
      *
      * @param message Mensaje enviado
      */
     private void handleMessageReceived(Message message) {
-        String peerId = peerConnection.getPeerId();
-        
-        ChatManager.getInstance().handleMessageReceived(peerId, message);
+        InboundPipeline pipeline = InboundPipeline.getInstance();
+
+        // Si la sesión tiene demasiado pendiente se deja de leer hasta que lo procese
+        if (pipeline.dispatch(peerConnection, message)) {
+            pipeline.awaitCapacity(peerConnection);
+        }
+    }
+
+    /**
+     * Recibe el contenido de un trozo de archivo, que va justo detrás de su trama
+     *
+     * @param header Trama FILE_DATA recibida
+     * @return True si se ha guardado, false si se ha descartado
+     * @throws IOException si se corta la conexión
+     */
+    private boolean receiveFileData(Message header) throws IOException {
+        FileChannel target = ChatManager.getInstance().openFileData(peerConnection.getPeerId(), header);
+        peerConnection.receiveFileData(header, target);
+
+        return target != null;
     }
 
     /**
      * Gestiona una desconexión eliminándola y avisando al controlador de chat y de eventos
      */
     private void handleDisconnection() {
-        String peerId = peerConnection.getPeerId();
         peerConnection.close();
-        
-        ChatManager.getInstance().handleUnexpectedDisconnection(peerConnection.getPeerId());
+
+        // Se avisa detrás de los mensajes recibidos que aún no se han procesado
+        InboundPipeline.getInstance().disconnect(peerConnection);
     }
 
     /**
      * Getter
      */
-    public PeerConnection getPeerConnection() {
+    public BlockingPeerConnection getPeerConnection() {
         return peerConnection;
     }
 
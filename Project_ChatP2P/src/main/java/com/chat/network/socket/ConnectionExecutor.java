@@ -0,0 +1,152 @@
+package com.chat.network.socket;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.chat.utils.Constants.EXECUTOR_PROPERTY;
+
+/**
+ * Ejecutor de las tareas de red: lectura de conexiones, conexiones salientes y envíos.
+ * Por defecto usa un hilo virtual por tarea, de modo que una lectura bloqueada
+ * solo ocupa unos pocos KB de memoria en lugar de la pila completa de un hilo del sistema.
+ * Con la propiedad "chat.executor=platform" vuelve a usar hilos del sistema.
+ *
+ * El coste en memoria se mide por la pila: cada hilo del sistema reserva la suya completa
+ * (-Xss, ThreadStackSize), mientras que un hilo virtual guarda en el heap solo los marcos que usa.
+ */
+public class ConnectionExecutor {
+
+    /** Modo de ejecución **/
+    public enum Mode {
+        VIRTUAL,          // Un hilo virtual por tarea
+        PLATFORM          // Un hilo del sistema por tarea
+    }
+
+    /** Propiedades **/
+    private static ConnectionExecutor instance;          // Singleton del ejecutor
+
+    private final Mode mode;                             // Modo de ejecución
+    private final ExecutorService executor;              // Ejecutor de las tareas
+    private final AtomicInteger activeTasks;             // Tareas en ejecución
+    private final AtomicLong completedTasks;             // Tareas terminadas
+    private final long threadStackSize;                  // Bytes de pila que reserva cada hilo del sistema
+
+    /** Constructor privado Singleton **/
+    private ConnectionExecutor(Mode mode) {
+        this.mode = mode;
+        this.executor = mode == Mode.VIRTUAL
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        this.activeTasks = new AtomicInteger();
+        this.completedTasks = new AtomicLong();
+        this.threadStackSize = threadStackSize();
+    }
+
+    /**
+     * Inicializa y devuelve el Singleton del ejecutor
+     * @return Singleton del ejecutor
+     */
+    public static synchronized ConnectionExecutor getInstance() {
+        if (instance == null) {
+            String mode = System.getProperty(EXECUTOR_PROPERTY, "virtual");
+            instance = new ConnectionExecutor("platform".equalsIgnoreCase(mode) ? Mode.PLATFORM : Mode.VIRTUAL);
+        }
+        return instance;
+    }
+
+    /**
+     * Ejecuta una tarea en segundo plano
+     * @param task Tarea a ejecutar
+     */
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            activeTasks.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeTasks.decrementAndGet();
+                completedTasks.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas del ejecutor
+     * @return Métricas actuales
+     */
+    public Stats getStats() {
+        // ThreadMXBean solo cuenta hilos del sistema: los virtuales no reservan pila propia
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int active = activeTasks.get();
+
+        return new Stats(
+                mode,
+                active,
+                completedTasks.get(),
+                threads.getThreadCount(),
+                threads.getPeakThreadCount(),
+                threadStackSize,
+                mode == Mode.PLATFORM ? active * threadStackSize : 0);
+    }
+
+    /**
+     * Tamaño de pila de los hilos del sistema, el de -Xss
+     * @return Bytes, o 1MB (el valor por defecto en 64 bits) si la JVM no lo indica
+     */
+    private static long threadStackSize() {
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return Long.parseLong(hotSpot.getVMOption("ThreadStackSize").getValue()) * 1024;
+        } catch (RuntimeException ex) {
+            return 1024 * 1024;
+        }
+    }
+
+    /**
+     * Getter
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Métricas del ejecutor
+     * @param mode Modo de ejecución
+     * @param activeTasks Tareas en ejecución (una por conexión leyendo, más las conexiones salientes en curso)
+     * @param completedTasks Tareas terminadas
+     * @param platformThreads Hilos del sistema vivos en la JVM
+     * @param peakPlatformThreads Máximo de hilos del sistema vivos
+     * @param threadStackSize Pila que reserva cada hilo del sistema, en bytes
+     * @param taskStackBytes Pila reservada por las tareas activas, en bytes; 0 con hilos virtuales
+     */
+    public record Stats(Mode mode,
+                        int activeTasks,
+                        long completedTasks,
+                        int platformThreads,
+                        int peakPlatformThreads,
+                        long threadStackSize,
+                        long taskStackBytes) {
+
+        /**
+         * Pila que reservan todos los hilos del sistema vivos
+         */
+        public long platformStackBytes() {
+            return platformThreads * threadStackSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d tareas activas, %d terminadas, %d hilos del sistema (máx. %d) con %d KB de pila cada uno, "
+                            + "%d KB de pila reservada en total, %d KB por las tareas",
+                    mode, activeTasks, completedTasks, platformThreads, peakPlatformThreads, threadStackSize / 1024,
+                    platformStackBytes() / 1024, taskStackBytes / 1024);
+        }
+    }
+
+}
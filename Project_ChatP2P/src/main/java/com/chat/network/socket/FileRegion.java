@@ -0,0 +1,13 @@
+package com.chat.network.socket;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Trozo de un archivo que se envía tal cual detrás de una trama FILE_DATA,
+ * directamente del disco al socket con {@link FileChannel#transferTo}
+ *
+ * @param file Canal del archivo, abierto para lectura
+ * @param position Posición del trozo dentro del archivo
+ * @param count Número de bytes del trozo
+ */
+public record FileRegion(FileChannel file, long position, long count) { }
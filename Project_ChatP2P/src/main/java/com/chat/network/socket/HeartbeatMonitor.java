@@ -0,0 +1,129 @@
+package com.chat.network.socket;
+
+import com.chat.model.Message;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.chat.utils.Constants.HEARTBEAT_INTERVAL_MILLIS;
+import static com.chat.utils.Constants.HEARTBEAT_INTERVAL_PROPERTY;
+import static com.chat.utils.Constants.HEARTBEAT_TIMEOUT_MILLIS;
+import static com.chat.utils.Constants.HEARTBEAT_TIMEOUT_PROPERTY;
+
+/**
+ * Comprueba periódicamente que los Peers conectados siguen respondiendo.
+ * Un único hilo revisa todas las conexiones: envía un PING a las que llevan un intervalo
+ * sin recibir nada y cierra las que superan el tiempo máximo, aunque el socket no haya fallado.
+ * Con las propiedades "chat.heartbeat.interval" y "chat.heartbeat.timeout" se cambian los tiempos.
+ */
+public class HeartbeatMonitor {
+
+    /** Propiedades **/
+    private static HeartbeatMonitor instance;            // Singleton del monitor
+
+    private final long intervalMillis;                   // Tiempo sin recibir nada para enviar un PING
+    private final long timeoutMillis;                    // Tiempo sin recibir nada para cerrar la conexión
+    private final Set<PeerConnection> connections;       // Conexiones vigiladas
+    private final ScheduledExecutorService scheduler;    // Hilo compartido de las comprobaciones
+    private final AtomicLong expiredCount;               // Conexiones cerradas por no responder
+
+    /** Constructor privado Singleton **/
+    private HeartbeatMonitor(long intervalMillis, long timeoutMillis) {
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = Math.max(timeoutMillis, intervalMillis);
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.expiredCount = new AtomicLong();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "chat-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(100, intervalMillis / 2);
+        scheduler.scheduleAtFixedRate(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Inicializa y devuelve el Singleton del monitor
+     * @return Singleton del monitor
+     */
+    public static synchronized HeartbeatMonitor getInstance() {
+        if (instance == null) {
+            instance = new HeartbeatMonitor(
+                    Long.getLong(HEARTBEAT_INTERVAL_PROPERTY, HEARTBEAT_INTERVAL_MILLIS),
+                    Long.getLong(HEARTBEAT_TIMEOUT_PROPERTY, HEARTBEAT_TIMEOUT_MILLIS));
+        }
+        return instance;
+    }
+
+    /**
+     * Empieza a vigilar una conexión
+     * @param connection Conexión Peer
+     */
+    public void register(PeerConnection connection) {
+        connection.markReceived();
+        connections.add(connection);
+    }
+
+    /**
+     * Deja de vigilar una conexión
+     * @param connection Conexión Peer
+     */
+    public void unregister(PeerConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Revisa todas las conexiones vigiladas
+     */
+    private void check() {
+        long now = System.currentTimeMillis();
+
+        for (PeerConnection connection : connections) {
+            try {
+                if (!connection.isConnected()) {
+                    connections.remove(connection);
+                    continue;
+                }
+
+                long silence = now - connection.getLastReceivedMillis();
+
+                if (silence >= timeoutMillis) {
+                    connections.remove(connection);
+                    expiredCount.incrementAndGet();
+                    System.out.println("El Peer " + connection.getPeerId() + " no responde desde hace " + silence + " ms");
+                    connection.expire();
+                } else if (silence >= intervalMillis) {
+                    connection.send(Message.createPingMessage(System.nanoTime()));
+                }
+            } catch (RuntimeException ex) {
+                System.out.println("Error comprobando la conexión " + connection.getPeerId() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Getters
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+}
@@ -0,0 +1,342 @@
+package com.chat.network.socket;
+
+import com.chat.controller.ChatManager;
+import com.chat.model.Message;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.chat.utils.Constants.INBOUND_DISK_THREADS;
+import static com.chat.utils.Constants.INBOUND_HIGH_WATERMARK;
+import static com.chat.utils.Constants.INBOUND_LOW_WATERMARK;
+
+/**
+ * Entrega de los mensajes recibidos al ChatManager fuera del hilo que lee la conexión.
+ * El lector solo decodifica y atiende los mensajes de control; el resto pasa a una de las dos
+ * colas de la sesión, que se ejecutan en orden y de una en una:
+ *   - Estado: cambios de sesión, contactos, textos y avisos, en el ejecutor de red.
+ *   - Disco: anuncios y fragmentos de archivo, en un grupo fijo de hilos para no saturar el disco.
+ *
+ * Cada sesión lleva la cuenta de los bytes entregados y aún sin procesar. Si supera el límite
+ * el lector deja de leer de la conexión (y el Peer acaba esperando en su escritura)
+ * hasta que se baja del límite inferior, en lugar de acumular mensajes sin fin.
+ */
+public class InboundPipeline {
+
+    /** Etapa de la sesión en la que se procesa una tarea **/
+    public enum Stage {
+        STATE,            // Cambios de estado y avisos a la interfaz
+        DISK              // Escritura y verificación de archivos
+    }
+
+    /** Propiedades **/
+    private static InboundPipeline instance;             // Singleton de la entrega
+
+    private final ExecutorService diskExecutor;          // Hilos de las tareas de disco
+    private final Map<String, Session> sessions;         // Sesiones por ID de la conexión
+    private final AtomicLong processedMessages;          // Mensajes procesados
+    private final AtomicLong pausedReads;                // Veces que se ha parado un lector
+
+    /** Constructor privado Singleton **/
+    private InboundPipeline() {
+        AtomicInteger threads = new AtomicInteger();
+        this.diskExecutor = Executors.newFixedThreadPool(INBOUND_DISK_THREADS, task -> {
+            Thread thread = new Thread(task, "inbound-disk-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sessions = new ConcurrentHashMap<>();
+        this.processedMessages = new AtomicLong();
+        this.pausedReads = new AtomicLong();
+    }
+
+    /**
+     * Inicializa y devuelve el Singleton de la entrega
+     * @return Singleton de la entrega
+     */
+    public static synchronized InboundPipeline getInstance() {
+        if (instance == null) {
+            instance = new InboundPipeline();
+        }
+        return instance;
+    }
+
+    /**
+     * Entrega un mensaje recibido a la cola de su sesión sin esperar a que se procese
+     * @param connection Conexión por la que ha llegado
+     * @param message Mensaje recibido
+     * @return True si la sesión tiene demasiado pendiente y el lector debe parar
+     */
+    public boolean dispatch(PeerConnection connection, Message message) {
+        String peerId = connection.getPeerId();
+        Session session = sessions.computeIfAbsent(peerId, Session::new);
+        long size = sizeOf(message);
+
+        session.pendingBytes.addAndGet(size);
+        session.lane(stageOf(message)).execute(() -> {
+            try {
+                ChatManager.getInstance().handleMessageReceived(peerId, message);
+            } catch (RuntimeException ex) {
+                System.out.println("Error procesando un mensaje de " + peerId + ": " + ex.getMessage());
+            } finally {
+                processedMessages.incrementAndGet();
+                session.release(size);
+            }
+        });
+
+        if (session.pendingBytes.get() > INBOUND_HIGH_WATERMARK && session.paused.compareAndSet(false, true)) {
+            pausedReads.incrementAndGet();
+        }
+        return session.paused.get();
+    }
+
+    /**
+     * Ejecuta una tarea en una de las colas de una sesión, detrás de lo que ya tenga pendiente
+     * @param peerId ID de la conexión
+     * @param stage Cola en la que se ejecuta
+     * @param task Tarea a ejecutar
+     */
+    public void execute(String peerId, Stage stage, Runnable task) {
+        Runnable guarded = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                System.out.println("Error procesando una tarea de " + peerId + ": " + ex.getMessage());
+            }
+        };
+
+        // Si la conexión ya se ha cerrado no hay orden que respetar
+        Session session = sessions.get(peerId);
+        if (session != null) {
+            session.lane(stage).execute(guarded);
+        } else if (stage == Stage.DISK) {
+            diskExecutor.execute(guarded);
+        } else {
+            ConnectionExecutor.getInstance().execute(guarded);
+        }
+    }
+
+    /**
+     * Avisa de la desconexión detrás de los mensajes que quedan en la cola de estado
+     * y libera la sesión
+     * @param connection Conexión cerrada
+     */
+    public void disconnect(PeerConnection connection) {
+        String peerId = connection.getPeerId();
+        Session session = sessions.computeIfAbsent(peerId, Session::new);
+
+        session.lane(Stage.STATE).execute(() -> {
+            try {
+                ChatManager.getInstance().handleUnexpectedDisconnection(peerId, connection);
+            } finally {
+                sessions.remove(peerId, session);
+                session.resume();
+            }
+        });
+    }
+
+    /**
+     * Programa una tarea para cuando la sesión baje del límite inferior.
+     * Si ya no está por encima, se ejecuta en el momento
+     * @param peerId ID de la conexión
+     * @param onDrained Tarea que reanuda la lectura
+     */
+    public void whenDrained(String peerId, Runnable onDrained) {
+        Session session = sessions.get(peerId);
+        if (session == null) {
+            onDrained.run();
+            return;
+        }
+
+        session.onDrained.set(onDrained);
+        if (!session.paused.get()) {
+            session.runDrained();
+        }
+    }
+
+    /**
+     * Bloquea al lector hasta que la sesión baje del límite inferior o se cierre la conexión.
+     * El lector es un hilo virtual: con un lock en lugar de synchronized la espera libera
+     * el hilo del sistema que lo ejecuta en vez de bloquearlo
+     * @param connection Conexión cuyo lector espera
+     */
+    public void awaitCapacity(PeerConnection connection) {
+        Session session = sessions.get(connection.getPeerId());
+        if (session == null) return;
+
+        session.lock.lock();
+        try {
+            while (session.paused.get() && connection.isConnected()) {
+                session.resumed.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Cola en la que se procesa un mensaje
+     * @param message Mensaje recibido
+     * @return DISK para los archivos, STATE para todo lo demás
+     */
+    private static Stage stageOf(Message message) {
+        return switch (message.getType()) {
+            case FILE, FILE_CHUNK, FILE_DATA -> Stage.DISK;
+            default -> Stage.STATE;
+        };
+    }
+
+    /**
+     * Tamaño aproximado en memoria de un mensaje pendiente
+     */
+    private static long sizeOf(Message message) {
+        long size = 64;
+        if (message.getFileContent() != null) size += message.getFileContent().length;
+        if (message.getContent() != null) size += message.getContent().length() * 2L;
+        return size;
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas de la entrega
+     * @return Métricas actuales
+     */
+    public Stats getStats() {
+        long pending = 0;
+        int paused = 0;
+        for (Session session : sessions.values()) {
+            pending += session.pendingBytes.get();
+            if (session.paused.get()) paused++;
+        }
+
+        return new Stats(sessions.size(), pending, paused, processedMessages.get(), pausedReads.get());
+    }
+
+    /** Colas y cuenta de lo pendiente de una conexión **/
+    private final class Session {
+
+        private final SerialExecutor state;                        // Cola de estado
+        private final SerialExecutor disk;                         // Cola de disco
+        private final AtomicLong pendingBytes;                     // Bytes entregados y aún sin procesar
+        private final AtomicBoolean paused;                        // El lector está parado
+        private final AtomicReference<Runnable> onDrained;         // Reanudación del lector NIO, o null
+        private final ReentrantLock lock;                          // Espera del lector bloqueante
+        private final Condition resumed;                           // Se avisa al bajar del límite inferior
+
+        private Session(String peerId) {
+            this.state = new SerialExecutor(ConnectionExecutor.getInstance()::execute);
+            this.disk = new SerialExecutor(diskExecutor);
+            this.pendingBytes = new AtomicLong();
+            this.paused = new AtomicBoolean();
+            this.onDrained = new AtomicReference<>();
+            this.lock = new ReentrantLock();
+            this.resumed = lock.newCondition();
+        }
+
+        private SerialExecutor lane(Stage stage) {
+            return stage == Stage.DISK ? disk : state;
+        }
+
+        /**
+         * Descuenta un mensaje procesado y reanuda el lector si se baja del límite inferior
+         */
+        private void release(long size) {
+            if (pendingBytes.addAndGet(-size) <= INBOUND_LOW_WATERMARK && paused.get()) {
+                resume();
+            }
+        }
+
+        private void resume() {
+            if (!paused.compareAndSet(true, false)) return;
+
+            lock.lock();
+            try {
+                resumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            runDrained();
+        }
+
+        private void runDrained() {
+            Runnable task = onDrained.getAndSet(null);
+            if (task != null) task.run();
+        }
+    }
+
+    /**
+     * Ejecutor que procesa sus tareas en orden y de una en una sobre otro ejecutor.
+     * Cada turno procesa unas pocas tareas y cede el hilo, para que una sesión con mucho
+     * pendiente no acapare el grupo de disco
+     */
+    private static final class SerialExecutor implements Executor {
+
+        private static final int TASKS_PER_TURN = 32;
+
+        private final Executor backing;                   // Ejecutor en el que corren los turnos
+        private final Queue<Runnable> tasks;              // Tareas pendientes
+        private final AtomicBoolean scheduled;            // Hay un turno en marcha o encolado
+
+        private SerialExecutor(Executor backing) {
+            this.backing = backing;
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.scheduled = new AtomicBoolean();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                backing.execute(this::runTurn);
+            }
+        }
+
+        private void runTurn() {
+            for (int i = 0; i < TASKS_PER_TURN; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) break;
+                task.run();
+            }
+
+            scheduled.set(false);
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                backing.execute(this::runTurn);
+            }
+        }
+    }
+
+    /**
+     * Métricas de la entrega
+     * @param sessions Sesiones con colas
+     * @param pendingBytes Bytes entregados y aún sin procesar
+     * @param pausedSessions Sesiones con el lector parado
+     * @param processedMessages Mensajes procesados
+     * @param pausedReads Veces que se ha parado un lector
+     */
+    public record Stats(int sessions,
+                        long pendingBytes,
+                        int pausedSessions,
+                        long processedMessages,
+                        long pausedReads) {
+
+        @Override
+        public String toString() {
+            return String.format("%d sesiones, %d KB pendientes, %d lectores parados, %d mensajes procesados, %d pausas",
+                    sessions, pendingBytes / 1024, pausedSessions, processedMessages, pausedReads);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.chat.network.socket;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hilo con un Selector que atiende a todos los canales registrados en él.
+ * Las operaciones sobre el Selector se encolan como tareas y se ejecutan en el propio hilo.
+ */
+public class NioEventLoop implements Runnable {
+
+    /** Propiedades **/
+    private static final ThreadLocal<NioEventLoop> CURRENT = new ThreadLocal<>();
+
+    private final Selector selector;                    // Selector de los canales
+    private final Queue<Runnable> tasks;                // Tareas pendientes
+    private final Thread thread;                        // Hilo del bucle
+    private volatile boolean running;                   // Estado del bucle
+
+    /** Constructor por parámetros **/
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.running = true;
+
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Bucle principal: espera eventos, ejecuta las tareas pendientes y atiende los canales listos
+     */
+    @Override
+    public void run() {
+        CURRENT.set(this);
+
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        ((NioHandler) key.attachment()).handleReady(key);
+                    } catch (CancelledKeyException ex) {
+                        // El canal se ha cerrado mientras se atendía
+                    }
+                }
+            } catch (IOException ex) {
+                System.out.println("Error en el bucle de eventos: " + ex.getMessage());
+            } catch (RuntimeException ex) {
+                System.out.println("Error atendiendo una conexión: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Encola una tarea para ejecutarla en el hilo del bucle
+     * @param task Tarea a ejecutar
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registra un canal en el Selector del bucle
+     * @param channel Canal a registrar (no bloqueante)
+     * @param ops Operaciones de interés
+     * @param handler Receptor de los eventos del canal
+     * @param onRegistered Se llama con la clave del canal una vez registrado
+     */
+    public void register(SelectableChannel channel, int ops, NioHandler handler, Consumer<SelectionKey> onRegistered) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, ops, handler);
+                if (onRegistered != null) {
+                    onRegistered.accept(key);
+                }
+            } catch (ClosedChannelException ex) {
+                System.out.println("No se ha podido registrar el canal: está cerrado");
+            }
+        });
+    }
+
+    /** Detiene el bucle **/
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Comprueba si el hilo actual es el de este bucle
+     * @return True si se está ejecutando en el bucle
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Comprueba si el hilo actual es el de algún bucle de eventos
+     * @return True si se está ejecutando en un bucle
+     */
+    public static boolean inAnyEventLoop() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Número de canales registrados en el bucle
+     * @return Canales registrados
+     */
+    public int getChannelCount() {
+        return selector.keys().size();
+    }
+
+    /** Ejecuta las tareas pendientes **/
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                System.out.println("Error ejecutando tarea del bucle: " + ex.getMessage());
+            }
+        }
+    }
+
+}
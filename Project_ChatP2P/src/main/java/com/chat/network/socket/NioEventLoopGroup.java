@@ -0,0 +1,70 @@
+package com.chat.network.socket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.chat.utils.Constants.NIO_EVENT_LOOP_THREADS;
+
+/**
+ * Grupo fijo de bucles de eventos entre los que se reparten las conexiones NIO.
+ * El número de hilos no crece con el número de Peers conectados.
+ */
+public class NioEventLoopGroup {
+
+    /** Propiedades **/
+    private static NioEventLoopGroup instance;            // Singleton del grupo
+
+    private final NioEventLoop[] eventLoops;              // Bucles del grupo
+    private final AtomicInteger nextIndex;                // Siguiente bucle a asignar
+
+    /** Constructor privado Singleton **/
+    private NioEventLoopGroup(int threads) {
+        this.eventLoops = new NioEventLoop[threads];
+        this.nextIndex = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                eventLoops[i] = new NioEventLoop("chat-nio-" + i);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se han podido crear los bucles de eventos", ex);
+        }
+    }
+
+    /**
+     * Inicializa y devuelve el Singleton del grupo
+     * @return Singleton del grupo de bucles
+     */
+    public static synchronized NioEventLoopGroup getInstance() {
+        if (instance == null) {
+            instance = new NioEventLoopGroup(NIO_EVENT_LOOP_THREADS);
+        }
+        return instance;
+    }
+
+    /**
+     * Devuelve el siguiente bucle del grupo, repartiendo las conexiones por turnos
+     * @return Bucle de eventos
+     */
+    public NioEventLoop next() {
+        int index = Math.floorMod(nextIndex.getAndIncrement(), eventLoops.length);
+        return eventLoops[index];
+    }
+
+    /**
+     * Getters
+     */
+    public int getThreadCount() {
+        return eventLoops.length;
+    }
+
+    public int getChannelCount() {
+        int count = 0;
+        for (NioEventLoop eventLoop : eventLoops) {
+            count += eventLoop.getChannelCount();
+        }
+        return count;
+    }
+
+}
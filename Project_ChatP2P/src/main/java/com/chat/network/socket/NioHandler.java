@@ -0,0 +1,16 @@
+package com.chat.network.socket;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Receptor de los eventos de un canal registrado en un {@link NioEventLoop}
+ */
+interface NioHandler {
+
+    /**
+     * Atiende un canal que está listo para operar
+     * @param key Clave del canal en el Selector
+     */
+    void handleReady(SelectionKey key);
+
+}
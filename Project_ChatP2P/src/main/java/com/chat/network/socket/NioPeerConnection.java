@@ -0,0 +1,679 @@
+package com.chat.network.socket;
+
+import com.chat.controller.ChatManager;
+import com.chat.model.Message;
+import com.chat.model.Message.MessageType;
+import com.chat.network.codec.BinaryMessageCodec;
+import com.chat.network.codec.Varint;
+import com.chat.network.crypto.SecureHandshake;
+import com.chat.network.crypto.SessionCipher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.chat.utils.Constants.WRITE_HIGH_WATERMARK;
+import static com.chat.utils.Constants.WRITE_LOW_WATERMARK;
+
+/**
+ * Conexión Peer no bloqueante atendida por un {@link NioEventLoop}.
+ * Las tramas recibidas se decodifican en el bucle y se entregan a la {@link InboundPipeline}
+ * igual que hace {@link ClientHandler} en el modo bloqueante; si la sesión tiene demasiado
+ * pendiente, el bucle deja de leer el canal hasta que lo procese.
+ * El contenido que sigue a una trama FILE_DATA se escribe en el archivo según va llegando,
+ * sin pasar por el buffer de lectura cuando es posible.
+ * Como en {@link PeerConnection}, los trozos de archivo solo se escriben cuando no queda
+ * ninguna otra trama pendiente.
+ * Las tramas se encolan en claro y el bucle las cifra al prepararlas para escribir, en el orden de salida.
+ */
+public class NioPeerConnection extends PeerConnection implements NioHandler {
+
+    /** Propiedades **/
+    private static final int INITIAL_READ_BUFFER = 64 * 1024;
+    private static final int MAX_GATHER = 64;            // Tramas escritas como máximo en cada llamada a write
+
+    private final SocketChannel channel;                 // Canal de la conexión
+    private final NioEventLoop eventLoop;                // Bucle que atiende la conexión
+    private volatile SelectionKey key;                   // Clave del canal en el Selector
+
+    private ByteBuffer readBuffer;                       // Bytes recibidos pendientes de decodificar
+    private final Queue<OutboundBuffer> writeQueue;      // Tramas pendientes de escribir
+    private final Queue<OutboundBuffer> bulkQueue;       // Trozos de archivo pendientes, detrás de las demás tramas
+    private volatile OutboundBuffer bulkInProgress;      // Trozo de archivo a medio escribir, lo escribe solo el bucle
+    private final ByteBuffer[] gather;                   // Tramas de la siguiente escritura, solo en el bucle
+    private final AtomicLong pendingBytes;               // Bytes pendientes de escribir
+    private final AtomicBoolean flushScheduled;          // Hay una escritura encolada en el bucle
+    private final AtomicBoolean disconnected;            // Ya se ha notificado la desconexión
+    private final ReentrantLock writeLock;               // Espera de los emisores cuando hay demasiado pendiente
+    private final Condition writable;                    // Se avisa cuando la cola de escritura baja del límite
+
+    private boolean readPaused;                          // Lectura parada hasta que la sesión procese lo pendiente, solo en el bucle
+    private Message bodyHeader;                          // Trama FILE_DATA cuyo contenido se está recibiendo
+    private FileChannel bodyTarget;                      // Archivo de destino del contenido, null si se descarta
+    private long bodyPosition;                           // Posición del siguiente byte en el archivo
+    private long bodyRemaining;                          // Bytes del contenido que faltan por llegar
+
+    /** Constructor por parámetros **/
+    public NioPeerConnection(SocketChannel channel, NioEventLoop eventLoop) throws IOException {
+        super(channel.socket(), new BinaryMessageCodec(), null);
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+
+        this.readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        this.writeQueue = new ConcurrentLinkedQueue<>();
+        this.bulkQueue = new ConcurrentLinkedQueue<>();
+        this.gather = new ByteBuffer[MAX_GATHER];
+        this.pendingBytes = new AtomicLong();
+        this.flushScheduled = new AtomicBoolean();
+        this.disconnected = new AtomicBoolean();
+        this.writeLock = new ReentrantLock();
+        this.writable = writeLock.newCondition();
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Abre una conexión con otro Peer y la asigna a un bucle del grupo
+     * @param ip IP del Peer
+     * @param port Puerto del Peer
+     * @return Conexión creada, aún sin registrar
+     * @throws IOException si no se puede conectar
+     */
+    public static NioPeerConnection connect(String ip, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(ip, port));
+
+        try {
+            // El handshake se hace con el canal aún bloqueante, antes de pasarlo al bucle
+            SessionCipher cipher = SecureHandshake.isEnabled()
+                    ? SecureHandshake.initiate(channel.socket(), ip + ":" + port)
+                    : null;
+
+            NioPeerConnection connection = new NioPeerConnection(channel, NioEventLoopGroup.getInstance().next());
+            if (cipher != null) {
+                connection.startEncryption(cipher);
+            }
+            return connection;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Registra la conexión en su bucle para empezar a recibir mensajes
+     */
+    public void start() {
+        eventLoop.register(channel, SelectionKey.OP_READ, this, registeredKey -> {
+            key = registeredKey;
+            flush();
+        });
+
+        HeartbeatMonitor.getInstance().register(this);
+    }
+
+    /**
+     * Encola un mensaje para enviarlo desde el bucle.
+     * Si hay demasiados bytes pendientes espera a que se vacíe la cola,
+     * salvo que se llame desde un bucle de eventos
+     * @param message Mensaje a enviar
+     */
+    @Override
+    public void sendMessage(Message message) throws IOException {
+        CompletableFuture<Void> written = send(message);
+
+        if (!NioEventLoop.inAnyEventLoop()) {
+            awaitWritable();
+        }
+
+        if (written.isCompletedExceptionally()) {
+            await(written);
+        }
+    }
+
+    /**
+     * Encola un mensaje para enviarlo desde el bucle sin bloquear al llamante
+     * @param message Mensaje a enviar
+     * @return Se completa cuando la trama se ha escrito en el canal, o falla con IOException
+     */
+    @Override
+    public CompletableFuture<Void> send(Message message) {
+        return enqueue(message, null, false);
+    }
+
+    /**
+     * Encola una trama FILE_DATA seguida del trozo de archivo que anuncia
+     * @param header Trama FILE_DATA
+     * @param region Trozo del archivo, que debe seguir abierto hasta que se complete el envío
+     * @return Se completa cuando el trozo se ha escrito en el canal, o falla con IOException
+     */
+    @Override
+    public CompletableFuture<Void> sendFileData(Message header, FileRegion region) {
+        return enqueue(header, region, false);
+    }
+
+    @Override
+    protected void sendHandshake(Message reply) {
+        enqueue(reply, null, true);
+    }
+
+    @Override
+    public boolean supportsFileRegions() {
+        return !isEncrypted();
+    }
+
+    /**
+     * Encola una trama para escribirla desde el bucle
+     * @param message Mensaje a enviar
+     * @param region Trozo de archivo que va detrás de la trama, o null
+     * @param handshake Respuesta al handshake, tras la que se empieza a cifrar
+     * @return Se completa cuando se ha escrito
+     */
+    private CompletableFuture<Void> enqueue(Message message, FileRegion region, boolean handshake) {
+        if (!isConnected()) {
+            throw new IllegalStateException("La conexión no está activa");
+        }
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+
+        byte[] frame;
+        try {
+            frame = encodeFrame(message);
+        } catch (IOException ex) {
+            written.completeExceptionally(ex);
+            return written;
+        }
+
+        (isBulk(message) ? bulkQueue : writeQueue).add(new OutboundBuffer(frame, region, handshake, written));
+        pendingBytes.addAndGet(frame.length + (region != null ? region.count() : 0));
+
+        if (eventLoop.inEventLoop()) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+
+        return written;
+    }
+
+    /**
+     * Atiende el canal cuando está listo para leer o escribir
+     * @param key Clave del canal en el Selector
+     */
+    @Override
+    public void handleReady(SelectionKey key) {
+        if (key.isValid() && key.isReadable()) {
+            read();
+        }
+
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    /**
+     * Lee del canal y entrega todas las tramas completas
+     */
+    private void read() {
+        if (readPaused) return;
+
+        try {
+            // Si se está recibiendo un archivo, el buffer está vacío y el contenido va directo al disco
+            if (bodyRemaining > 0 && bodyTarget != null) {
+                long transferred = bodyTarget.transferFrom(channel, bodyPosition, bodyRemaining);
+                if (transferred > 0) {
+                    markReceived();
+                    bodyPosition += transferred;
+                    bodyRemaining -= transferred;
+
+                    if (bodyRemaining == 0) {
+                        finishBody();
+                    }
+                    return;
+                }
+            }
+
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                handleDisconnection();
+                return;
+            }
+
+            if (read > 0) {
+                markReceived();
+            }
+
+            readBuffer.flip();
+
+            while (!readPaused) {
+                if (bodyRemaining > 0 && !consumeBody()) break;
+
+                int frameStart = readBuffer.position();
+                long length = Varint.read(readBuffer);
+                if (length < 0) break;
+
+                checkFrameLength(length);
+
+                if (readBuffer.remaining() < length) {
+                    readBuffer.position(frameStart);
+                    ensureReadCapacity(Varint.size(length) + (int) length);
+                    break;
+                }
+
+                int offset = readBuffer.arrayOffset() + readBuffer.position();
+                Message message = decodeFrame(readBuffer.array(), offset, (int) length);
+                readBuffer.position(readBuffer.position() + (int) length);
+
+                if (message.getType() == MessageType.FILE_DATA) {
+                    startBody(message);
+                    continue;
+                }
+
+                if (!handleControlMessage(message)) {
+                    dispatch(message);
+                }
+            }
+
+            readBuffer.compact();
+
+            if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_READ_BUFFER) {
+                readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+            }
+        } catch (IOException ex) {
+            handleDisconnection();
+        }
+    }
+
+    /**
+     * Empieza a recibir el contenido que sigue a una trama FILE_DATA
+     * @param header Trama FILE_DATA recibida
+     */
+    private void startBody(Message header) {
+        bodyHeader = header;
+        bodyPosition = ((Number) header.getFileData().get("offset")).longValue();
+        bodyRemaining = ((Number) header.getFileData().get("length")).longValue();
+        bodyTarget = ChatManager.getInstance().openFileData(getPeerId(), header);
+
+        if (bodyRemaining == 0) {
+            finishBody();
+        }
+    }
+
+    /**
+     * Escribe en el archivo la parte del contenido que ya está en el buffer de lectura
+     * @return True si el contenido se ha completado y se pueden seguir leyendo tramas
+     * @throws IOException si falla la escritura
+     */
+    private boolean consumeBody() throws IOException {
+        int count = (int) Math.min(bodyRemaining, readBuffer.remaining());
+
+        if (bodyTarget != null) {
+            ByteBuffer slice = readBuffer.slice(readBuffer.position(), count);
+            while (slice.hasRemaining()) {
+                bodyPosition += bodyTarget.write(slice, bodyPosition);
+            }
+        }
+
+        readBuffer.position(readBuffer.position() + count);
+        bodyRemaining -= count;
+
+        if (bodyRemaining > 0) return false;
+
+        finishBody();
+        return true;
+    }
+
+    /**
+     * Termina la recepción de un contenido y entrega su trama FILE_DATA, salvo que se haya descartado
+     */
+    private void finishBody() {
+        Message header = bodyHeader;
+        boolean kept = bodyTarget != null;
+
+        bodyHeader = null;
+        bodyTarget = null;
+        bodyRemaining = 0;
+
+        if (kept) {
+            dispatch(header);
+        }
+    }
+
+    /**
+     * Amplía el buffer de lectura si una trama no cabe en él
+     * @param frameSize Tamaño de la trama completa con su longitud
+     */
+    private void ensureReadCapacity(int frameSize) {
+        if (frameSize <= readBuffer.capacity()) return;
+
+        ByteBuffer larger = ByteBuffer.allocate(frameSize);
+        larger.put(readBuffer);
+        larger.flip();
+        readBuffer = larger;
+    }
+
+    /**
+     * Entrega un mensaje a la cola de su sesión. Si la sesión tiene demasiado pendiente
+     * se deja de leer el canal hasta que lo procese
+     * @param message Mensaje recibido
+     */
+    private void dispatch(Message message) {
+        if (!InboundPipeline.getInstance().dispatch(this, message) || readPaused) return;
+
+        readPaused = true;
+        updateInterest(false, key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0);
+        InboundPipeline.getInstance().whenDrained(getPeerId(), () -> eventLoop.execute(this::resumeReading));
+    }
+
+    /**
+     * Vuelve a leer el canal y procesa las tramas que se quedaron en el buffer al parar
+     */
+    private void resumeReading() {
+        if (!readPaused || disconnected.get()) return;
+
+        readPaused = false;
+        SelectionKey selectionKey = key;
+        updateInterest(true, selectionKey != null && selectionKey.isValid()
+                && (selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0);
+        read();
+    }
+
+    /**
+     * Escribe en el canal todas las tramas pendientes que acepte sin bloquear.
+     * Las tramas se juntan en una sola escritura de varios buffers. Un trozo de archivo
+     * empezado se termina antes que nada, y el siguiente solo empieza si no hay otras tramas
+     */
+    private void flush() {
+        try {
+            while (true) {
+                if (bulkInProgress != null) {
+                    if (!writeBulk(bulkInProgress)) {
+                        setWriteInterest(true);
+                        return;
+                    }
+
+                    OutboundBuffer done = bulkInProgress;
+                    bulkInProgress = null;
+                    long bytes = done.region() != null ? done.region().count() : done.buffer.capacity();
+                    recordFileWrite(bytes, System.nanoTime() - done.startNanos);
+                    done.written().complete(null);
+                    continue;
+                }
+
+                if (!writeQueue.isEmpty()) {
+                    if (!writeGathered()) {
+                        setWriteInterest(true);
+                        return;
+                    }
+                    continue;
+                }
+
+                bulkInProgress = bulkQueue.poll();
+                if (bulkInProgress == null) break;
+                bulkInProgress.startNanos = System.nanoTime();
+            }
+
+            setWriteInterest(false);
+        } catch (IOException ex) {
+            handleDisconnection();
+        } finally {
+            if (pendingBytes.get() <= WRITE_LOW_WATERMARK) {
+                signalWritable();
+            }
+        }
+    }
+
+    /**
+     * Escribe de una vez todas las tramas de la cola principal que acepte el canal
+     * @return True si se han escrito enteras
+     * @throws IOException si falla la escritura
+     */
+    private boolean writeGathered() throws IOException {
+        int count = 0;
+        for (OutboundBuffer pending : writeQueue) {
+            gather[count++] = prepare(pending);
+            if (count == gather.length) break;
+        }
+
+        long written = channel.write(gather, 0, count);
+        pendingBytes.addAndGet(-written);
+        boolean partial = gather[count - 1].hasRemaining();
+        Arrays.fill(gather, 0, count, null);
+
+        OutboundBuffer head;
+        while ((head = writeQueue.peek()) != null && head.buffer != null && !head.buffer.hasRemaining()) {
+            writeQueue.poll();
+            head.written().complete(null);
+        }
+
+        return !partial;
+    }
+
+    /**
+     * Construye los bytes de una trama con su longitud la primera vez que va a escribirse,
+     * cifrándola si la conexión ya cifra. Solo en el bucle y en el orden de salida de las tramas
+     * @param pending Trama pendiente
+     * @return Bytes a escribir
+     * @throws IOException si no se puede cifrar
+     */
+    private ByteBuffer prepare(OutboundBuffer pending) throws IOException {
+        if (pending.buffer != null) return pending.buffer;
+
+        // La trama cifrada se escribe directamente detrás de su longitud, sin array intermedio
+        byte[] frame = pending.frame;
+        boolean sealed = isSealed(pending.handshake);
+        int length = sealed ? frame.length + SessionCipher.TAG_SIZE : frame.length;
+        ByteBuffer buffer = ByteBuffer.allocate(Varint.size(length) + length);
+        int offset = Varint.write(buffer.array(), 0, length);
+        if (sealed) {
+            sealFrame(frame, buffer.array(), offset);
+        } else {
+            System.arraycopy(frame, 0, buffer.array(), offset, frame.length);
+        }
+
+        pendingBytes.addAndGet(buffer.remaining() - pending.frame.length);
+        pending.buffer = buffer;
+        pending.frame = null;
+        return buffer;
+    }
+
+    /**
+     * Escribe lo que admita el canal de un trozo de archivo: primero su trama y después el contenido
+     * @param pending Trozo que se está enviando
+     * @return True si se ha escrito entero
+     * @throws IOException si falla la escritura
+     */
+    private boolean writeBulk(OutboundBuffer pending) throws IOException {
+        ByteBuffer buffer = prepare(pending);
+        while (buffer.hasRemaining()) {
+            int written = channel.write(buffer);
+            if (written <= 0) return false;
+            pendingBytes.addAndGet(-written);
+        }
+
+        return pending.region() == null || writeRegion(pending);
+    }
+
+    /**
+     * Escribe en el canal todo lo que admita del trozo de archivo de una trama
+     * @param pending Trama cuyo trozo de archivo se está enviando
+     * @return True si el trozo se ha escrito entero
+     * @throws IOException si falla la escritura o el archivo es más corto de lo anunciado
+     */
+    private boolean writeRegion(OutboundBuffer pending) throws IOException {
+        FileRegion region = pending.region();
+
+        while (pending.transferred < region.count()) {
+            long position = region.position() + pending.transferred;
+            long transferred = region.file().transferTo(position, region.count() - pending.transferred, channel);
+
+            if (transferred <= 0) {
+                if (position >= region.file().size()) {
+                    throw new IOException("El archivo ha cambiado durante el envío");
+                }
+                return false;
+            }
+
+            pending.transferred += transferred;
+            pendingBytes.addAndGet(-transferred);
+        }
+
+        return true;
+    }
+
+    /**
+     * Activa o desactiva el interés de escritura del canal
+     * @param enabled True para recibir aviso cuando el canal admita más bytes
+     */
+    private void setWriteInterest(boolean enabled) {
+        updateInterest(!readPaused, enabled);
+    }
+
+    /**
+     * Actualiza los intereses del canal en el Selector
+     * @param read True para recibir aviso cuando haya bytes que leer
+     * @param write True para recibir aviso cuando el canal admita más bytes
+     */
+    private void updateInterest(boolean read, boolean write) {
+        SelectionKey selectionKey = key;
+        if (selectionKey == null || !selectionKey.isValid()) return;
+
+        int ops = (read ? SelectionKey.OP_READ : 0) | (write ? SelectionKey.OP_WRITE : 0);
+
+        if (selectionKey.interestOps() != ops) {
+            selectionKey.interestOps(ops);
+        }
+    }
+
+    /**
+     * Espera a que la cola de escritura baje del límite.
+     * Los emisores suelen ser hilos virtuales: con un lock en lugar de synchronized la espera
+     * libera el hilo del sistema que los ejecuta en vez de bloquearlo
+     * @throws IOException si se interrumpe la espera
+     */
+    private void awaitWritable() throws IOException {
+        if (pendingBytes.get() <= WRITE_HIGH_WATERMARK) return;
+
+        writeLock.lock();
+        try {
+            while (pendingBytes.get() > WRITE_LOW_WATERMARK && isConnected()) {
+                writable.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Envío interrumpido");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Despierta a los emisores que esperan a que baje la cola de escritura
+     */
+    private void signalWritable() {
+        writeLock.lock();
+        try {
+            writable.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la conexión porque el Peer ha dejado de responder.
+     * Al cancelar la clave el bucle ya no la atiende, así que se avisa desde aquí
+     */
+    @Override
+    void expire() {
+        eventLoop.execute(this::handleDisconnection);
+    }
+
+    /**
+     * Gestiona una desconexión cerrándola y avisando al controlador de chat, una sola vez
+     */
+    private void handleDisconnection() {
+        if (!disconnected.compareAndSet(false, true)) return;
+
+        close();
+        InboundPipeline.getInstance().disconnect(this);
+    }
+
+    /**
+     * Cierra la conexión y despierta a los emisores en espera
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        SelectionKey selectionKey = key;
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+
+        IOException closed = new IOException("La conexión se ha cerrado");
+        OutboundBuffer pending;
+        while ((pending = writeQueue.poll()) != null) {
+            pending.written().completeExceptionally(closed);
+        }
+        while ((pending = bulkQueue.poll()) != null) {
+            pending.written().completeExceptionally(closed);
+        }
+        if ((pending = bulkInProgress) != null) {
+            pending.written().completeExceptionally(closed);
+        }
+        pendingBytes.set(0);
+        signalWritable();
+    }
+
+    /**
+     * Getter
+     */
+    public NioEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /** Trama pendiente de escribir **/
+    private static final class OutboundBuffer {
+
+        private byte[] frame;                            // Trama en claro, hasta que se prepara
+        private ByteBuffer buffer;                       // Bytes a escribir con su longitud, solo en el bucle
+        private final FileRegion region;                 // Trozo de archivo que va detrás de la trama, o null
+        private final boolean handshake;                 // Respuesta al handshake, tras la que se empieza a cifrar
+        private final CompletableFuture<Void> written;   // Se completa al escribirla
+        private long transferred;                        // Bytes del trozo ya escritos, solo en el bucle
+        private long startNanos;                         // Momento en que empezó a escribirse, solo en el bucle
+
+        private OutboundBuffer(byte[] frame, FileRegion region, boolean handshake, CompletableFuture<Void> written) {
+            this.frame = frame;
+            this.region = region;
+            this.handshake = handshake;
+            this.written = written;
+        }
+
+        private FileRegion region() {
+            return region;
+        }
+
+        private CompletableFuture<Void> written() {
+            return written;
+        }
+    }
+
+}
@@ -1,72 +1,531 @@
 package com.chat.network.socket;
 
 import com.chat.model.Message;
+import com.chat.model.Message.MessageType;
+import com.chat.network.codec.FrameCompressor.CompressionStats;
+import com.chat.network.codec.MessageCodec;
+import com.chat.network.codec.Varint;
+import com.chat.network.crypto.SecureHandshake;
+import com.chat.network.crypto.SessionCipher;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class PeerConnection {
+import static com.chat.utils.Constants.MAX_FRAME_SIZE;
+import static com.chat.utils.Constants.SEND_TIMEOUT_MILLIS;
+import static com.chat.utils.Constants.WRITE_BATCH_SIZE;
+
+/**
+ * Conexión con otro Peer.
+ * Los envíos se encolan y los escribe un único escritor por conexión, de modo que las tramas
+ * de distintos hilos nunca se mezclan. El escritor vacía la cola de una vez: varias tramas
+ * pequeñas acaban en una sola escritura al socket y un solo flush.
+ *
+ * El contenido de los archivos viaja detrás de una trama FILE_DATA sin pasar por el codec:
+ * se envía con transferTo desde el archivo y se recibe con transferFrom hacia el archivo.
+ *
+ * Los trozos de archivo (FILE_CHUNK y FILE_DATA) van en una cola aparte que solo se atiende
+ * cuando no queda ninguna otra trama, de modo que un mensaje de texto espera como mucho
+ * a que termine el trozo que se está escribiendo.
+ *
+ * Si la conexión está cifrada, el escritor cifra cada trama justo antes de escribirla, en el orden
+ * en que salen, y el lector la descifra antes de decodificarla. Ambos lo hacen sobre buffers que
+ * se reutilizan entre tramas. El contenido de los archivos no puede ir en bruto y se envía como FILE_CHUNK.
+ *
+ * La lectura depende del modo de transporte: {@link BlockingPeerConnection} la hace desde un hilo
+ * por conexión ({@link ClientHandler}) y {@link NioPeerConnection} desde su bucle de eventos.
+ */
+public abstract class PeerConnection {
 
     /** Propiedades **/
+    private static final int REUSABLE_BUFFER_SIZE = 256 * 1024;  // Buffers de trama que se guardan para las siguientes
+
     private final Socket socket;                   // Socket de la conexión
-    private final ObjectInputStream input;         // Entrada de la conexión
-    private final ObjectOutputStream output;       // Salida de la conexión
+    private final OutputStream output;             // Salida de la conexión
+    private final MessageCodec codec;              // Codec de los mensajes
+    private final Queue<OutboundFrame> writeQueue; // Tramas pendientes de escribir
+    private final Queue<OutboundFrame> bulkQueue;  // Trozos de archivo pendientes, detrás de las demás tramas
+    private final AtomicBoolean writerScheduled;   // Hay un escritor vaciando la cola
+    private WritableByteChannel bodyOutput;        // Salida del contenido de los archivos, solo en el escritor
+    private volatile SessionCipher cipher;         // Cifrado de la conexión, null si va en claro
+    private boolean sealing;                       // El escritor ya cifra las tramas, solo en el escritor
+    private byte[] sealBuffer;                     // Tramas cifradas, solo en el escritor
+    private byte[] openBuffer;                     // Tramas descifradas, solo en el lector
     private final String peerId;                   // Id de la conexión
-    private boolean connected;                     // Estado de la conexión
+    private volatile boolean connected;            // Estado de la conexión
+    private volatile long lastReceivedMillis;      // Momento en que se recibió algo por última vez
+    private volatile long roundTripNanos;          // Último tiempo de ida y vuelta medido con PING, -1 si no hay
+    private volatile double fileBytesPerSecond;    // Media del ritmo de escritura de los trozos de archivo, 0 si no hay
 
-    /** Constructor por parámetros **/
-    public PeerConnection(Socket socket) throws IOException {
+    /**
+     * Constructor de las subclases, que deciden cómo se lee de la conexión
+     * @param socket Socket de la conexión
+     * @param codec Codec de los mensajes
+     * @param output Salida de la conexión, null si no se escribe con streams bloqueantes
+     */
+    protected PeerConnection(Socket socket, MessageCodec codec, OutputStream output) {
         this.socket = socket;
         this.peerId = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        this.codec = codec;
+        this.output = output;
+        this.writeQueue = new ConcurrentLinkedQueue<>();
+        this.bulkQueue = new ConcurrentLinkedQueue<>();
+        this.writerScheduled = new AtomicBoolean();
+        this.connected = true;
+        this.lastReceivedMillis = System.currentTimeMillis();
+        this.roundTripNanos = -1;
+    }
 
+    /**
+     * Envia un mensaje a una conexión y espera a que se haya escrito.
+     * Cada mensaje viaja como una trama: longitud en varint seguida de los bytes del codec
+     * @param message Mensaje a enviar
+     */
+    public void sendMessage(Message message) throws IOException {
         try {
-            this.output = new ObjectOutputStream(socket.getOutputStream());
-            this.output.flush();
-
-            this.input = new ObjectInputStream(socket.getInputStream());
-
-            this.connected = true;
-        } catch(IOException ex) {
+            await(send(message));
+        } catch (SocketTimeoutException ex) {
+            // El escritor está atascado en un socket que no avanza: al cerrarlo falla y suelta la cola
+            expire();
             throw ex;
         }
     }
 
     /**
-     * Envia un mensaje a una conexión
+     * Encola un mensaje para enviarlo sin bloquear al llamante
      * @param message Mensaje a enviar
+     * @return Se completa cuando la trama se ha escrito en el socket, o falla con IOException
      */
-    public void sendMessage(Message message) throws IOException {
+    public CompletableFuture<Void> send(Message message) {
+        return enqueue(message, null, false);
+    }
+
+    /**
+     * Encola una trama FILE_DATA seguida del trozo de archivo que anuncia
+     * @param header Trama FILE_DATA
+     * @param region Trozo del archivo, que debe seguir abierto hasta que se complete el envío
+     * @return Se completa cuando el trozo se ha escrito en el socket, o falla con IOException
+     */
+    public CompletableFuture<Void> sendFileData(Message header, FileRegion region) {
+        return enqueue(header, region, false);
+    }
+
+    /**
+     * Indica si el contenido de los archivos puede ir directamente del disco al socket
+     * @return True si el socket tiene canal
+     */
+    public boolean supportsFileRegions() {
+        return socket.getChannel() != null && !isEncrypted();
+    }
+
+    /**
+     * Cifra la conexión desde la primera trama. Lo llama quien conecta tras el handshake,
+     * antes de empezar a leer y escribir
+     * @param cipher Cifrado acordado en el handshake
+     */
+    public void startEncryption(SessionCipher cipher) {
+        this.cipher = cipher;
+        this.sealing = true;
+    }
+
+    /**
+     * Encola la respuesta al handshake. Va en claro y todas las tramas que se escriban detrás van cifradas
+     * @param reply Respuesta HANDSHAKE
+     */
+    protected void sendHandshake(Message reply) {
+        enqueue(reply, null, true);
+    }
+
+    /**
+     * Encola una trama para el escritor de la conexión
+     * @param message Mensaje a enviar
+     * @param region Trozo de archivo que va detrás de la trama, o null
+     * @param handshake Respuesta al handshake, tras la que se empieza a cifrar
+     * @return Se completa cuando se ha escrito
+     */
+    private CompletableFuture<Void> enqueue(Message message, FileRegion region, boolean handshake) {
         if (!connected) {
             throw new IllegalStateException("La conexión no está activa");
         }
 
+        CompletableFuture<Void> written = new CompletableFuture<>();
+
         try {
-            output.writeObject(message);
-            output.flush();
+            boolean bulk = isBulk(message);
+            OutboundFrame frame = new OutboundFrame(encodeFrame(message), region, bulk, handshake, written);
+            (bulk ? bulkQueue : writeQueue).add(frame);
         } catch (IOException ex) {
-            connected = false;
-            throw ex;
+            written.completeExceptionally(ex);
+            return written;
         }
+
+        if (writerScheduled.compareAndSet(false, true)) {
+            ConnectionExecutor.getInstance().execute(this::drainWriteQueue);
+        }
+
+        return written;
     }
 
     /**
-     * Recibe un mensaje de una conexión
-     * @return El mensaje recibido
+     * Indica si una trama lleva contenido de un archivo y debe ceder el paso a las demás
+     * @param message Mensaje a enviar
+     * @return True para FILE_CHUNK y FILE_DATA
      */
-    public Message receiveMessage() throws IOException, ClassNotFoundException {
-        if (!connected) {
-            throw new IllegalStateException("La conexión no está activa");
+    protected static boolean isBulk(Message message) {
+        return message.getType() == MessageType.FILE_CHUNK || message.getType() == MessageType.FILE_DATA;
+    }
+
+    /**
+     * Escritor de la conexión: escribe todas las tramas encoladas y hace flush
+     * cuando la cola se vacía o el lote alcanza su tamaño máximo.
+     * Antes de cada trozo de archivo se vuelve a mirar la cola de las demás tramas
+     */
+    private void drainWriteQueue() {
+        List<CompletableFuture<Void>> batch = new ArrayList<>();
+        int batchBytes = 0;
+
+        do {
+            try {
+                OutboundFrame frame;
+                while ((frame = nextFrame()) != null) {
+                    // En el lote desde que sale de la cola, para que un fallo al escribirla también la complete
+                    batch.add(frame.written());
+
+                    long start = System.nanoTime();
+                    byte[] data = frame.data();
+                    int length = data.length;
+                    if (isSealed(frame.handshake())) {
+                        data = reuse(sealBuffer, length + SessionCipher.TAG_SIZE);
+                        sealBuffer = keep(data);
+                        length = sealFrame(frame.data(), data, 0);
+                    }
+
+                    Varint.write(output, length);
+                    output.write(data, 0, length);
+                    batchBytes += length;
+
+                    if (frame.region() != null) {
+                        output.flush();
+                        writeRegion(frame.region());
+                        recordFileWrite(frame.region().count(), System.nanoTime() - start);
+                        completeAll(batch, null);
+                        batchBytes = 0;
+                        continue;
+                    }
+
+                    // Un fragmento de archivo se escribe solo para medir el ritmo de la conexión
+                    if (frame.bulk()) {
+                        output.flush();
+                        recordFileWrite(length, System.nanoTime() - start);
+                        completeAll(batch, null);
+                        batchBytes = 0;
+                        continue;
+                    }
+
+                    if (batchBytes >= WRITE_BATCH_SIZE) {
+                        output.flush();
+                        completeAll(batch, null);
+                        batchBytes = 0;
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    output.flush();
+                    completeAll(batch, null);
+                    batchBytes = 0;
+                }
+            } catch (IOException ex) {
+                // Se cierra el socket para que el lector salga de su lectura y avise de la desconexión
+                completeAll(batch, ex);
+                expire();
+            }
+
+            writerScheduled.set(false);
+        } while ((!writeQueue.isEmpty() || !bulkQueue.isEmpty()) && writerScheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Indica si la siguiente trama se escribe cifrada. Debe llamarse en el escritor una vez por trama
+     * y en el orden en que se escriben
+     * @param handshake Respuesta al handshake: va en claro y las siguientes se cifran
+     * @return True si hay que cifrarla con {@link #sealFrame}
+     */
+    protected boolean isSealed(boolean handshake) {
+        if (handshake) {
+            sealing = true;
+            return false;
+        }
+
+        return sealing;
+    }
+
+    /**
+     * Cifra una trama. Debe llamarse en el escritor y en el orden en que se escriben las tramas,
+     * porque el nonce es el número de trama
+     * @param frame Trama en claro
+     * @param out Destino, con {@link SessionCipher#TAG_SIZE} bytes más que la trama desde offset
+     * @param offset Posición de destino
+     * @return Longitud de la trama cifrada
+     * @throws IOException si no se puede cifrar
+     */
+    protected int sealFrame(byte[] frame, byte[] out, int offset) throws IOException {
+        return cipher.seal(frame, out, offset);
+    }
+
+    /**
+     * Devuelve un buffer de al menos size bytes: el que se pasa si cabe o uno nuevo
+     */
+    protected static byte[] reuse(byte[] buffer, int size) {
+        return buffer != null && buffer.length >= size ? buffer : new byte[size];
+    }
+
+    /**
+     * Decide si un buffer se guarda para las siguientes tramas: los grandes no, para no retenerlos
+     */
+    protected static byte[] keep(byte[] buffer) {
+        return buffer.length <= REUSABLE_BUFFER_SIZE ? buffer : null;
+    }
+
+    /**
+     * Siguiente trama a escribir: las demás tramas antes que los trozos de archivo
+     * @return Trama, o null si no queda ninguna
+     */
+    private OutboundFrame nextFrame() {
+        OutboundFrame frame = writeQueue.poll();
+        return frame != null ? frame : bulkQueue.poll();
+    }
+
+    /**
+     * Escribe un trozo de archivo directamente en el socket
+     * @param region Trozo del archivo
+     * @throws IOException si falla la escritura o el archivo es más corto de lo anunciado
+     */
+    private void writeRegion(FileRegion region) throws IOException {
+        if (bodyOutput == null) {
+            bodyOutput = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(output);
+        }
+
+        long position = region.position();
+        long end = region.position() + region.count();
+
+        while (position < end) {
+            long transferred = region.file().transferTo(position, end - position, bodyOutput);
+            if (transferred <= 0 && position >= region.file().size()) {
+                throw new IOException("El archivo ha cambiado durante el envío");
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Completa las esperas de un lote de tramas y lo vacía
+     * @param batch Esperas de las tramas
+     * @param error Error de escritura, o null si se han escrito
+     */
+    private static void completeAll(List<CompletableFuture<Void>> batch, IOException error) {
+        for (CompletableFuture<Void> written : batch) {
+            if (error == null) {
+                written.complete(null);
+            } else {
+                written.completeExceptionally(error);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Hace fallar todas las tramas que quedan en la cola
+     * @param error Motivo del fallo
+     */
+    private void failPending(IOException error) {
+        OutboundFrame frame;
+        while ((frame = nextFrame()) != null) {
+            frame.written().completeExceptionally(error);
         }
-        
+    }
+
+    /**
+     * Registra lo que ha tardado en escribirse un trozo de archivo, para estimar
+     * cuánto puede retrasar un trozo a los mensajes de texto
+     * @param bytes Bytes del trozo
+     * @param nanos Tiempo de escritura
+     */
+    protected void recordFileWrite(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) return;
+
+        double rate = bytes * 1_000_000_000.0 / nanos;
+        double previous = fileBytesPerSecond;
+        fileBytesPerSecond = previous == 0 ? rate : previous * 0.8 + rate * 0.2;
+    }
+
+    /**
+     * Espera a que una trama se haya escrito, como mucho {@link com.chat.utils.Constants#SEND_TIMEOUT_MILLIS}
+     * @param written Espera devuelta por {@link #send}
+     * @throws SocketTimeoutException si la trama no se ha escrito a tiempo
+     * @throws IOException si la escritura falla o se interrumpe la espera
+     */
+    public static void await(CompletableFuture<Void> written) throws IOException {
         try {
-            Message message = (Message) input.readObject();
-            
-            return message;
-        } catch (IOException | ClassNotFoundException ex) {
-            connected = false;
-            throw ex;
+            written.get(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            throw new SocketTimeoutException("La trama no se ha escrito en " + SEND_TIMEOUT_MILLIS + " ms");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Envío interrumpido");
+        } catch (ExecutionException | CompletionException | CancellationException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Atiende los mensajes de control de la conexión (PING, PONG y HANDSHAKE), que no llegan al ChatManager.
+     * Cualquier mensaje recibido cuenta como señal de que el Peer sigue vivo
+     * @param message Mensaje recibido
+     * @return True si era un mensaje de control y ya está atendido
+     */
+    boolean handleControlMessage(Message message) {
+        markReceived();
+
+        switch (message.getType()) {
+            case PING:
+                try {
+                    send(Message.createPongMessage(message));
+                } catch (IllegalStateException ex) {
+                    // La conexión se ha cerrado mientras tanto
+                }
+                return true;
+            case PONG:
+                try {
+                    roundTripNanos = System.nanoTime() - Long.parseLong(message.getContent());
+                } catch (NumberFormatException ex) {
+                    System.out.println("PONG no válido de " + peerId);
+                }
+                return true;
+            case HANDSHAKE:
+                handleHandshake(message);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Atiende el handshake de un Peer que ha conectado pidiendo cifrado.
+     * Se llama desde el lector, así que la trama siguiente ya se descifra
+     * @param hello Mensaje HANDSHAKE recibido
+     */
+    private void handleHandshake(Message hello) {
+        if (cipher != null) {
+            System.out.println("Handshake repetido de " + peerId);
+            expire();
+            return;
+        }
+
+        try {
+            SecureHandshake.Accepted accepted = SecureHandshake.accept(hello);
+            cipher = accepted.cipher();
+            sendHandshake(accepted.reply());
+            System.out.println("Conexión cifrada con " + peerId + (accepted.cipher().isResumed() ? " (sesión reanudada)" : ""));
+        } catch (IOException ex) {
+            System.out.println("Error en el handshake con " + peerId + ": " + ex.getMessage());
+            expire();
+        } catch (IllegalStateException ex) {
+            // La conexión se ha cerrado mientras tanto
+        }
+    }
+
+    /** Marca la conexión como caída tras un error de lectura; la cierra quien la atiende **/
+    protected void markDisconnected() {
+        connected = false;
+    }
+
+    /** Registra que se ha recibido algo del Peer **/
+    void markReceived() {
+        lastReceivedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Cierra una conexión cuyo Peer ha dejado de responder.
+     * Al cerrar el socket, el hilo que lee de la conexión avisa de la desconexión
+     */
+    void expire() {
+        close();
+    }
+
+    /**
+     * Codifica un mensaje en el cuerpo de una trama
+     * @param message Mensaje a codificar
+     * @return Bytes de la trama, sin la longitud
+     * @throws IOException si no se puede codificar o es demasiado grande
+     */
+    protected byte[] encodeFrame(Message message) throws IOException {
+        byte[] frame = codec.encode(message);
+        if (frame.length > MAX_FRAME_SIZE) {
+            throw new IOException("El mensaje supera el tamaño máximo de trama: " + frame.length);
+        }
+
+        return frame;
+    }
+
+    /**
+     * Decodifica el cuerpo de una trama
+     * @param frame Bytes recibidos
+     * @param offset Posición inicial de la trama
+     * @param length Longitud de la trama
+     * @return Mensaje recibido
+     * @throws IOException si la trama no es válida
+     */
+    protected Message decodeFrame(byte[] frame, int offset, int length) throws IOException {
+        SessionCipher session = cipher;
+        if (session != null) {
+            byte[] opened = reuse(openBuffer, length);
+            openBuffer = keep(opened);
+            length = session.open(frame, offset, length, opened);
+            frame = opened;
+            offset = 0;
+        }
+
+        // Una trama mal formada no debe escapar como RuntimeException del lector
+        Message message;
+        try {
+            message = codec.decode(frame, offset, length);
+        } catch (RuntimeException ex) {
+            throw new IOException("Trama no válida: " + ex, ex);
+        }
+
+        // Sin cifrado aún, la primera trama de un Peer que conecta debe ser su HANDSHAKE si se exige cifrado
+        if (session == null && message.getType() != MessageType.HANDSHAKE && SecureHandshake.isRequired()) {
+            throw new IOException("Conexión en claro rechazada: se exige cifrado");
+        }
+
+        return message;
+    }
+
+    /**
+     * Comprueba que la longitud anunciada de una trama es válida
+     * @param length Longitud leída
+     * @throws IOException si no es válida
+     */
+    protected void checkFrameLength(long length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Longitud de trama no válida: " + length);
         }
     }
 
@@ -75,14 +534,20 @@ public class PeerConnection {
      */
     public void close() {
         connected = false;
+        HeartbeatMonitor.getInstance().unregister(this);
+        failPending(new IOException("La conexión se ha cerrado"));
 
+        // El socket se cierra primero: cerrar la salida puede fallar al vaciar lo que queda por escribir
         try {
-            if (output != null) output.close();
-            if (input != null) input.close();
             if (socket != null) socket.close();
         } catch (IOException ex) {
             System.out.println("Error cerrando la conexión: " + ex.getMessage());
+        }
 
+        try {
+            if (output != null) output.close();
+        } catch (IOException ignored) {
+            // El socket ya está cerrado
         }
     }
 
@@ -107,6 +572,73 @@ public class PeerConnection {
         return peerId;
     }
 
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public long getLastReceivedMillis() {
+        return lastReceivedMillis;
+    }
+
+    /**
+     * Último tiempo de ida y vuelta medido con PING
+     * @return Milisegundos, o -1 si aún no se ha medido
+     */
+    public double getRoundTripMillis() {
+        long rtt = roundTripNanos;
+        return rtt < 0 ? -1 : rtt / 1_000_000.0;
+    }
+
+    /**
+     * Indica si la conexión está cifrada
+     */
+    public boolean isEncrypted() {
+        return cipher != null;
+    }
+
+    /**
+     * Activa la compresión de las tramas que se envían. Se llama cuando el Peer anuncia
+     * en USER_INFO o RESUME que sabe descomprimirlas
+     * @return True si el codec de la conexión comprime
+     */
+    public boolean enableCompression() {
+        return codec.enableCompression();
+    }
+
+    /**
+     * Indica si las tramas que se envían se comprimen
+     */
+    public boolean isCompressionEnabled() {
+        return codec.isCompressionEnabled();
+    }
+
+    /**
+     * Métricas de compresión de la conexión
+     * @return Métricas, o null si el codec no comprime
+     */
+    public CompressionStats getCompressionStats() {
+        return codec.getCompressionStats();
+    }
+
+    /**
+     * Ritmo medio al que se escriben los trozos de archivo en esta conexión
+     * @return Bytes por segundo, o 0 si aún no se ha enviado ningún trozo
+     */
+    public double getFileBytesPerSecond() {
+        return fileBytesPerSecond;
+    }
+
+    /**
+     * Trama pendiente de escribir
+     * @param data Bytes de la trama, sin la longitud
+     * @param region Trozo de archivo que va detrás de la trama, o null
+     * @param bulk Lleva contenido de un archivo
+     * @param handshake Respuesta al handshake, tras la que se empieza a cifrar
+     * @param written Se completa al escribirla
+     */
+    private record OutboundFrame(byte[] data, FileRegion region, boolean bulk, boolean handshake,
+                                 CompletableFuture<Void> written) { }
+
     /** Equals y HashCode **/
     @Override
     public boolean equals(Object obj) {
@@ -0,0 +1,21 @@
+package com.chat.network.socket;
+
+import static com.chat.utils.Constants.TRANSPORT_PROPERTY;
+
+/**
+ * Modo de transporte de las conexiones entre Peers
+ */
+public enum TransportMode {
+    BLOCKING,         // Un hilo bloqueado en lectura por cada conexión
+    NIO;              // Pocos hilos con Selector atienden todas las conexiones
+
+    /**
+     * Devuelve el modo configurado con la propiedad del sistema "chat.transport"
+     * @return Modo de transporte, NIO por defecto
+     */
+    public static TransportMode current() {
+        String mode = System.getProperty(TRANSPORT_PROPERTY, "nio");
+
+        return "blocking".equalsIgnoreCase(mode) ? BLOCKING : NIO;
+    }
+}
@@ -0,0 +1,288 @@
+package com.chat.network.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.chat.utils.Constants.FILE_OBJECTS_DIR;
+import static com.chat.utils.Constants.FILE_REGION_SIZE;
+
+/**
+ * Almacén de los archivos recibidos direccionado por contenido.
+ * Cada archivo se guarda una sola vez en "downloads/.objects/<sha256>" y en la carpeta de descargas
+ * aparece como un enlace duro con su nombre, de modo que recibir N veces el mismo archivo ocupa una sola copia.
+ *
+ * El índice "downloads/.objects/index" guarda el tamaño y la fecha de cada objeto al almacenarlo:
+ * si alguien modifica el archivo a través de su nombre, deja de coincidir y el objeto se descarta
+ * en lugar de entregar un contenido que ya no es el del hash.
+ */
+public class ContentStore {
+
+    /** Propiedades **/
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path downloadsDir;                    // Carpeta de descargas
+    private final Path objectsDir;                      // Carpeta de los objetos
+    private final Path indexFile;                       // Índice de los objetos
+    private final Map<String, StoredObject> index;      // Objetos por hash
+    private final Map<String, Integer> nextSuffix;      // Siguiente sufijo libre por nombre de archivo
+
+    /** Constructor por parámetros **/
+    public ContentStore(File downloadsDir) {
+        this.downloadsDir = downloadsDir.toPath();
+        this.objectsDir = this.downloadsDir.resolve(FILE_OBJECTS_DIR);
+        this.indexFile = objectsDir.resolve("index");
+        this.index = new HashMap<>();
+        this.nextSuffix = new HashMap<>();
+
+        loadIndex();
+    }
+
+    /**
+     * Comprueba que un hash tiene el formato de un SHA-256 en hexadecimal
+     * @param hash Hash recibido
+     * @return True si es válido
+     */
+    public static boolean isValidHash(String hash) {
+        return hash != null && SHA256.matcher(hash).matches();
+    }
+
+    /**
+     * Calcula el hash SHA-256 de un archivo leyéndolo por trozos
+     * @param channel Archivo abierto para lectura
+     * @return Hash en hexadecimal
+     * @throws IOException si no se puede leer
+     */
+    public static String sha256(FileChannel channel) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 no disponible", ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FILE_REGION_SIZE);
+        long position = 0;
+
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Indica si ya se tiene un archivo con ese contenido
+     * @param hash SHA-256 del contenido
+     * @param size Tamaño anunciado
+     * @return True si el objeto existe, tiene ese tamaño y no se ha modificado desde que se guardó
+     */
+    public synchronized boolean contains(String hash, long size) {
+        StoredObject stored = index.get(hash);
+        if (stored == null || stored.size() != size) return false;
+
+        File object = objectsDir.resolve(hash).toFile();
+        if (object.isFile() && object.length() == stored.size() && object.lastModified() == stored.lastModified()) {
+            return true;
+        }
+
+        // Se ha borrado o modificado a través de alguno de sus nombres
+        index.remove(hash);
+        object.delete();
+        return false;
+    }
+
+    /**
+     * Guarda un archivo recibido completo como objeto y le da un nombre en la carpeta de descargas
+     * @param partFile Archivo recibido, que se mueve al almacén
+     * @param hash SHA-256 de su contenido
+     * @param fileName Nombre original
+     * @return Archivo visible en la carpeta de descargas
+     * @throws IOException si no se puede mover o enlazar
+     */
+    public synchronized File store(File partFile, String hash, String fileName) throws IOException {
+        Files.createDirectories(objectsDir);
+
+        Path object = objectsDir.resolve(hash);
+        if (contains(hash, partFile.length())) {
+            // Ya se tenía, llegado por otra transferencia: sobra la copia recibida
+            Files.delete(partFile.toPath());
+        } else {
+            Files.move(partFile.toPath(), object, StandardCopyOption.REPLACE_EXISTING);
+
+            File stored = object.toFile();
+            index.put(hash, new StoredObject(stored.length(), stored.lastModified(), null));
+        }
+
+        return link(hash, fileName);
+    }
+
+    /**
+     * Da un nombre en la carpeta de descargas a un objeto que ya se tiene.
+     * Si el objeto ya tiene ese mismo nombre, se reutiliza sin crear otro
+     * @param hash SHA-256 del contenido, que debe estar en el almacén
+     * @param fileName Nombre original, tal como lo envía el Peer
+     * @return Archivo visible en la carpeta de descargas
+     * @throws IOException si no se puede enlazar
+     */
+    public synchronized File link(String hash, String fileName) throws IOException {
+        fileName = safeName(fileName);
+        Path object = objectsDir.resolve(hash);
+        StoredObject stored = index.get(hash);
+        if (stored == null) {
+            throw new IOException("El archivo " + hash + " no está en el almacén");
+        }
+
+        if (stored.name() != null && isNameOf(stored.name(), fileName)) {
+            Path previous = downloadsDir.resolve(stored.name());
+            if (Files.exists(previous) && Files.isSameFile(previous, object)) {
+                return previous.toFile();
+            }
+        }
+
+        File outputFile = resolveOutputFile(fileName);
+        try {
+            Files.createLink(outputFile.toPath(), object);
+        } catch (IOException | UnsupportedOperationException ex) {
+            // El sistema de archivos no admite enlaces duros
+            Files.copy(object, outputFile.toPath());
+        }
+
+        StoredObject linked = new StoredObject(stored.size(), stored.lastModified(), outputFile.getName());
+        index.put(hash, linked);
+        appendIndex(hash, linked);
+
+        return outputFile;
+    }
+
+    /**
+     * Busca un nombre libre en la carpeta de descargas.
+     * Se recuerda el último sufijo usado por nombre para no probar uno a uno todos los anteriores
+     * @param fileName Nombre original del archivo
+     * @return Archivo de destino
+     */
+    private File resolveOutputFile(String fileName) {
+        File outputFile = downloadsDir.resolve(fileName).toFile();
+        if (!outputFile.exists()) return outputFile;
+
+        String name = baseName(fileName);
+        String extension = fileName.substring(name.length());
+
+        int counter = nextSuffix.getOrDefault(fileName, 1);
+        do {
+            outputFile = downloadsDir.resolve(name + "_" + counter + extension).toFile();
+            counter++;
+        } while (outputFile.exists());
+
+        nextSuffix.put(fileName, counter);
+        return outputFile;
+    }
+
+    /**
+     * Indica si un nombre de la carpeta de descargas es el de un archivo o una de sus variantes con sufijo
+     * @param name Nombre en la carpeta de descargas
+     * @param fileName Nombre original
+     * @return True si es "nombre.ext" o "nombre_N.ext"
+     */
+    private static boolean isNameOf(String name, String fileName) {
+        if (name.equals(fileName)) return true;
+
+        String base = baseName(fileName);
+        String extension = fileName.substring(base.length());
+        if (!name.startsWith(base + "_") || !name.endsWith(extension)) return false;
+
+        String suffix = name.substring(base.length() + 1, name.length() - extension.length());
+        return !suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * Sustituye los caracteres de control de un nombre recibido por '_'. El índice separa los
+     * campos con tabuladores y las entradas con saltos de línea, y el nombre es el último campo
+     * @param fileName Nombre recibido
+     * @return Nombre sin caracteres de control
+     */
+    static String safeName(String fileName) {
+        StringBuilder name = new StringBuilder(fileName.length());
+        fileName.codePoints().forEach(c -> name.appendCodePoint(Character.isISOControl(c) ? '_' : c));
+        return name.isEmpty() ? "archivo" : name.toString();
+    }
+
+    /**
+     * Nombre de un archivo sin su extensión
+     * @param fileName Nombre del archivo
+     * @return Nombre sin extensión
+     */
+    private static String baseName(String fileName) {
+        int lastDot = fileName.lastIndexOf('.');
+        return lastDot > 0 ? fileName.substring(0, lastDot) : fileName;
+    }
+
+    /**
+     * Carga el índice. Cada línea es "hash tamaño fecha nombre" y la última de cada hash es la que vale
+     */
+    private void loadIndex() {
+        if (!Files.isRegularFile(indexFile)) return;
+
+        try {
+            List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 3 || !isValidHash(fields[0])) continue;
+
+                try {
+                    String name = fields.length == 4 && !fields[3].isEmpty() ? fields[3] : null;
+                    index.put(fields[0], new StoredObject(Long.parseLong(fields[1]), Long.parseLong(fields[2]), name));
+                } catch (NumberFormatException ex) {
+                    // Línea incompleta de una escritura cortada
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Error leyendo el índice de descargas: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Añade una entrada al final del índice
+     * @param hash SHA-256 del contenido
+     * @param stored Objeto guardado
+     */
+    private void appendIndex(String hash, StoredObject stored) {
+        String line = hash + "\t" + stored.size() + "\t" + stored.lastModified() + "\t"
+                + (stored.name() != null ? safeName(stored.name()) : "") + "\n";
+
+        try {
+            Files.writeString(indexFile, line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            System.out.println("Error actualizando el índice de descargas: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Objeto del almacén
+     * @param size Tamaño al guardarlo
+     * @param lastModified Fecha de modificación al guardarlo
+     * @param name Último nombre con el que aparece en la carpeta de descargas, o null
+     */
+    private record StoredObject(long size, long lastModified, String name) { }
+
+}
@@ -0,0 +1,544 @@
+package com.chat.network.transfer;
+
+import com.chat.model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import static com.chat.utils.Constants.DOWNLOADS_DIR;
+import static com.chat.utils.Constants.FILE_BLOCK_SIZE;
+import static com.chat.utils.Constants.FILE_BITMAP_EXTENSION;
+import static com.chat.utils.Constants.FILE_PART_EXTENSION;
+import static com.chat.utils.Constants.MAX_INCOMING_FILE_SIZE;
+import static com.chat.utils.Constants.MAX_INCOMING_FILE_SIZE_PROPERTY;
+
+/**
+ * Recibe archivos por fragmentos escribiéndolos directamente en disco.
+ * Cada fragmento se verifica con su CRC32 y se escribe en su posición,
+ * por lo que la memoria usada no depende del tamaño del archivo.
+ * Los trozos FILE_DATA los escribe la propia conexión en el canal del archivo
+ * y aquí solo se verifican una vez escritos.
+ *
+ * Mientras se recibe, el archivo se guarda como "transferId.part" junto a un mapa de bits
+ * "transferId.bitmap" con los bloques ya verificados. Si la conexión se cae ambos se conservan,
+ * y cuando el emisor vuelve a anunciar el mismo archivo se le responde con el mapa de bits
+ * para que solo envíe lo que falta.
+ *
+ * Al completarse se comprueba su SHA-256 y se guarda en el {@link ContentStore}. Si el emisor
+ * anuncia un hash que ya se tiene, se responde con todos los bloques marcados: el archivo
+ * aparece en descargas sin que viaje ningún byte de su contenido.
+ */
+public class FileTransferReceiver {
+
+    /** Propiedades **/
+    private static final long MAX_FILE_SIZE_BLOCKS = Integer.MAX_VALUE;   // Bloques que caben en el mapa de bits
+
+    private final Map<String, IncomingTransfer> transfers;     // Transferencias en curso (peerId:transferId)
+    private final ContentStore contentStore;                   // Archivos recibidos por su SHA-256
+
+    /** Constructor **/
+    public FileTransferReceiver() {
+        this.transfers = new ConcurrentHashMap<>();
+        this.contentStore = new ContentStore(new File(DOWNLOADS_DIR));
+    }
+
+    /**
+     * Inicia o reanuda la recepción de un archivo anunciado por un Peer.
+     * Si ya se recibió una parte, se conserva y solo faltan los bloques que no están en su mapa de bits.
+     * Si ya se tiene un archivo con el mismo SHA-256, la transferencia queda completa sin recibir nada
+     *
+     * @param peerId ID de la conexión Peer
+     * @param fileMessage Mensaje de anuncio del archivo
+     * @return Transferencia, ya cerrada si está completa
+     * @throws IOException si no se puede crear el archivo de destino
+     */
+    public IncomingTransfer startTransfer(String peerId, Message fileMessage) throws IOException {
+        String transferId = (String) fileMessage.getFileData().get("transferId");
+        if (transferId == null) {
+            throw new IOException("El archivo no tiene ID de transferencia");
+        }
+
+        // El ID da nombre a los archivos parciales, así que solo se admite un UUID
+        try {
+            transferId = UUID.fromString(transferId).toString();
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("ID de transferencia no válido: " + transferId);
+        }
+
+        String fileName = (String) fileMessage.getFileData().get("name");
+        if (fileName == null) {
+            fileName = "archivo_desconocido_" + System.currentTimeMillis();
+        }
+
+        Object size = fileMessage.getFileData().get("size");
+        long expectedSize = size instanceof Number n ? n.longValue() : 0;
+
+        // El tamaño viene del Peer: se limita al máximo configurado, y nunca más de lo que cabe en el mapa de bits
+        long maxSize = Math.min(Long.getLong(MAX_INCOMING_FILE_SIZE_PROPERTY, MAX_INCOMING_FILE_SIZE),
+                MAX_FILE_SIZE_BLOCKS * FILE_BLOCK_SIZE);
+        if (expectedSize < 0 || expectedSize > maxSize) {
+            throw new IOException("Tamaño de archivo no válido: " + expectedSize + " (máximo " + maxSize + ")");
+        }
+
+        // El hash también da nombre a un archivo, así que solo se admite en hexadecimal
+        String hash = (String) fileMessage.getFileData().get("sha256");
+        if (hash != null && !ContentStore.isValidHash(hash)) {
+            throw new IOException("SHA-256 no válido: " + hash);
+        }
+
+        // Un anuncio repetido del mismo archivo sustituye a la recepción anterior
+        suspendTransfer(transferId);
+
+        File downloadsDir = new File(DOWNLOADS_DIR);
+        if (!downloadsDir.exists()) {
+            downloadsDir.mkdir();
+        }
+
+        File partFile = new File(downloadsDir, transferId + FILE_PART_EXTENSION);
+        File bitmapFile = new File(downloadsDir, transferId + FILE_BITMAP_EXTENSION);
+        fileName = new File(fileName).getName();
+
+        if (hash != null && contentStore.contains(hash, expectedSize)) {
+            partFile.delete();
+            bitmapFile.delete();
+
+            IncomingTransfer transfer = IncomingTransfer.stored(fileMessage, fileName, expectedSize);
+            transfer.outputFile = contentStore.link(hash, fileName);
+            return transfer;
+        }
+
+        // Lo que ya está en el archivo parcial no necesita espacio nuevo
+        long needed = expectedSize - (partFile.isFile() ? Math.min(partFile.length(), expectedSize) : 0);
+        if (needed > downloadsDir.getUsableSpace()) {
+            throw new IOException("No hay espacio en disco para " + fileName + ": faltan " + needed + " bytes");
+        }
+
+        IncomingTransfer transfer = IncomingTransfer.open(fileMessage, fileName, partFile, bitmapFile, expectedSize);
+
+        if (transfer.isComplete()) {
+            finish(transfer);
+            return transfer;
+        }
+
+        transfers.put(key(peerId, transferId), transfer);
+        return transfer;
+    }
+
+    /**
+     * Escribe un fragmento recibido en su posición del archivo
+     * @param peerId ID de la conexión Peer
+     * @param chunkMessage Mensaje con el fragmento
+     * @return Transferencia si con este fragmento se ha completado, null en caso contrario
+     * @throws IOException si el fragmento no es válido o no se puede escribir
+     */
+    public IncomingTransfer receiveChunk(String peerId, Message chunkMessage) throws IOException {
+        Map<String, Object> chunkData = chunkMessage.getFileData();
+        String key = key(peerId, (String) chunkData.get("transferId"));
+
+        IncomingTransfer transfer = transfers.get(key);
+        if (transfer == null) {
+            throw new IOException("Fragmento de una transferencia desconocida");
+        }
+
+        long offset = ((Number) chunkData.get("offset")).longValue();
+        long checksum = ((Number) chunkData.get("checksum")).longValue();
+        byte[] data = chunkMessage.getFileContent();
+
+        try {
+            transfer.write(offset, data, checksum);
+        } catch (IOException ex) {
+            transfers.remove(key);
+            transfer.abort();
+            throw ex;
+        }
+
+        if (!transfer.isComplete()) {
+            return null;
+        }
+
+        transfers.remove(key);
+        finish(transfer);
+        return transfer;
+    }
+
+    /**
+     * Devuelve el archivo en el que la conexión debe escribir el contenido de un trozo FILE_DATA
+     * @param peerId ID de la conexión Peer
+     * @param header Trama FILE_DATA recibida
+     * @return Canal del archivo de destino
+     * @throws IOException si la transferencia es desconocida o el trozo se sale del archivo
+     */
+    public FileChannel openRegion(String peerId, Message header) throws IOException {
+        Map<String, Object> regionData = header.getFileData();
+
+        IncomingTransfer transfer = transfers.get(key(peerId, (String) regionData.get("transferId")));
+        if (transfer == null) {
+            throw new IOException("Trozo de una transferencia desconocida");
+        }
+
+        long offset = ((Number) regionData.get("offset")).longValue();
+        long length = ((Number) regionData.get("length")).longValue();
+        transfer.checkBounds(offset, length);
+
+        return transfer.channel;
+    }
+
+    /**
+     * Verifica un trozo FILE_DATA ya escrito en el archivo
+     * @param peerId ID de la conexión Peer
+     * @param header Trama FILE_DATA cuyo contenido se ha recibido
+     * @return Transferencia si con este trozo se ha completado, null en caso contrario
+     * @throws IOException si el trozo no es válido
+     */
+    public IncomingTransfer completeRegion(String peerId, Message header) throws IOException {
+        Map<String, Object> regionData = header.getFileData();
+        String key = key(peerId, (String) regionData.get("transferId"));
+
+        IncomingTransfer transfer = transfers.get(key);
+        if (transfer == null) {
+            throw new IOException("Trozo de una transferencia desconocida");
+        }
+
+        long offset = ((Number) regionData.get("offset")).longValue();
+        long length = ((Number) regionData.get("length")).longValue();
+        long checksum = ((Number) regionData.get("checksum")).longValue();
+
+        try {
+            transfer.verify(offset, length, checksum);
+        } catch (IOException ex) {
+            transfers.remove(key);
+            transfer.abort();
+            throw ex;
+        }
+
+        if (!transfer.isComplete()) {
+            return null;
+        }
+
+        transfers.remove(key);
+        finish(transfer);
+        return transfer;
+    }
+
+    /**
+     * Detiene las transferencias en curso de un Peer. Los archivos parciales se conservan
+     * para reanudarlas si el Peer vuelve a enviar el mismo archivo
+     *
+     * @param peerId ID de la conexión Peer
+     */
+    public void suspendTransfers(String peerId) {
+        String prefix = peerId + "|";
+
+        transfers.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(prefix)) return false;
+
+            entry.getValue().suspend();
+            return true;
+        });
+    }
+
+    /**
+     * Detiene la recepción de un archivo si está en curso por cualquier conexión
+     * @param transferId ID de la transferencia
+     */
+    private void suspendTransfer(String transferId) {
+        String suffix = "|" + transferId;
+
+        transfers.entrySet().removeIf(entry -> {
+            if (!entry.getKey().endsWith(suffix)) return false;
+
+            entry.getValue().suspend();
+            return true;
+        });
+    }
+
+    /**
+     * Cierra un archivo completo, comprueba su SHA-256 y lo guarda en el almacén con su nombre definitivo
+     * @param transfer Transferencia completada
+     * @throws IOException si el contenido no coincide con el hash anunciado o no se puede guardar
+     */
+    private void finish(IncomingTransfer transfer) throws IOException {
+        String hash;
+        try {
+            hash = ContentStore.sha256(transfer.channel);
+        } catch (IOException ex) {
+            transfer.abort();
+            throw ex;
+        }
+
+        transfer.close();
+
+        String expected = (String) transfer.fileMessage.getFileData().get("sha256");
+        if (expected != null && !expected.equals(hash)) {
+            transfer.abort();
+            throw new IOException("El archivo " + transfer.fileName + " no coincide con su SHA-256");
+        }
+
+        transfer.outputFile = contentStore.store(transfer.partFile, hash, transfer.fileName);
+        transfer.bitmapFile.delete();
+    }
+
+    private String key(String peerId, String transferId) {
+        return peerId + "|" + transferId;
+    }
+
+    /** Archivo en recepción **/
+    public static class IncomingTransfer {
+
+        private static final int BITMAP_HEADER = Long.BYTES;   // El mapa de bits empieza con el tamaño del archivo
+
+        private final Message fileMessage;        // Mensaje de anuncio
+        private final String fileName;            // Nombre con el que se guarda al completarse
+        private final File partFile;              // Archivo parcial
+        private final File bitmapFile;            // Mapa de bits de los bloques recibidos
+        private final FileChannel channel;        // Canal de escritura del archivo parcial
+        private final FileChannel bitmapChannel;  // Canal de escritura del mapa de bits
+        private final long expectedSize;          // Tamaño anunciado
+        private final long blockCount;            // Bloques del archivo
+        private final BitSet bitmap;              // Bloques recibidos, un bit por bloque; crece según llegan
+        private final long bitmapSize;            // Bytes del mapa de bits en disco, sin la cabecera
+        private final CRC32 crc;                  // Verificador de fragmentos
+        private long completedBlocks;             // Bloques recibidos y verificados
+        private File outputFile;                  // Archivo de destino, al completarse
+
+        private IncomingTransfer(Message fileMessage, String fileName, File partFile, File bitmapFile,
+                                 FileChannel channel, FileChannel bitmapChannel, long expectedSize) {
+            this.fileMessage = fileMessage;
+            this.fileName = fileName;
+            this.partFile = partFile;
+            this.bitmapFile = bitmapFile;
+            this.channel = channel;
+            this.bitmapChannel = bitmapChannel;
+            this.expectedSize = expectedSize;
+            this.blockCount = (expectedSize + FILE_BLOCK_SIZE - 1) / FILE_BLOCK_SIZE;
+            this.bitmap = new BitSet();
+            this.bitmapSize = (blockCount + 7) / 8;
+            this.crc = new CRC32();
+        }
+
+        /**
+         * Crea una transferencia que ya está completa porque su contenido estaba en el almacén
+         */
+        static IncomingTransfer stored(Message fileMessage, String fileName, long expectedSize) {
+            IncomingTransfer transfer = new IncomingTransfer(fileMessage, fileName, null, null, null, null, expectedSize);
+
+            transfer.bitmap.set(0, (int) transfer.blockCount);
+            transfer.completedBlocks = transfer.blockCount;
+
+            return transfer;
+        }
+
+        /**
+         * Abre el archivo parcial y su mapa de bits, recuperando lo recibido antes si el
+         * mapa de bits corresponde al mismo tamaño de archivo
+         */
+        static IncomingTransfer open(Message fileMessage, String fileName, File partFile, File bitmapFile,
+                                     long expectedSize) throws IOException {
+            FileChannel channel = FileChannel.open(partFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel bitmapChannel;
+
+            try {
+                bitmapChannel = FileChannel.open(bitmapFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+
+            IncomingTransfer transfer = new IncomingTransfer(fileMessage, fileName, partFile, bitmapFile,
+                    channel, bitmapChannel, expectedSize);
+
+            try {
+                if (!transfer.load()) {
+                    transfer.reset();
+                }
+            } catch (IOException ex) {
+                transfer.abort();
+                throw ex;
+            }
+
+            return transfer;
+        }
+
+        /**
+         * Lee el mapa de bits guardado
+         * @return True si corresponde a este archivo
+         */
+        private boolean load() throws IOException {
+            if (bitmapChannel.size() != BITMAP_HEADER + bitmapSize) return false;
+
+            ByteBuffer header = ByteBuffer.allocate(BITMAP_HEADER);
+            while (header.hasRemaining()) {
+                if (bitmapChannel.read(header, header.position()) < 0) return false;
+            }
+            if (header.flip().getLong() != expectedSize) return false;
+
+            // Se lee por partes y solo se guardan los bits marcados
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(bitmapSize, FILE_BLOCK_SIZE));
+            for (long position = 0; position < bitmapSize; ) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), bitmapSize - position));
+                while (buffer.hasRemaining()) {
+                    if (bitmapChannel.read(buffer, BITMAP_HEADER + position + buffer.position()) < 0) return false;
+                }
+
+                buffer.flip();
+                for (long index = position; buffer.hasRemaining(); index++) {
+                    for (int bits = buffer.get() & 0xFF; bits != 0; bits &= bits - 1) {
+                        bitmap.set((int) (index * 8 + Integer.numberOfTrailingZeros(bits)));
+                    }
+                }
+                position += buffer.limit();
+            }
+
+            completedBlocks = bitmap.cardinality();
+            return true;
+        }
+
+        /**
+         * Empieza el archivo desde cero
+         */
+        private void reset() throws IOException {
+            channel.truncate(0);
+            bitmapChannel.truncate(0);
+
+            ByteBuffer header = ByteBuffer.allocate(BITMAP_HEADER);
+            header.putLong(0, expectedSize);
+            while (header.hasRemaining()) {
+                bitmapChannel.write(header, header.position());
+            }
+
+            // El resto son ceros: basta con escribir el último byte y el sistema de archivos deja un hueco
+            if (bitmapSize > 0) {
+                bitmapChannel.write(ByteBuffer.allocate(1), BITMAP_HEADER + bitmapSize - 1);
+            }
+        }
+
+        synchronized void write(long offset, byte[] data, long checksum) throws IOException {
+            if (data == null) {
+                throw new IOException("Fragmento vacío en el archivo " + fileName);
+            }
+            checkBounds(offset, data.length);
+
+            crc.reset();
+            crc.update(data, 0, data.length);
+            if (crc.getValue() != checksum) {
+                throw new IOException("Fragmento corrupto en el archivo " + fileName);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+
+            markReceived(offset, data.length);
+        }
+
+        /**
+         * Comprueba que un fragmento cubre bloques enteros dentro del archivo
+         */
+        void checkBounds(long offset, long length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > expectedSize
+                    || offset % FILE_BLOCK_SIZE != 0
+                    || (length % FILE_BLOCK_SIZE != 0 && offset + length != expectedSize)) {
+                throw new IOException("Fragmento fuera de los límites del archivo " + fileName);
+            }
+        }
+
+        synchronized void verify(long offset, long length, long checksum) throws IOException {
+            checkBounds(offset, length);
+
+            crc.reset();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+            if (crc.getValue() != checksum) {
+                throw new IOException("Fragmento corrupto en el archivo " + fileName);
+            }
+
+            markReceived(offset, length);
+        }
+
+        /**
+         * Marca como recibidos los bloques de un fragmento y guarda solo los bytes
+         * del mapa de bits que cambian
+         */
+        private void markReceived(long offset, long length) throws IOException {
+            long first = offset / FILE_BLOCK_SIZE;
+            long end = (offset + length + FILE_BLOCK_SIZE - 1) / FILE_BLOCK_SIZE;
+            if (first >= end) return;
+
+            for (int block = (int) first; block < end; block++) {
+                if (!bitmap.get(block)) {
+                    bitmap.set(block);
+                    completedBlocks++;
+                }
+            }
+
+            int from = (int) (first >>> 3);
+            int to = (int) ((end - 1) >>> 3) + 1;
+            ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(bitmap.get(from * 8, to * 8).toByteArray(), to - from));
+            while (buffer.hasRemaining()) {
+                bitmapChannel.write(buffer, BITMAP_HEADER + from + buffer.position());
+            }
+        }
+
+        synchronized boolean isComplete() {
+            return completedBlocks >= blockCount;
+        }
+
+        /**
+         * Devuelve los bloques ya recibidos, para que el emisor solo envíe los que faltan
+         * @return Mapa de bits, un bit por bloque de {@link com.chat.utils.Constants#FILE_BLOCK_SIZE} bytes,
+         *         sin los bytes a cero del final
+         */
+        public synchronized byte[] getReceivedBlocks() {
+            return bitmap.toByteArray();
+        }
+
+        public synchronized long getReceivedBytes() {
+            return Math.min(completedBlocks * FILE_BLOCK_SIZE, expectedSize);
+        }
+
+        void close() throws IOException {
+            channel.close();
+            bitmapChannel.close();
+        }
+
+        /**
+         * Cierra los archivos conservando lo recibido
+         */
+        void suspend() {
+            try {
+                close();
+            } catch (IOException ex) {
+                System.out.println("Error cerrando el archivo: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Cierra los archivos y borra lo recibido
+         */
+        void abort() {
+            suspend();
+            partFile.delete();
+            bitmapFile.delete();
+        }
+
+        public Message getFileMessage() {
+            return fileMessage;
+        }
+
+        public File getOutputFile() {
+            return outputFile;
+        }
+    }
+
+}
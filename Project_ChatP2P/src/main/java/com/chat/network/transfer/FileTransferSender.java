@@ -0,0 +1,355 @@
+package com.chat.network.transfer;
+
+import com.chat.model.Message;
+import com.chat.network.socket.FileRegion;
+import com.chat.network.socket.PeerConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+import static com.chat.utils.Constants.COMPRESSED_FORMATS;
+import static com.chat.utils.Constants.COMPRESSION_MAX_FILE_RATE;
+import static com.chat.utils.Constants.FILE_ACCEPT_TIMEOUT_MILLIS;
+import static com.chat.utils.Constants.FILE_BLOCK_SIZE;
+import static com.chat.utils.Constants.FILE_HASH_CACHE_SIZE;
+import static com.chat.utils.Constants.FILE_REGIONS_IN_FLIGHT;
+import static com.chat.utils.Constants.FILE_REGION_SIZE;
+import static com.chat.utils.Constants.TRANSFER_CHAT_LATENCY_MILLIS;
+
+/**
+ * Envía un archivo a un Peer en trozos de tamaño fijo.
+ * Si la conexión lo permite, el contenido va directamente del disco al socket con transferTo
+ * detrás de tramas FILE_DATA; si no, o si compensa comprimirlo, se lee en fragmentos FILE_CHUNK.
+ * En ningún caso el archivo entero pasa por la memoria.
+ * El tamaño de cada trozo se ajusta al ritmo de la conexión para que escribirlo no
+ * tarde más que la latencia objetivo de los mensajes de texto.
+ *
+ * Antes de enviar el contenido se espera el FILE_ACCEPT del receptor con los bloques que ya
+ * tiene de un envío anterior interrumpido, y solo se envían los que faltan. El anuncio lleva el
+ * SHA-256 del archivo, así que si el receptor ya lo tiene responde con todos los bloques y no se envía nada. Los envíos que se
+ * cortan por una caída de la conexión se guardan por contacto para repetirlos al reanudar la sesión.
+ */
+public class FileTransferSender {
+
+    /** Propiedades **/
+    private final Map<String, CompletableFuture<Message>> offers;   // Anuncios a la espera de FILE_ACCEPT por ID de transferencia
+    private final Map<String, List<File>> interrupted;              // Envíos cortados por ID del contacto
+    private final Map<String, String> hashes;                       // SHA-256 ya calculados por ruta, tamaño y fecha del archivo, los últimos usados
+
+    /** Constructor **/
+    public FileTransferSender() {
+        this.offers = new ConcurrentHashMap<>();
+        this.interrupted = new ConcurrentHashMap<>();
+        this.hashes = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > FILE_HASH_CACHE_SIZE;
+            }
+        });
+    }
+
+    /**
+     * Anuncia un archivo y envía los bloques que el receptor no tiene
+     * @param peerConnection Conexión por la que se envía
+     * @param recipientId ID del contacto que lo recibe
+     * @param file Archivo a enviar
+     * @return Mensaje de anuncio del archivo, para registrarlo en el historial
+     * @throws IOException si hay error leyendo el archivo, enviando los fragmentos o el receptor no responde
+     */
+    public Message sendFile(PeerConnection peerConnection, String recipientId, File file) throws IOException {
+        return sendFile(peerConnection, recipientId, file, sent -> { });
+    }
+
+    /**
+     * Anuncia un archivo y envía los bloques que el receptor no tiene, avisando de lo enviado
+     * @param peerConnection Conexión por la que se envía
+     * @param recipientId ID del contacto que lo recibe
+     * @param file Archivo a enviar
+     * @param progress Recibe los bytes de cada trozo cuando se ha escrito
+     * @return Mensaje de anuncio del archivo, para registrarlo en el historial
+     * @throws IOException si hay error leyendo el archivo, enviando los fragmentos o el receptor no responde
+     */
+    public Message sendFile(PeerConnection peerConnection, String recipientId, File file, LongConsumer progress) throws IOException {
+        Message fileMessage = Message.createFileMessage(file, recipientId);
+        String transferId = (String) fileMessage.getFileData().get("transferId");
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            fileMessage.getFileData().put("size", size);
+            fileMessage.getFileData().put("sha256", hash(channel, file));
+
+            BitSet received = offer(peerConnection, fileMessage, transferId);
+
+            long blockCount = (size + FILE_BLOCK_SIZE - 1) / FILE_BLOCK_SIZE;
+            long missing = blockCount - received.get(0, (int) blockCount).cardinality();
+            if (missing == 0 && blockCount > 0) {
+                System.out.println("El receptor ya tiene " + file.getName() + ", no se envía su contenido");
+            } else if (missing < blockCount) {
+                System.out.println("Reanudando el envío de " + file.getName() + ": faltan "
+                        + missing + " de " + blockCount + " bloques");
+            }
+
+            if (peerConnection.supportsFileRegions() && !shouldCompress(peerConnection, file)) {
+                sendRegions(peerConnection, channel, transferId, size, received, progress);
+            } else {
+                sendChunks(peerConnection, channel, transferId, size, received, file, progress);
+            }
+        } catch (IllegalStateException ex) {
+            // La conexión se ha cerrado antes de encolar alguna trama
+            throw new IOException(ex.getMessage(), ex);
+        }
+
+        return fileMessage;
+    }
+
+    /**
+     * Devuelve el SHA-256 de un archivo. Se guarda por ruta, tamaño y fecha de modificación, así que
+     * al volver a enviar el mismo archivo, al mismo contacto o a otro, no hace falta leerlo otra vez.
+     * Solo se guardan los {@link com.chat.utils.Constants#FILE_HASH_CACHE_SIZE} últimos
+     * @param channel Archivo abierto
+     * @param file Archivo, para identificarlo
+     * @return Hash en hexadecimal
+     * @throws IOException si no se puede leer el archivo
+     */
+    private String hash(FileChannel channel, File file) throws IOException {
+        String key = file.getAbsolutePath() + "|" + channel.size() + "|" + file.lastModified();
+        String hash = hashes.get(key);
+        if (hash == null) {
+            hash = ContentStore.sha256(channel);
+            hashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Envía el anuncio de un archivo y espera la respuesta del receptor
+     * @param peerConnection Conexión por la que se envía
+     * @param fileMessage Mensaje de anuncio
+     * @param transferId ID de la transferencia
+     * @return Bloques que el receptor ya tiene
+     * @throws IOException si la conexión se cae o el receptor no responde a tiempo
+     */
+    private BitSet offer(PeerConnection peerConnection, Message fileMessage, String transferId) throws IOException {
+        CompletableFuture<Message> accepted = new CompletableFuture<>();
+        offers.put(transferId, accepted);
+
+        try {
+            peerConnection.sendMessage(fileMessage);
+
+            long deadline = System.currentTimeMillis() + FILE_ACCEPT_TIMEOUT_MILLIS;
+            while (true) {
+                try {
+                    byte[] blocks = accepted.get(1000, TimeUnit.MILLISECONDS).getFileContent();
+                    return blocks != null ? BitSet.valueOf(blocks) : new BitSet();
+                } catch (TimeoutException ex) {
+                    if (!peerConnection.isConnected()) {
+                        throw new IOException("La conexión se ha cerrado");
+                    }
+                    if (System.currentTimeMillis() >= deadline) {
+                        throw new IOException("El receptor no ha respondido al anuncio del archivo");
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Envío interrumpido", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Error esperando al receptor", ex.getCause());
+        } finally {
+            offers.remove(transferId, accepted);
+        }
+    }
+
+    /**
+     * Entrega la respuesta del receptor al envío que la espera
+     * @param acceptMessage Mensaje FILE_ACCEPT recibido
+     */
+    public void handleAccept(Message acceptMessage) {
+        CompletableFuture<Message> accepted = offers.get((String) acceptMessage.getFileData().get("transferId"));
+        if (accepted != null) {
+            accepted.complete(acceptMessage);
+        }
+    }
+
+    /**
+     * Guarda un envío cortado para repetirlo cuando se reanude la sesión con el contacto
+     * @param contactId ID del contacto
+     * @param file Archivo que se estaba enviando
+     */
+    public void keepForResume(String contactId, File file) {
+        interrupted.compute(contactId, (id, files) -> {
+            List<File> updated = files != null ? new ArrayList<>(files) : new ArrayList<>();
+            if (!updated.contains(file)) {
+                updated.add(file);
+            }
+            return List.copyOf(updated);
+        });
+    }
+
+    /**
+     * Devuelve y olvida los envíos cortados de un contacto
+     * @param contactId ID del contacto
+     * @return Archivos a volver a enviar, vacío si no hay
+     */
+    public List<File> takeInterrupted(String contactId) {
+        List<File> files = interrupted.remove(contactId);
+        return files != null ? files : List.of();
+    }
+
+    /**
+     * Envía el contenido en trozos que la conexión escribe desde el archivo con transferTo.
+     * Cada trozo cubre bloques seguidos que faltan en el receptor.
+     * El CRC32 se calcula sobre el archivo mapeado, sin copiarlo a un array
+     *
+     * @param peerConnection Conexión por la que se envía
+     * @param channel Archivo abierto, que no se cierra hasta que se escriben todos los trozos
+     * @param transferId ID de la transferencia
+     * @param size Tamaño del archivo
+     * @param received Bloques que el receptor ya tiene
+     * @param progress Recibe los bytes de cada trozo escrito
+     * @throws IOException si hay error leyendo el archivo o enviando los trozos
+     */
+    private static void sendRegions(PeerConnection peerConnection, FileChannel channel, String transferId,
+                                    long size, BitSet received, LongConsumer progress) throws IOException {
+        Queue<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+        CRC32 crc = new CRC32();
+        long blockCount = (size + FILE_BLOCK_SIZE - 1) / FILE_BLOCK_SIZE;
+
+        try {
+            int block = received.nextClearBit(0);
+
+            while (block < blockCount) {
+                int blocksPerRegion = blocksPerRegion(peerConnection);
+                int end = block + 1;
+                while (end < blockCount && end - block < blocksPerRegion && !received.get(end)) {
+                    end++;
+                }
+
+                long offset = (long) block * FILE_BLOCK_SIZE;
+                long length = Math.min((long) end * FILE_BLOCK_SIZE, size) - offset;
+
+                crc.reset();
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+
+                Message header = Message.createFileDataMessage(transferId, offset, length, crc.getValue());
+                inFlight.add(peerConnection.sendFileData(header, new FileRegion(channel, offset, length))
+                        .thenRun(() -> progress.accept(length)));
+
+                if (inFlight.size() >= FILE_REGIONS_IN_FLIGHT) {
+                    PeerConnection.await(inFlight.poll());
+                }
+
+                block = received.nextClearBit(end);
+            }
+
+            while (!inFlight.isEmpty()) {
+                PeerConnection.await(inFlight.poll());
+            }
+        } finally {
+            // Si algo falla, el archivo no se puede cerrar hasta que la conexión deje de leerlo.
+            // Si el escritor no termina a tiempo se cierra la conexión, y al fallar suelta los trozos
+            CompletableFuture<Void> pending = CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new))
+                    .exceptionally(ex -> null);
+            try {
+                PeerConnection.await(pending);
+            } catch (IOException ex) {
+                peerConnection.close();
+                pending.join();
+            }
+        }
+    }
+
+    /**
+     * Decide si un archivo se envía en fragmentos FILE_CHUNK, que la conexión comprime, en lugar de
+     * trozos FILE_DATA directos del disco. Solo compensa en conexiones lentas y con archivos que no
+     * vienen ya comprimidos; si aun así un fragmento no se reduce, el codec deja de comprimir ese archivo
+     *
+     * @param peerConnection Conexión por la que se envía
+     * @param file Archivo a enviar
+     * @return True si se envía comprimido
+     */
+    private static boolean shouldCompress(PeerConnection peerConnection, File file) {
+        if (!peerConnection.isCompressionEnabled()) return false;
+        if (peerConnection.getFileBytesPerSecond() > COMPRESSION_MAX_FILE_RATE) return false;
+
+        String name = file.getName().toLowerCase();
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        return !Arrays.asList(COMPRESSED_FORMATS).contains(extension);
+    }
+
+    /**
+     * Calcula cuántos bloques caben en un trozo sin que escribirlo supere la latencia objetivo
+     * de los mensajes de texto, según el ritmo medido en la conexión.
+     * Hasta que hay una medida se usan trozos de un solo bloque
+     *
+     * @param peerConnection Conexión por la que se envía
+     * @return Bloques por trozo, entre 1 y los que caben en {@link com.chat.utils.Constants#FILE_REGION_SIZE}
+     */
+    private static int blocksPerRegion(PeerConnection peerConnection) {
+        double bytesPerSecond = peerConnection.getFileBytesPerSecond();
+        long budget = (long) (bytesPerSecond * TRANSFER_CHAT_LATENCY_MILLIS / 1000);
+
+        return (int) Math.max(1, Math.min(FILE_REGION_SIZE / FILE_BLOCK_SIZE, budget / FILE_BLOCK_SIZE));
+    }
+
+    /**
+     * Envía en fragmentos FILE_CHUNK los bloques que faltan en el receptor
+     * @param peerConnection Conexión por la que se envía
+     * @param channel Archivo abierto
+     * @param transferId ID de la transferencia
+     * @param size Tamaño del archivo
+     * @param received Bloques que el receptor ya tiene
+     * @param file Archivo a enviar, para los mensajes de error
+     * @param progress Recibe los bytes de cada fragmento escrito
+     * @throws IOException si hay error leyendo el archivo o enviando los fragmentos
+     */
+    private static void sendChunks(PeerConnection peerConnection, FileChannel channel, String transferId,
+                                   long size, BitSet received, File file, LongConsumer progress) throws IOException {
+        byte[] chunk = new byte[FILE_BLOCK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        CRC32 crc = new CRC32();
+        long blockCount = (size + FILE_BLOCK_SIZE - 1) / FILE_BLOCK_SIZE;
+
+        for (int block = received.nextClearBit(0); block < blockCount; block = received.nextClearBit(block + 1)) {
+            long offset = (long) block * FILE_BLOCK_SIZE;
+
+            buffer.clear();
+            buffer.limit((int) Math.min(FILE_BLOCK_SIZE, size - offset));
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("El archivo ha cambiado durante el envío: " + file.getName());
+                }
+            }
+
+            int length = buffer.position();
+            byte[] data = length == chunk.length ? chunk : Arrays.copyOf(chunk, length);
+
+            crc.reset();
+            crc.update(data, 0, length);
+
+            peerConnection.sendMessage(Message.createFileChunkMessage(transferId, offset, data, crc.getValue()));
+            progress.accept(length);
+        }
+    }
+
+}
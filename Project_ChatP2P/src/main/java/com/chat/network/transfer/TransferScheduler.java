@@ -0,0 +1,302 @@
+package com.chat.network.transfer;
+
+import com.chat.network.socket.ConnectionExecutor;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.chat.utils.Constants.TRANSFER_MAX_ACTIVE;
+import static com.chat.utils.Constants.TRANSFER_MAX_ACTIVE_PER_PEER;
+
+/**
+ * Planificador de los envíos de archivos.
+ * Los archivos se encolan por contacto y se envían en el ejecutor de red con un máximo de envíos
+ * simultáneos en total y por contacto. Cuando queda un hueco libre se atiende al siguiente contacto
+ * con archivos en cola, por turnos, para que un contacto con muchos archivos no acapare los envíos.
+ */
+public class TransferScheduler {
+
+    /** Propiedades **/
+    private final int maxActive;                                       // Envíos simultáneos en total
+    private final int maxActivePerPeer;                                // Envíos simultáneos por contacto
+    private final Map<String, Deque<OutgoingTransfer>> queues;         // Envíos en cola por ID del contacto, en orden de turno
+    private final Map<String, Integer> activeByPeer;                   // Envíos en curso por ID del contacto
+    private final List<OutgoingTransfer> active;                       // Envíos en curso
+    private final AtomicLong completedTransfers;                       // Envíos terminados, con o sin error
+    private final AtomicLong completedBytes;                           // Bytes enviados por los envíos terminados
+    private final Consumer<OutgoingTransfer> onFinished;               // Recibe cada envío terminado para informar de su ritmo
+
+    /**
+     * Constructor
+     * @param onFinished Recibe cada envío terminado, con o sin error
+     */
+    public TransferScheduler(Consumer<OutgoingTransfer> onFinished) {
+        this(TRANSFER_MAX_ACTIVE, TRANSFER_MAX_ACTIVE_PER_PEER, onFinished);
+    }
+
+    /** Constructor por parámetros **/
+    public TransferScheduler(int maxActive, int maxActivePerPeer, Consumer<OutgoingTransfer> onFinished) {
+        this.maxActive = maxActive;
+        this.maxActivePerPeer = maxActivePerPeer;
+        this.onFinished = onFinished;
+        this.queues = new LinkedHashMap<>();
+        this.activeByPeer = new HashMap<>();
+        this.active = new ArrayList<>();
+        this.completedTransfers = new AtomicLong();
+        this.completedBytes = new AtomicLong();
+    }
+
+    /**
+     * Encola el envío de un archivo a un contacto. El envío se ejecuta en cuanto haya hueco.
+     * Un mismo archivo no puede estar dos veces en cola o en curso para el mismo contacto: ambos
+     * envíos tendrían el mismo ID de transferencia y se quitarían la respuesta del receptor
+     * @param contactId ID del contacto
+     * @param file Archivo a enviar
+     * @param job Envío, que recibe la transferencia para informar de lo enviado
+     * @return Transferencia encolada, o null si ese archivo ya se está enviando a ese contacto
+     */
+    public OutgoingTransfer submit(String contactId, File file, Consumer<OutgoingTransfer> job) {
+        OutgoingTransfer transfer = new OutgoingTransfer(contactId, file, job);
+
+        synchronized (this) {
+            if (isPending(contactId, file)) return null;
+            queues.computeIfAbsent(contactId, id -> new ArrayDeque<>()).add(transfer);
+        }
+
+        dispatch();
+        return transfer;
+    }
+
+    /**
+     * Indica si un archivo está en cola o en curso para un contacto
+     */
+    private boolean isPending(String contactId, File file) {
+        File target = file.getAbsoluteFile();
+
+        for (OutgoingTransfer transfer : active) {
+            if (transfer.getContactId().equals(contactId) && transfer.getFile().getAbsoluteFile().equals(target)) {
+                return true;
+            }
+        }
+
+        Deque<OutgoingTransfer> queue = queues.get(contactId);
+        if (queue != null) {
+            for (OutgoingTransfer transfer : queue) {
+                if (transfer.getFile().getAbsoluteFile().equals(target)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Descarta los envíos en cola de un contacto. Los que ya están en curso terminan por su cuenta
+     * @param contactId ID del contacto
+     * @return Archivos que estaban en cola
+     */
+    public synchronized List<File> cancel(String contactId) {
+        Deque<OutgoingTransfer> queue = queues.remove(contactId);
+        if (queue == null) return List.of();
+
+        List<File> files = new ArrayList<>(queue.size());
+        for (OutgoingTransfer transfer : queue) {
+            files.add(transfer.getFile());
+        }
+        return files;
+    }
+
+    /**
+     * Lanza todos los envíos en cola que quepan en los límites
+     */
+    private void dispatch() {
+        List<OutgoingTransfer> started = new ArrayList<>();
+
+        synchronized (this) {
+            OutgoingTransfer next;
+            while (active.size() < maxActive && (next = pollNext()) != null) {
+                next.startNanos = System.nanoTime();
+                active.add(next);
+                activeByPeer.merge(next.getContactId(), 1, Integer::sum);
+                started.add(next);
+            }
+        }
+
+        for (OutgoingTransfer transfer : started) {
+            ConnectionExecutor.getInstance().execute(() -> run(transfer));
+        }
+    }
+
+    /**
+     * Saca de la cola el primer envío del primer contacto, por turnos, que no haya llegado a su límite.
+     * El contacto atendido pasa al final del turno
+     * @return Envío a lanzar, o null si no hay ninguno posible
+     */
+    private OutgoingTransfer pollNext() {
+        Iterator<Map.Entry<String, Deque<OutgoingTransfer>>> it = queues.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<String, Deque<OutgoingTransfer>> entry = it.next();
+            if (activeByPeer.getOrDefault(entry.getKey(), 0) >= maxActivePerPeer) continue;
+
+            Deque<OutgoingTransfer> queue = entry.getValue();
+            OutgoingTransfer next = queue.poll();
+            it.remove();
+
+            if (!queue.isEmpty()) {
+                queues.put(entry.getKey(), queue);
+            }
+            return next;
+        }
+
+        return null;
+    }
+
+    /**
+     * Ejecuta un envío y deja su hueco libre al terminar
+     * @param transfer Envío a ejecutar
+     */
+    private void run(OutgoingTransfer transfer) {
+        try {
+            transfer.job.accept(transfer);
+        } catch (RuntimeException ex) {
+            System.out.println("Error enviando " + transfer.getFile().getName() + ": " + ex.getMessage());
+        } finally {
+            transfer.endNanos = System.nanoTime();
+            completedTransfers.incrementAndGet();
+            completedBytes.addAndGet(transfer.getSentBytes());
+
+            synchronized (this) {
+                active.remove(transfer);
+                activeByPeer.computeIfPresent(transfer.getContactId(), (id, count) -> count > 1 ? count - 1 : null);
+            }
+
+            dispatch();
+            onFinished.accept(transfer);
+        }
+    }
+
+    /**
+     * Devuelve los envíos en curso
+     * @return Copia de los envíos en curso
+     */
+    public synchronized List<OutgoingTransfer> getActiveTransfers() {
+        return List.copyOf(active);
+    }
+
+    /**
+     * Devuelve cuántos envíos hay en cola para un contacto
+     * @param contactId ID del contacto
+     * @return Envíos en cola, sin contar los que están en curso
+     */
+    public synchronized int getQueueDepth(String contactId) {
+        Deque<OutgoingTransfer> queue = queues.get(contactId);
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas del planificador
+     * @return Métricas actuales
+     */
+    public synchronized Stats getStats() {
+        int queued = 0;
+        for (Deque<OutgoingTransfer> queue : queues.values()) {
+            queued += queue.size();
+        }
+
+        double bytesPerSecond = 0;
+        for (OutgoingTransfer transfer : active) {
+            bytesPerSecond += transfer.getBytesPerSecond();
+        }
+
+        return new Stats(active.size(), queued, completedTransfers.get(), completedBytes.get(), bytesPerSecond);
+    }
+
+    /** Envío de un archivo **/
+    public static class OutgoingTransfer {
+
+        private final String contactId;                 // ID del contacto
+        private final File file;                        // Archivo a enviar
+        private final Consumer<OutgoingTransfer> job;   // Envío a ejecutar
+        private final AtomicLong sentBytes;             // Bytes escritos en la conexión
+        private volatile long startNanos;               // Momento en que empezó, 0 si sigue en cola
+        private volatile long endNanos;                 // Momento en que terminó, 0 si no ha terminado
+
+        private OutgoingTransfer(String contactId, File file, Consumer<OutgoingTransfer> job) {
+            this.contactId = contactId;
+            this.file = file;
+            this.job = job;
+            this.sentBytes = new AtomicLong();
+        }
+
+        /**
+         * Suma los bytes de un trozo ya escrito
+         * @param bytes Bytes escritos
+         */
+        public void addSent(long bytes) {
+            sentBytes.addAndGet(bytes);
+        }
+
+        /**
+         * Ritmo medio del envío desde que empezó
+         * @return Bytes por segundo, 0 si aún no ha empezado
+         */
+        public double getBytesPerSecond() {
+            long start = startNanos;
+            if (start == 0) return 0;
+
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return end > start ? sentBytes.get() * 1_000_000_000.0 / (end - start) : 0;
+        }
+
+        /**
+         * Getters
+         */
+        public String getContactId() {
+            return contactId;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSentBytes() {
+            return sentBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d KB enviados a %s (%.1f KB/s)",
+                    file.getName(), getSentBytes() / 1024, contactId, getBytesPerSecond() / 1024);
+        }
+    }
+
+    /**
+     * Métricas del planificador
+     * @param activeTransfers Envíos en curso
+     * @param queuedTransfers Envíos en cola
+     * @param completedTransfers Envíos terminados, con o sin error
+     * @param completedBytes Bytes enviados por los envíos terminados
+     * @param bytesPerSecond Suma del ritmo de los envíos en curso
+     */
+    public record Stats(int activeTransfers,
+                        int queuedTransfers,
+                        long completedTransfers,
+                        long completedBytes,
+                        double bytesPerSecond) {
+
+        @Override
+        public String toString() {
+            return String.format("%d envíos en curso, %d en cola, %d terminados (%d KB), %.1f KB/s",
+                    activeTransfers, queuedTransfers, completedTransfers, completedBytes / 1024, bytesPerSecond / 1024);
+        }
+    }
+
+}
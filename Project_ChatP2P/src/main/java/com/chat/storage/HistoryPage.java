@@ -0,0 +1,38 @@
+package com.chat.storage;
+
+import com.chat.model.MessageEntry;
+
+import java.util.List;
+
+/**
+ * Página del historial de una Sesión de Chat, de más antiguo a más reciente.
+ * Guarda la posición de su mensaje más antiguo para pedir la página anterior
+ *
+ * @param entries Mensajes de la página
+ * @param oldestTimestamp Momento del mensaje más antiguo de la página
+ * @param oldestId ID en la base de datos del mensaje más antiguo de la página
+ * @param hasMore True si hay mensajes anteriores a esta página
+ */
+public record HistoryPage(List<MessageEntry> entries,
+                          long oldestTimestamp,
+                          long oldestId,
+                          boolean hasMore) {
+
+    /** Página sin mensajes **/
+    public static final HistoryPage EMPTY = new HistoryPage(List.of(), Long.MAX_VALUE, Long.MAX_VALUE, false);
+
+    /**
+     * Cursor para cargar los mensajes anteriores a uno guardado
+     * @param timestamp Momento del mensaje (milisegundos desde epoch)
+     * @param id ID del mensaje en la base de datos
+     * @return Página vacía que apunta a ese mensaje
+     */
+    public static HistoryPage before(long timestamp, long id) {
+        return new HistoryPage(List.of(), timestamp, id, true);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+}
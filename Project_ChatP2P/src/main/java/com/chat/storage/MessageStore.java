@@ -0,0 +1,358 @@
+package com.chat.storage;
+
+import com.chat.model.Message;
+import com.chat.model.MessageEntry;
+import com.chat.model.User;
+import com.chat.network.codec.BinaryMessageCodec;
+import com.chat.network.codec.MessageCodec;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.chat.utils.Constants.DATABASE_URL;
+import static com.chat.utils.Constants.MESSAGE_STORE_BATCH_SIZE;
+
+/**
+ * Historial de mensajes persistente en SQLite.
+ *
+ * Los mensajes se encolan al añadirlos y un hilo propio los inserta por lotes,
+ * una transacción por lote, para no bloquear la recepción ni la interfaz.
+ * La base de datos usa WAL para que las lecturas no esperen a las escrituras.
+ * El mensaje se guarda con el mismo codec binario que se usa entre Peers.
+ *
+ * Si SQLite no está disponible el historial sigue funcionando solo en memoria.
+ */
+public class MessageStore {
+
+    /** Sentencias **/
+    private static final String CREATE_TABLE =
+            "CREATE TABLE IF NOT EXISTS messages ("
+            + " id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + " session_id TEXT NOT NULL,"
+            + " timestamp INTEGER NOT NULL,"
+            + " sender_id TEXT,"
+            + " sender_name TEXT,"
+            + " payload BLOB NOT NULL)";
+
+    // El índice incluye implícitamente el rowid (id), por lo que también ordena los empates
+    private static final String CREATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_messages_session_timestamp ON messages (session_id, timestamp)";
+
+    private static final String INSERT =
+            "INSERT INTO messages (session_id, timestamp, sender_id, sender_name, payload) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SELECT_PAGE =
+            "SELECT id, timestamp, sender_id, sender_name, payload FROM messages"
+            + " WHERE session_id = ? AND (timestamp < ? OR (timestamp = ? AND id < ?))"
+            + " ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    /** Propiedades **/
+    private static MessageStore instance;                     // Singleton del historial
+
+    private final MessageCodec codec;                         // Codec de los mensajes guardados
+    private final BlockingQueue<PendingEntry> pending;        // Mensajes pendientes de guardar
+    private final ReentrantLock databaseLock;                 // Acceso a la conexión
+    private Connection connection;                            // Conexión a SQLite, null si no está disponible
+
+    /** Constructor privado Singleton **/
+    private MessageStore(String url) {
+        this.codec = new BinaryMessageCodec();
+        this.pending = new LinkedBlockingQueue<>();
+        this.databaseLock = new ReentrantLock();
+
+        open(url);
+
+        if (connection != null) {
+            Thread writer = new Thread(this::writeLoop, "chat-message-store");
+            writer.setDaemon(true);
+            writer.start();
+
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "chat-message-store-flush"));
+        }
+    }
+
+    /**
+     * Inicializa y devuelve el Singleton del historial
+     * @return Singleton del historial
+     */
+    public static synchronized MessageStore getInstance() {
+        if (instance == null) {
+            instance = new MessageStore(DATABASE_URL);
+        }
+        return instance;
+    }
+
+    /**
+     * Abre la base de datos y crea la tabla y el índice si no existen
+     * @param url URL JDBC de la base de datos
+     */
+    private void open(String url) {
+        try {
+            connection = DriverManager.getConnection(url);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute(CREATE_TABLE);
+                statement.execute(CREATE_INDEX);
+            }
+        } catch (SQLException ex) {
+            System.out.println("Historial no disponible, los mensajes no se guardarán: " + ex.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Encola un mensaje para guardarlo en el historial de una sesión
+     * @param sessionId ID de la Sesión de Chat
+     * @param entry Entrada de mensaje
+     */
+    public void append(String sessionId, MessageEntry entry) {
+        if (connection == null) return;
+
+        pending.add(new PendingEntry(sessionId, entry));
+    }
+
+    /**
+     * Carga los mensajes más recientes de una sesión
+     * @param sessionId ID de la Sesión de Chat
+     * @param limit Máximo de mensajes
+     * @return Página con los mensajes, de más antiguo a más reciente
+     */
+    public HistoryPage loadLatest(String sessionId, int limit) {
+        return loadBefore(sessionId, HistoryPage.EMPTY, limit);
+    }
+
+    /**
+     * Carga los mensajes anteriores a una página
+     * @param sessionId ID de la Sesión de Chat
+     * @param page Página ya cargada
+     * @param limit Máximo de mensajes
+     * @return Página anterior, de más antiguo a más reciente
+     */
+    public HistoryPage loadBefore(String sessionId, HistoryPage page, int limit) {
+        if (connection == null || limit <= 0) return HistoryPage.EMPTY;
+
+        databaseLock.lock();
+        try {
+            writePending();
+
+            List<MessageEntry> entries = new ArrayList<>(limit);
+            long oldestTimestamp = page.oldestTimestamp();
+            long oldestId = page.oldestId();
+            boolean hasMore = false;
+
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_PAGE)) {
+                statement.setString(1, sessionId);
+                statement.setLong(2, page.oldestTimestamp());
+                statement.setLong(3, page.oldestTimestamp());
+                statement.setLong(4, page.oldestId());
+                statement.setInt(5, limit + 1);
+
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        if (entries.size() == limit) {
+                            hasMore = true;
+                            break;
+                        }
+
+                        MessageEntry entry = readEntry(rows);
+                        if (entry == null) continue;
+
+                        entries.add(entry);
+                        oldestTimestamp = rows.getLong("timestamp");
+                        oldestId = rows.getLong("id");
+                    }
+                }
+            }
+
+            Collections.reverse(entries);
+            return new HistoryPage(entries, oldestTimestamp, oldestId, hasMore);
+        } catch (SQLException ex) {
+            System.out.println("Error cargando el historial de " + sessionId + ": " + ex.getMessage());
+            return HistoryPage.EMPTY;
+        } finally {
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Guarda todos los mensajes pendientes
+     */
+    public void flush() {
+        if (connection == null) return;
+
+        databaseLock.lock();
+        try {
+            writePending();
+        } finally {
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Hilo de escritura: espera mensajes y los guarda por lotes
+     */
+    private void writeLoop() {
+        while (true) {
+            try {
+                PendingEntry first = pending.take();
+
+                databaseLock.lock();
+                try {
+                    List<PendingEntry> batch = new ArrayList<>();
+                    batch.add(first);
+                    pending.drainTo(batch, MESSAGE_STORE_BATCH_SIZE - 1);
+                    writeBatch(batch);
+
+                    writePending();
+                } finally {
+                    databaseLock.unlock();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Guarda por lotes los mensajes que haya en la cola. Debe llamarse con el cerrojo tomado
+     */
+    private void writePending() {
+        List<PendingEntry> batch = new ArrayList<>();
+
+        while (pending.drainTo(batch, MESSAGE_STORE_BATCH_SIZE) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Inserta un lote de mensajes en una sola transacción. Debe llamarse con el cerrojo tomado
+     * @param batch Lote de mensajes
+     */
+    private void writeBatch(List<PendingEntry> batch) {
+        if (connection == null || batch.isEmpty()) return;
+
+        try {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                for (PendingEntry pendingEntry : batch) {
+                    MessageEntry entry = pendingEntry.entry();
+                    User sender = entry.getSender();
+
+                    statement.setString(1, pendingEntry.sessionId());
+                    statement.setLong(2, entry.getTimestampMillis());
+                    statement.setString(3, sender != null ? sender.getUserId() : null);
+                    statement.setString(4, sender != null ? sender.getUsername() : null);
+                    statement.setBytes(5, codec.encode(entry.getMessage()));
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+            }
+
+            // Con un solo escritor y AUTOINCREMENT los IDs del lote son consecutivos
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT last_insert_rowid()")) {
+                long id = rows.next() ? rows.getLong(1) - batch.size() + 1 : 0;
+                connection.commit();
+
+                if (id > 0) {
+                    for (PendingEntry pendingEntry : batch) {
+                        pendingEntry.entry().setStoreId(id++);
+                    }
+                }
+            }
+        } catch (SQLException | IOException ex) {
+            System.out.println("Error guardando " + batch.size() + " mensajes en el historial: " + ex.getMessage());
+            rollback();
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                // La conexión ya no es utilizable, se informa en el siguiente lote
+            }
+        }
+    }
+
+    /**
+     * Reconstruye una entrada de mensaje a partir de una fila
+     * @param rows Resultado posicionado en la fila
+     * @return Entrada de mensaje, o null si el mensaje no se puede decodificar
+     */
+    private MessageEntry readEntry(ResultSet rows) throws SQLException {
+        String senderId = rows.getString("sender_id");
+        String senderName = rows.getString("sender_name");
+
+        try {
+            Message message = codec.decode(rows.getBytes("payload"));
+            MessageEntry entry = new MessageEntry(resolveSender(senderId, senderName), message, rows.getLong("timestamp"));
+            entry.setStoreId(rows.getLong("id"));
+            return entry;
+        } catch (IOException ex) {
+            System.out.println("Mensaje del historial no válido: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Devuelve el usuario que envió un mensaje guardado
+     * @param senderId ID del usuario
+     * @param senderName Nombre del usuario
+     * @return Usuario actual si lo envió él, o un usuario con su ID y nombre
+     */
+    private User resolveSender(String senderId, String senderName) {
+        User currentUser = User.getCurrentUser();
+        if (currentUser.getUserId().equals(senderId)) {
+            return currentUser;
+        }
+
+        return new User(senderId, senderName, null, 0, null);
+    }
+
+    /** Deshace la transacción en curso **/
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            System.out.println("Error deshaciendo la transacción del historial: " + ex.getMessage());
+        }
+    }
+
+    /** Cierra la conexión y deja el historial solo en memoria **/
+    private void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                // Se descarta la conexión igualmente
+            }
+        }
+        connection = null;
+    }
+
+    /**
+     * Getter
+     */
+    public boolean isAvailable() {
+        return connection != null;
+    }
+
+    /** Mensaje pendiente de guardar **/
+    private record PendingEntry(String sessionId, MessageEntry entry) { }
+
+}
@@ -10,7 +10,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.chat.model.Message;
-import com.chat.model.Message.MessageType;
 import com.chat.model.MessageEntry;
 import com.chat.model.User;
 import java.io.File;
@@ -28,34 +27,82 @@ public class Chat {
     
     private String selectedContactId;              // Contacto seleccionado
     
+    private final ConsoleRenderer renderer;        // Salida de los mensajes del chat
+    
     public Chat() {
         this.scanner = new Scanner(System.in);
+        this.renderer = new ConsoleRenderer();
         this.contacts = new CopyOnWriteArrayList<>();
         this.contactStatuses = new ConcurrentHashMap<>();
     }
     
+    /**
+     * Muestra el historial completo de un chat, al seleccionarlo.
+     * Los mensajes que llegan después se añaden con {@link #appendMessages(List)}
+     * 
+     * @param messageHistory Historial de mensajes
+     */
     public void displayChat(List<MessageEntry> messageHistory) {
-        System.out.println("\n=== CHAT ===");
-        System.out.println("----------------------------------------");
+        StringBuilder text = new StringBuilder();
+        text.append("\n=== CHAT ===\n");
+        text.append("----------------------------------------\n");
         
-        if (messageHistory.size() > 0) {
-            for (MessageEntry messageEntry : messageHistory) {
-                MessageType messageType = messageEntry.getMessage().getType();
-                
-                switch(messageType){
-                    case Message.MessageType.TEXT:
-                        displayTextMessage(messageEntry);
-                        break;
-                    case Message.MessageType.FILE:
-                        displayFileMessage(messageEntry);
-                        break;
-                    default:
-                        return;
-                }
-            }
+        for (MessageEntry messageEntry : messageHistory) {
+            text.append(formatMessage(messageEntry));
         }
         
-        System.out.println("----------------------------------------");
+        text.append("----------------------------------------\n");
+        
+        renderer.clearScrollback();
+        renderer.print(text.toString());
+    }
+    
+    /**
+     * Añade al chat solo los mensajes nuevos, sin volver a escribir el historial
+     * 
+     * @param messageEntries Mensajes nuevos, en orden
+     */
+    public void appendMessages(List<MessageEntry> messageEntries) {
+        StringBuilder text = new StringBuilder();
+        for (MessageEntry messageEntry : messageEntries) {
+            text.append(formatMessage(messageEntry));
+        }
+        
+        if (!text.isEmpty()) {
+            renderer.print(text.toString());
+        }
+    }
+    
+    /**
+     * Muestra una página anterior del historial. En consola no se puede escribir
+     * por encima, así que se muestra como un bloque aparte
+     * 
+     * @param messageEntries Mensajes de más antiguo a más reciente
+     */
+    public void displayOlderMessages(List<MessageEntry> messageEntries) {
+        StringBuilder text = new StringBuilder();
+        text.append("\n=== MENSAJES ANTERIORES ===\n");
+        
+        for (MessageEntry messageEntry : messageEntries) {
+            text.append(formatMessage(messageEntry));
+        }
+        
+        text.append("---------------------------\n");
+        renderer.print(text.toString());
+    }
+    
+    /**
+     * Da formato a un mensaje según su tipo
+     * 
+     * @param messageEntry Entrada de mensaje
+     * @return Líneas a mostrar, o vacío si no es un mensaje del chat
+     */
+    private String formatMessage(MessageEntry messageEntry) {
+        return switch (messageEntry.getMessage().getType()) {
+            case TEXT -> formatTextMessage(messageEntry);
+            case FILE -> formatFileMessage(messageEntry);
+            default -> "";
+        };
     }
     
     public void setContactsList(List<User> contacts) {
@@ -75,7 +122,21 @@ public class Chat {
         displayContacts();
     }
     
+    /**
+     * Muestra el informe de métricas, con las de la propia consola al final
+     * 
+     * @param report Informe de la aplicación, una línea por componente
+     */
+    public void displayStats(String report) {
+        renderer.flush();
+        System.out.println("\n=== MÉTRICAS ===");
+        System.out.print(report);
+        System.out.println("Consola: " + renderer.getStats());
+        System.out.println("----------------------------------------");
+    }
+    
     public void displayContacts() {
+        renderer.flush();
         System.out.println("\n=== CONTACTOS ===");
         System.out.println("----------------------------------------");
         
@@ -101,22 +162,40 @@ public class Chat {
     }
     
     public void displayTextMessage(MessageEntry messageEntry) {
+        renderer.print(formatTextMessage(messageEntry));
+    }
+    
+    public void displaySystemMessage(String message) {
+        renderer.print("SISTEMA: " + message + "\n");
+    }
+
+    /**
+     * Muestra un aviso detrás de los mensajes pendientes y lo escribe ya, para que no quede
+     * por detrás de lo que se escriba directamente en System.out (menús y formularios)
+     * @param notice Aviso con su prefijo
+     */
+    public void displayNotice(String notice) {
+        renderer.print(notice + "\n");
+        renderer.flush();
+    }
+    
+    public void displayFileMessage(MessageEntry messageEntry) {
+        renderer.print(formatFileMessage(messageEntry));
+    }
+    
+    private String formatTextMessage(MessageEntry messageEntry) {
         String senderUsername = messageEntry.getSender().getUsername();
         if (senderUsername.equals(User.getCurrentUser().getUsername())) {
             senderUsername = "Yo";
         }
             
-        System.out.printf("[%s] %s: %s\n", 
+        return String.format("[%s] %s: %s\n", 
             messageEntry.getTimestamp(),
             senderUsername, 
             messageEntry.getMessage().getContent());
     }
     
-    public void displaySystemMessage(String message) {
-        System.out.println("SISTEMA: " + message);
-    }
-    
-    public void displayFileMessage(MessageEntry messageEntry) {
+    private String formatFileMessage(MessageEntry messageEntry) {
         Message message = messageEntry.getMessage();
         User sender = messageEntry.getSender();
         
@@ -128,21 +207,21 @@ public class Chat {
         String senderUsername = sender.getUsername();
         
         if (senderUsername.equals(User.getCurrentUser().getUsername())) {
-            System.out.printf("\n[%s] Yo: He enviado un archivo: %s (%s)\n",
+            return String.format("\n[%s] Yo: He enviado un archivo: %s (%s)\n",
                 messageEntry.getTimestamp(),
                 fileName,
                 formattedSize);
-        } else {
-            File downloadsDir = new File("downloads");
-            File downloadedFile = new File(downloadsDir, fileName);
-            
-            System.out.printf("\n[%s] %s: Ha enviado un archivo: %s (%s)\nGuardado en: %s\n",
-                messageEntry.getTimestamp(),
-                senderUsername,
-                fileName,
-                formattedSize,
-                downloadedFile.getAbsolutePath());
         }
+        
+        File downloadsDir = new File("downloads");
+        File downloadedFile = new File(downloadsDir, fileName);
+        
+        return String.format("\n[%s] %s: Ha enviado un archivo: %s (%s)\nGuardado en: %s\n",
+            messageEntry.getTimestamp(),
+            senderUsername,
+            fileName,
+            formattedSize,
+            downloadedFile.getAbsolutePath());
     }
     
     private String formatFileSize(long bytes) {
@@ -174,23 +253,34 @@ public class Chat {
     public void setVisible(boolean visible) {
         if (visible) {
             clearScreen();
+            renderer.redraw();
         }
     }
     
+    /**
+     * Getter
+     */
+    public ConsoleRenderer getRenderer() {
+        return renderer;
+    }
+    
     private void clearScreen() {
         System.out.print("\033[H\033[2J");
         System.out.flush();
     }
     
     public void showCommands() {
+        renderer.flush();
         System.out.println("\nComandos disponibles:");
         System.out.println("/contacts - Mostrar contactos");
         System.out.println("/addcontact - Agregar contacto");
         System.out.println("/connect <ip> <puerto> - Conectar con un contacto");
         System.out.println("/disconnect <id> - Desconectar con un contacto");
         System.out.println("/select <id> - Seleccionar contacto");
+        System.out.println("/more - Ver mensajes anteriores del chat");
         System.out.println("/file <ruta> - Mandar archivo durante un chat");
         System.out.println("/id - Ver mi propio ID");
+        System.out.println("/stats - Ver métricas de la aplicación");
         System.out.println("/help - Mostrar comandos");
         System.out.println("/exit - Salir");
         System.out.println("");
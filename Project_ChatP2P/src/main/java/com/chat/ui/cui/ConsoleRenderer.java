@@ -0,0 +1,131 @@
+package com.chat.ui.cui;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.chat.utils.Constants.CONSOLE_FLUSH_MILLIS;
+import static com.chat.utils.Constants.CONSOLE_FLUSH_SIZE;
+import static com.chat.utils.Constants.CONSOLE_SCROLLBACK_LINES;
+import static com.chat.utils.Constants.CONSOLE_SCROLLBACK_PROPERTY;
+
+/**
+ * Salida del chat por consola.
+ * Las líneas se acumulan y se escriben en System.out de una vez, como mucho cada
+ * {@link com.chat.utils.Constants#CONSOLE_FLUSH_MILLIS}, así una ráfaga de mensajes no hace
+ * una escritura por línea. Además guarda las últimas líneas escritas (la ventana de scrollback)
+ * para volver a pintarlas al limpiar la pantalla sin recorrer el historial.
+ */
+public class ConsoleRenderer {
+
+    /** Propiedades **/
+    private final StringBuilder pending;                 // Texto aún sin escribir
+    private final Deque<String> scrollback;              // Últimas líneas escritas
+    private final int scrollbackLines;                   // Tamaño de la ventana, 0 si no se guarda
+    private boolean scheduled;                           // Hay una escritura programada
+    private long lastFlushMillis;                        // Momento de la última escritura
+    private long writes;                                 // Escrituras hechas en System.out
+    private long lines;                                  // Líneas escritas
+
+    /** Constructor por defecto: el tamaño de la ventana se puede cambiar con chat.console.scrollback **/
+    public ConsoleRenderer() {
+        this(Math.max(0, Integer.getInteger(CONSOLE_SCROLLBACK_PROPERTY, CONSOLE_SCROLLBACK_LINES)));
+    }
+
+    /** Constructor por parámetros **/
+    public ConsoleRenderer(int scrollbackLines) {
+        this.pending = new StringBuilder();
+        this.scrollback = new ArrayDeque<>();
+        this.scrollbackLines = scrollbackLines;
+    }
+
+    /**
+     * Añade texto a la salida. Se escribe en el siguiente vaciado
+     * @param text Texto terminado en salto de línea
+     */
+    public synchronized void print(String text) {
+        pending.append(text);
+        remember(text);
+
+        if (pending.length() >= CONSOLE_FLUSH_SIZE) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            long delay = Math.max(0, lastFlushMillis + CONSOLE_FLUSH_MILLIS - System.currentTimeMillis());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::flush);
+        }
+    }
+
+    /**
+     * Escribe lo pendiente en System.out
+     */
+    public synchronized void flush() {
+        scheduled = false;
+        if (pending.isEmpty()) return;
+
+        System.out.print(pending);
+        System.out.flush();
+        pending.setLength(0);
+        lastFlushMillis = System.currentTimeMillis();
+        writes++;
+    }
+
+    /**
+     * Vuelve a escribir la ventana de scrollback, por ejemplo después de limpiar la pantalla
+     */
+    public synchronized void redraw() {
+        pending.setLength(0);
+        for (String line : scrollback) {
+            pending.append(line).append('\n');
+        }
+        flush();
+    }
+
+    /**
+     * Vacía la ventana de scrollback, al cambiar de chat
+     */
+    public synchronized void clearScrollback() {
+        scrollback.clear();
+    }
+
+    /**
+     * Guarda las líneas de un texto en la ventana de scrollback
+     */
+    private void remember(String text) {
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            lines++;
+            if (scrollbackLines > 0) {
+                scrollback.addLast(text.substring(start, end));
+                if (scrollback.size() > scrollbackLines) scrollback.removeFirst();
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Devuelve una instantánea de las métricas de la salida
+     * @return Métricas actuales
+     */
+    public synchronized Stats getStats() {
+        return new Stats(lines, writes, scrollback.size());
+    }
+
+    /**
+     * Métricas de la salida por consola
+     * @param lines Líneas escritas
+     * @param writes Escrituras hechas en System.out
+     * @param scrollbackLines Líneas guardadas en la ventana de scrollback
+     */
+    public record Stats(long lines, long writes, int scrollbackLines) {
+
+        @Override
+        public String toString() {
+            return String.format("%d líneas en %d escrituras, %d en scrollback",
+                    lines, writes, scrollbackLines);
+        }
+    }
+
+}
@@ -4,6 +4,10 @@ import com.chat.model.Message;
 import com.chat.model.Message.MessageType;
 import com.chat.model.MessageEntry;
 import com.chat.model.User;
+import com.chat.controller.ChatManager;
+import com.components.contactPanel.ContactCellRenderer;
+import com.components.contactPanel.ContactItem;
+import com.components.contactPanel.ContactListModel;
 import com.components.contactPanel.ContactPanel;
 
 import java.awt.*;
@@ -11,10 +15,12 @@ import java.io.File;
 
 
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+import static com.chat.utils.Constants.CHAT_MAX_LINES;
 
 
 /**
@@ -26,20 +32,19 @@ public class Chat extends javax.swing.JFrame {
     /** Propiedades **/
     int xMouse, yMouse;
     
-    List<User> contacts;                            // Lista de contactos
-    Map<String, ContactPanel> contactsPanels;       // Lista de contactos
+    ContactListModel contactListModel;              // Lista de contactos
+    ContactCellRenderer contactCellRenderer;        // Pinta las filas de la lista de contactos
+    JList<ContactItem> lstContacts;                 // Lista de contactos visible
 
     /**
      * Constructor
      */
     public Chat() {
-        contacts = new CopyOnWriteArrayList<>();
-        contactsPanels = new ConcurrentHashMap<>();
-        
         initComponents();
         setLocationRelativeTo(null);
         
         setTextAreaConfig();
+        setContactListConfig();
     }
     
     /** Configura los ajustes del TextArea del Chat **/
@@ -48,14 +53,75 @@ public class Chat extends javax.swing.JFrame {
         TxtChatArea.setFont(new Font("Arial", Font.PLAIN, 16));
         TxtChatArea.setForeground(Color.BLACK);
         TxtChatArea.setDisabledTextColor(Color.BLACK);
+
+        // Al llegar arriba del todo se carga la página anterior del historial
+        JScrollBar scrollBar = jScrollPaneChatArea.getVerticalScrollBar();
+        scrollBar.addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == 0
+                    && scrollBar.getMaximum() > scrollBar.getVisibleAmount()) {
+                ChatManager.getInstance().handleLoadOlderMessages();
+            }
+        });
+    }
+
+    /**
+     * Sustituye el panel de contactos por una lista que solo pinta las filas visibles
+     */
+    private void setContactListConfig(){
+        contactListModel = new ContactListModel();
+        contactCellRenderer = new ContactCellRenderer(contactListModel);
+        
+        lstContacts = new JList<>(contactListModel);
+        lstContacts.setCellRenderer(contactCellRenderer);
+        lstContacts.setFixedCellHeight(45);
+        lstContacts.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        lstContacts.setBackground(Color.WHITE);
+        lstContacts.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                handleContactClick(evt.getPoint());
+            }
+        });
+        
+        jScrollPaneContacts.setViewportView(lstContacts);
     }
 
     /** Métodos adicionales **/
     public void setContactsList(List<User> contacts){
-        SwingUtilities.invokeLater(() -> {
-            this.contacts = contacts;
-            displayContacts();
-        });
+        SwingUtilities.invokeLater(() -> contactListModel.setContacts(contacts));
+    }
+    
+    /**
+     * Atiende un clic en la lista de contactos: el botón conecta o desconecta
+     * y el resto de la fila selecciona el Chat del contacto
+     * 
+     * @param point Punto del clic en la lista
+     */
+    private void handleContactClick(Point point) {
+        int index = lstContacts.locationToIndex(point);
+        if (index < 0) return;
+        
+        Rectangle cell = lstContacts.getCellBounds(index, index);
+        if (cell == null || !cell.contains(point)) return;
+        
+        ContactItem item = contactListModel.getElementAt(index);
+        ContactPanel panel = contactCellRenderer.getPanel();
+        panel.showContact(item);
+        panel.setSize(cell.width, cell.height);
+        panel.doLayout();
+        
+        Point inCell = new Point(point.x - cell.x, point.y - cell.y);
+        ChatManager chatManager = ChatManager.getInstance();
+        
+        if (panel.getConnectButtonBounds().contains(inCell)) {
+            if (!item.connected()) {
+                chatManager.handleConnectionToPeer(item.user().getIp(), item.user().getPort());
+            } else if (item.peerId() != null) {
+                chatManager.handleDisconnection(item.contactId(), item.peerId());
+            }
+        } else if (item.peerId() != null) {
+            chatManager.handleSelectedContact(item.peerId());
+        }
     }
 
     /**
@@ -97,26 +163,61 @@ public class Chat extends javax.swing.JFrame {
     /** Actualizar interfaz **/
     
     public void displayTextMessage(MessageEntry messageEntry) {
-        String content = TxtChatArea.getText();
-        String senderUsername = messageEntry.getSender().getUsername();
-        if (senderUsername.equals(User.getCurrentUser().getUsername())) {
-                    senderUsername = "Yo";
-        }
-        
-        String message =
-            "\s[" + messageEntry.getTimestamp() + "] " + 
-            senderUsername + ": " + 
-            messageEntry.getMessage().getContent() + "\n";
-
-        TxtChatArea.setText(content + message);
+        appendLines(formatTextMessage(messageEntry));
     }
     
     public void displaySystemMessage(String message) {
-        String content = TxtChatArea.getText();
-        TxtChatArea.setText(content + System.lineSeparator() + "SERVER: " + message);
+        appendLines("SERVER: " + message + "\n");
     }
     
     public void displayFileMessage(MessageEntry messageEntry) {
+        appendLines(formatFileMessage(messageEntry));
+    }
+
+    /**
+     * Añade varios mensajes nuevos al Chat con una sola inserción en el documento
+     * 
+     * @param messageEntries Mensajes de texto o de archivo, en orden
+     */
+    public void displayMessages(List<MessageEntry> messageEntries) {
+        int first = Math.max(0, messageEntries.size() - CHAT_MAX_LINES);
+        StringBuilder text = new StringBuilder();
+
+        for (MessageEntry messageEntry : messageEntries.subList(first, messageEntries.size())) {
+            if (messageEntry.getMessage().getType() == MessageType.FILE) {
+                text.append(formatFileMessage(messageEntry));
+            } else {
+                text.append(formatTextMessage(messageEntry));
+            }
+        }
+
+        appendLines(text.toString());
+    }
+
+    /**
+     * Da formato a una entrada de mensaje de texto
+     * 
+     * @param messageEntry Entrada de mensaje
+     * @return Línea a mostrar
+     */
+    private String formatTextMessage(MessageEntry messageEntry) {
+        String senderUsername = messageEntry.getSender().getUsername();
+        if (senderUsername.equals(User.getCurrentUser().getUsername())) {
+                    senderUsername = "Yo";
+        }
+        
+        return "\s[" + messageEntry.getTimestamp() + "] " + 
+               senderUsername + ": " + 
+               messageEntry.getMessage().getContent() + "\n";
+    }
+
+    /**
+     * Da formato a una entrada de mensaje de archivo
+     * 
+     * @param messageEntry Entrada de mensaje
+     * @return Líneas a mostrar
+     */
+    private String formatFileMessage(MessageEntry messageEntry) {
         Message message = messageEntry.getMessage();
         User sender = messageEntry.getSender();
 
@@ -128,28 +229,87 @@ public class Chat extends javax.swing.JFrame {
         String senderUsername = sender.getUsername();
         boolean isSentByMe = senderUsername.equals(User.getCurrentUser().getUsername());
 
-        String fileInfo;
-
         if (isSentByMe) {
-            fileInfo = String.format("\s[%s] Yo: He enviado un archivo: %s (%s)", 
+            return String.format("\s[%s] Yo: He enviado un archivo: %s (%s)\n", 
                                     messageEntry.getTimestamp(),
                                     fileName, 
                                     formattedSize);
-        } else {
-            File downloadsDir = new File("downloads");
-            File downloadedFile = new File(downloadsDir, fileName);
+        }
 
-            fileInfo = String.format("\s[%s] %s: Ha enviado un archivo: %s (%s)\nGuardado en: %s", 
-                                    messageEntry.getTimestamp(),
-                                    senderUsername, 
-                                    fileName, 
-                                    formattedSize,
-                                    downloadedFile.getAbsolutePath());
+        File downloadsDir = new File("downloads");
+        File downloadedFile = new File(downloadsDir, fileName);
+
+        return String.format("\s[%s] %s: Ha enviado un archivo: %s (%s)\nGuardado en: %s\n", 
+                                messageEntry.getTimestamp(),
+                                senderUsername, 
+                                fileName, 
+                                formattedSize,
+                                downloadedFile.getAbsolutePath());
+    }
+
+    /**
+     * Añade delante del Chat una página anterior del historial.
+     * No se recorta: el máximo de líneas se vuelve a aplicar con el siguiente mensaje nuevo
+     * 
+     * @param messageEntries Mensajes de más antiguo a más reciente
+     */
+    public void displayOlderMessages(List<MessageEntry> messageEntries) {
+        StringBuilder text = new StringBuilder();
+        for (MessageEntry messageEntry : messageEntries) {
+            if (messageEntry.getMessage().getType() == MessageType.FILE) {
+                text.append(formatFileMessage(messageEntry));
+            } else {
+                text.append(formatTextMessage(messageEntry));
+            }
+        }
+
+        Document document = TxtChatArea.getDocument();
+        try {
+            document.insertString(0, text.toString(), null);
+        } catch (BadLocationException ex) {
+            System.out.println("Error mostrando el historial: " + ex.getMessage());
+        }
+
+        // Se deja a la vista el punto donde empezaba el chat antes de cargar la página
+        TxtChatArea.setCaretPosition(text.length());
+    }
+
+    /**
+     * Añade texto al final del Chat sin copiar lo que ya se muestra.
+     * Si se supera el máximo de líneas visibles se quitan las más antiguas.
+     * Se ejecuta siempre en el hilo de Swing
+     * 
+     * @param text Texto a añadir, terminado en salto de línea
+     */
+    private void appendLines(String text) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> appendLines(text));
+            return;
         }
 
-        String content = TxtChatArea.getText();
-        TxtChatArea.setText(content + System.lineSeparator() + fileInfo);
-        TxtChatArea.setCaretPosition(TxtChatArea.getDocument().getLength());
+        Document document = TxtChatArea.getDocument();
+        try {
+            document.insertString(document.getLength(), text, null);
+            trimLines(document);
+        } catch (BadLocationException ex) {
+            System.out.println("Error mostrando el mensaje: " + ex.getMessage());
+        }
+
+        TxtChatArea.setCaretPosition(document.getLength());
+    }
+
+    /**
+     * Quita las líneas más antiguas del Chat hasta dejar el máximo permitido
+     * 
+     * @param document Documento del Chat
+     */
+    private void trimLines(Document document) throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        int excess = root.getElementCount() - CHAT_MAX_LINES;
+        if (excess <= 0) return;
+
+        int end = root.getElement(excess - 1).getEndOffset();
+        document.remove(0, Math.min(end, document.getLength()));
     }
 
     /**
@@ -174,78 +334,46 @@ public class Chat extends javax.swing.JFrame {
         }
     }
             
-    private void displayContacts() {
-        pnlContacts.removeAll();
-
-        for (User contact : contacts) {
-            ContactPanel panel = new ContactPanel(contact);
-            pnlContacts.add(panel);
-            
-            contactsPanels.put(contact.getUserId(), panel);
+    /**
+     * Muestra el historial de un Chat. Solo se pintan los últimos mensajes,
+     * los que caben en el máximo de líneas visibles
+     * 
+     * @param messageHistory Historial de mensajes
+     */
+    public void displayChat(List<MessageEntry> messageHistory) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> displayChat(messageHistory));
+            return;
         }
-        
-        pnlContacts.add(Box.createVerticalGlue());
 
-        pnlContacts.revalidate();
-        pnlContacts.repaint();
-    }
-    
-    public void displayChat(List<MessageEntry> messageHistory) {
-        TxtChatArea.setText("");
+        int first = Math.max(0, messageHistory.size() - CHAT_MAX_LINES);
+        StringBuilder text = new StringBuilder();
         
-        if (messageHistory.size() > 0) {
-            for (MessageEntry messageEntry : messageHistory) {
-                MessageType messageType = messageEntry.getMessage().getType();
-                
-                switch(messageType){
-                    case MessageType.TEXT:
-                        displayTextMessage(messageEntry);
-                        break;
-                    case MessageType.FILE:
-                        displayFileMessage(messageEntry);
-                        break;
-                    default:
-                        return;
-                }
+        for (MessageEntry messageEntry : messageHistory.subList(first, messageHistory.size())) {
+            MessageType messageType = messageEntry.getMessage().getType();
+            
+            switch(messageType){
+                case MessageType.TEXT:
+                    text.append(formatTextMessage(messageEntry));
+                    break;
+                case MessageType.FILE:
+                    text.append(formatFileMessage(messageEntry));
+                    break;
+                default:
+                    break;
             }
         }
         
+        TxtChatArea.setText("");
+        appendLines(text.toString());
     }
 
     public void createPanelContact(User contact, String peerId) {
-        ContactPanel panel = contactsPanels.get(contact.getUserId());
-        if (panel != null) return;
-        
-        panel = new ContactPanel(contact);
-        panel.setConnected(peerId);
-        contactsPanels.put(contact.getUserId(), panel);
-
-        removeGlue();
-
-        pnlContacts.add(panel);
-        pnlContacts.add(Box.createVerticalGlue());
-
-        pnlContacts.revalidate();
-        pnlContacts.repaint();
+        contactListModel.addContact(contact, peerId);
     }
     
     public void updateContactPanel(String contactId, String peerId, boolean connected) {
-        ContactPanel panel = contactsPanels.get(contactId);
-        if (panel == null) return;
-        
-        if (connected)
-            panel.setConnected(peerId);
-        else
-            panel.setDisconnected();
-    }
-    
-    private void removeGlue() {
-        Component[] components = pnlContacts.getComponents();
-        for (Component comp : components) {
-            if (comp instanceof Box.Filler) {
-                pnlContacts.remove(comp);
-            }
-        }
+        SwingUtilities.invokeLater(() -> contactListModel.updateConnection(contactId, peerId, connected));
     }
     
     public void clearMessageTextField() {
@@ -253,14 +381,7 @@ public class Chat extends javax.swing.JFrame {
     }
     
     public void setContactPanelAsSelected(String contactId) {
-        for (Map.Entry<String, ContactPanel> entry : contactsPanels.entrySet()) {
-            ContactPanel panel = entry.getValue();
-            if (contactId != null && entry.getKey().equals(contactId)) {
-                panel.setAsSelected(true);
-            } else {
-                panel.setAsSelected(false);
-            }
-        }
+        SwingUtilities.invokeLater(() -> contactListModel.setSelected(contactId));
     }
 
     @SuppressWarnings("unchecked")
@@ -7,15 +7,94 @@ public class Constants {
 
     /** API **/
     public static final String API_URL = "https://us-central1-chatp2p-60417.cloudfunctions.net/";
+    public static final long USER_CACHE_TTL_MILLIS = 5 * 60 * 1000;       // Tiempo que un usuario o sus contactos se sirven sin revalidar
+    public static final int USER_CACHE_SIZE = 512;                         // Máximo de usuarios (y de listas de contactos) en caché
     
     /** Configuración de puertos **/
     public static final int MIN_PORT = 1024;
     public static final int MAX_PORT = 65535;
 
+    /** Configuración de la conexión entre Peers **/
+    public static final int MAX_FRAME_SIZE = 8 * 1024 * 1024;             // 8MB máximo por trama
+    public static final String TRANSPORT_PROPERTY = "chat.transport";     // Modo de transporte: "nio" o "blocking"
+    public static final String EXECUTOR_PROPERTY = "chat.executor";       // Hilos de las tareas de red: "virtual" o "platform"
+    public static final int NIO_EVENT_LOOP_THREADS =                       // Hilos que atienden todas las conexiones NIO
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    public static final int WRITE_HIGH_WATERMARK = 1024 * 1024;           // Bytes pendientes a partir de los que se espera
+    public static final int WRITE_LOW_WATERMARK = 256 * 1024;             // Bytes pendientes para volver a escribir
+    public static final int WRITE_BATCH_SIZE = 64 * 1024;                 // Bytes escritos como máximo antes de cada flush
+    public static final long SEND_TIMEOUT_MILLIS = 60000;                 // Espera máxima a que se escriba una trama encolada
+    public static final int INBOUND_HIGH_WATERMARK = 4 * 1024 * 1024;     // Bytes recibidos sin procesar para dejar de leer
+    public static final int INBOUND_LOW_WATERMARK = 1024 * 1024;          // Bytes recibidos sin procesar para volver a leer
+    public static final int INBOUND_DISK_THREADS = 2;                     // Hilos que escriben los archivos recibidos
+    public static final String HEARTBEAT_INTERVAL_PROPERTY = "chat.heartbeat.interval";  // Milisegundos entre PINGs
+    public static final String HEARTBEAT_TIMEOUT_PROPERTY = "chat.heartbeat.timeout";    // Milisegundos sin recibir nada para cerrar
+    public static final long HEARTBEAT_INTERVAL_MILLIS = 5000;
+    public static final long HEARTBEAT_TIMEOUT_MILLIS = 15000;
+    public static final long RECONNECT_WINDOW_MILLIS = 30000;             // Tiempo máximo para recuperar una conexión caída
+    public static final long RECONNECT_BASE_DELAY_MILLIS = 250;           // Espera antes del primer reintento
+    public static final long RECONNECT_MAX_DELAY_MILLIS = 5000;           // Espera máxima entre reintentos
+    public static final int RECONNECT_BUFFER_SIZE = 256;                  // Mensajes guardados mientras se reconecta
+    public static final int DELIVERY_WINDOW_SIZE = 1024;                  // Mensajes sin confirmar o adelantados como máximo
+    public static final long DELIVERY_ACK_DELAY_MILLIS = 20;              // Espera para agrupar varios mensajes en un ACK
+    public static final String COMPRESSION_ALGORITHM = "deflate";          // Compresión anunciada en USER_INFO y RESUME
+    public static final int COMPRESSION_MIN_SIZE = 256;                   // Bytes a partir de los que se comprime una trama
+    public static final double COMPRESSION_MIN_SAVING = 0.1;              // Ahorro mínimo para enviar una trama comprimida
+    public static final long COMPRESSION_MAX_FILE_RATE = 16 * 1024 * 1024; // Bytes/s a partir de los que un archivo va sin comprimir
+    /**
+     * Cifrado de las conexiones: "on" cifra las que se abren y acepta Peers en claro, "off" no cifra
+     * y "required" además rechaza las conexiones entrantes que no empiezan con HANDSHAKE.
+     * Cifrar desactiva el envío de archivos sin copias: el contenido tiene que pasar por el cifrador,
+     * así que supportsFileRegions() es false y los archivos van en FILE_CHUNK en lugar de FILE_DATA
+     */
+    public static final String ENCRYPTION_PROPERTY = "chat.encryption";   // "on", "off" o "required"
+    public static final long HANDSHAKE_TIMEOUT_MILLIS = 10000;            // Espera máxima de la respuesta al handshake
+    public static final long SESSION_TICKET_LIFETIME_MILLIS = 12 * 60 * 60 * 1000L; // Validez de un ticket para reanudar la sesión
+    public static final int SESSION_TICKET_CACHE_SIZE = 256;              // Tickets guardados como máximo
+
+    /** Configuración de transferencia de archivos **/
+    public static final String DOWNLOADS_DIR = "downloads";
+    public static final int FILE_CHUNK_SIZE = 64 * 1024;                   // 64KB por fragmento
+    public static final int FILE_REGION_SIZE = 1024 * 1024;                // 1MB por trozo enviado en bruto
+    public static final int FILE_REGIONS_IN_FLIGHT = 4;                    // Trozos encolados a la vez en la conexión
+    public static final int FILE_BLOCK_SIZE = FILE_CHUNK_SIZE;             // Unidad del mapa de bits de lo recibido
+    public static final long FILE_ACCEPT_TIMEOUT_MILLIS = 30000;           // Espera máxima de la respuesta a un anuncio
+    public static final String FILE_PART_EXTENSION = ".part";              // Archivo parcial mientras se recibe
+    public static final String MAX_INCOMING_FILE_SIZE_PROPERTY = "chat.files.maxSize";  // Bytes máximos de un archivo recibido
+    public static final long MAX_INCOMING_FILE_SIZE = 4L * 1024 * 1024 * 1024;  // 4GB máximo por archivo recibido
+    public static final String FILE_BITMAP_EXTENSION = ".bitmap";          // Bloques recibidos del archivo parcial
+    public static final String FILE_OBJECTS_DIR = ".objects";              // Archivos recibidos por su SHA-256, dentro de descargas
+    public static final int FILE_HASH_CACHE_SIZE = 256;                    // SHA-256 de archivos enviados que se guardan para reenviarlos
+    public static final int TRANSFER_MAX_ACTIVE = 4;                       // Envíos de archivos simultáneos en total
+    public static final int TRANSFER_MAX_ACTIVE_PER_PEER = 2;              // Envíos de archivos simultáneos a un mismo contacto
+    public static final long TRANSFER_CHAT_LATENCY_MILLIS = 50;            // Retraso máximo de un texto por un trozo de archivo
+
+    public static final String[] COMPRESSED_FORMATS = {                    // Extensiones que no se intentan comprimir
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "jar", "docx", "xlsx", "pptx",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov", "ogg", "flac"};
+
+    /** Configuración del historial de mensajes **/
+    public static final String DATABASE_URL = "jdbc:sqlite:chat.db";
+    public static final int HISTORY_PAGE_SIZE = 50;                        // Mensajes cargados por página
+    public static final int HISTORY_WINDOW_SIZE = 500;                     // Mensajes de cada sesión en memoria
+    public static final int MESSAGE_STORE_BATCH_SIZE = 256;                // Máximo de mensajes por transacción
+
+    /** Configuración de la interfaz **/
+    public static final int CHAT_MAX_LINES = 500;                          // Líneas visibles en la ventana de Chat
+    public static final long UI_FRAME_MILLIS = 16;                         // Mínimo entre dos actualizaciones de la interfaz
+    public static final String CONSOLE_SCROLLBACK_PROPERTY = "chat.console.scrollback";  // Líneas que se repintan al limpiar la consola, 0 para ninguna
+    public static final int CONSOLE_SCROLLBACK_LINES = 200;
+    public static final long CONSOLE_FLUSH_MILLIS = 50;                    // Mínimo entre dos escrituras en la consola
+    public static final int CONSOLE_FLUSH_SIZE = 64 * 1024;                // Caracteres acumulados que fuerzan la escritura
+
     /** Configuracion de Avatars **/
     public static final long MAX_FILE_SIZE = 5 * 1024 * 1024;              // 5MB máximo
     public static final int MAX_DIMENSION = 1024;                          // 1024px máximo
     public static final int MIN_DIMENSION = 100;                           // 100px mínimo
     public static final String[] ALLOWED_FORMATS = {"jpg", "jpeg", "png"};
+    public static final int AVATAR_ICON_SIZE = 40;                         // Diámetro del icono de los contactos
+    public static final int AVATAR_MEMORY_CACHE_SIZE = 256;                // Iconos de avatar en memoria
+    public static final int AVATAR_MAX_CONCURRENT_FETCHES = 8;             // Descargas de avatares simultáneas
+    public static final String AVATAR_CACHE_DIR = "cache/avatars";
 
 }
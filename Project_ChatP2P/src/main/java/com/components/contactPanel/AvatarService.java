@@ -0,0 +1,348 @@
+package com.components.contactPanel;
+
+import com.chat.network.socket.ConnectionExecutor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+import static com.chat.utils.Constants.AVATAR_CACHE_DIR;
+import static com.chat.utils.Constants.AVATAR_ICON_SIZE;
+import static com.chat.utils.Constants.AVATAR_MAX_CONCURRENT_FETCHES;
+import static com.chat.utils.Constants.AVATAR_MEMORY_CACHE_SIZE;
+import static com.chat.utils.Constants.MAX_FILE_SIZE;
+
+/**
+ * Carga de los avatares de los contactos fuera del hilo de Swing.
+ *
+ * Los iconos circulares ya pintados se guardan en una caché en memoria limitada (LRU)
+ * y en disco: cada URL apunta al hash SHA-256 del contenido descargado, y el icono
+ * se guarda con ese hash como nombre, de modo que la misma imagen solo se guarda una vez.
+ * Las descargas de una misma URL que coinciden en el tiempo se hacen una sola vez.
+ */
+public class AvatarService {
+
+    /** Propiedades **/
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private static AvatarService instance;                               // Singleton del servicio
+
+    private final Map<String, ImageIcon> memoryCache;                   // Iconos por URL, del menos al más usado
+    private final Map<String, CompletableFuture<ImageIcon>> inFlight;   // Cargas en curso por URL
+    private final Set<String> failed;                                   // URLs que no se han podido cargar
+    private final Map<String, ImageIcon> defaultIcons;                  // Avatares por defecto por inicial
+    private final Semaphore fetchPermits;                               // Descargas simultáneas permitidas
+    private final Path cacheDir;                                        // Carpeta de la caché en disco
+
+    /** Constructor privado Singleton **/
+    private AvatarService() {
+        this.memoryCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageIcon> eldest) {
+                return size() > AVATAR_MEMORY_CACHE_SIZE;
+            }
+        };
+        this.inFlight = new ConcurrentHashMap<>();
+        this.failed = ConcurrentHashMap.newKeySet();
+        this.defaultIcons = new ConcurrentHashMap<>();
+        this.fetchPermits = new Semaphore(AVATAR_MAX_CONCURRENT_FETCHES);
+        this.cacheDir = new File(AVATAR_CACHE_DIR).toPath();
+    }
+
+    /**
+     * Inicializa y devuelve el Singleton del servicio
+     * @return Singleton del servicio de avatares
+     */
+    public static synchronized AvatarService getInstance() {
+        if (instance == null) {
+            instance = new AvatarService();
+        }
+        return instance;
+    }
+
+    /**
+     * Devuelve el icono de una URL si ya está en memoria
+     * @param storageUrl URL del avatar
+     * @return Icono, o null si aún no se ha cargado
+     */
+    public ImageIcon getCachedIcon(String storageUrl) {
+        if (storageUrl == null) return null;
+
+        synchronized (memoryCache) {
+            return memoryCache.get(storageUrl);
+        }
+    }
+
+    /**
+     * Carga el icono de un avatar en segundo plano.
+     * Si ya está en memoria se entrega inmediatamente
+     *
+     * @param storageUrl URL del avatar
+     * @param onLoaded Recibe el icono en el hilo de Swing; no se llama si no se puede cargar
+     */
+    public void loadIcon(String storageUrl, Consumer<ImageIcon> onLoaded) {
+        if (storageUrl == null || failed.contains(storageUrl)) return;
+
+        ImageIcon cached = getCachedIcon(storageUrl);
+        if (cached != null) {
+            deliver(cached, onLoaded);
+            return;
+        }
+
+        CompletableFuture<ImageIcon> created = new CompletableFuture<>();
+        CompletableFuture<ImageIcon> existing = inFlight.putIfAbsent(storageUrl, created);
+
+        if (existing == null) {
+            ConnectionExecutor.getInstance().execute(() -> resolve(storageUrl, created));
+        }
+
+        (existing != null ? existing : created).thenAccept(icon -> {
+            if (icon != null) {
+                deliver(icon, onLoaded);
+            }
+        });
+    }
+
+    /**
+     * Busca el icono en disco o lo descarga, y completa la carga
+     * @param storageUrl URL del avatar
+     * @param future Carga a completar
+     */
+    private void resolve(String storageUrl, CompletableFuture<ImageIcon> future) {
+        ImageIcon icon = null;
+
+        try {
+            BufferedImage image = readFromDisk(storageUrl);
+            if (image == null) {
+                image = fetch(storageUrl);
+            }
+
+            if (image != null) {
+                icon = new ImageIcon(image);
+                synchronized (memoryCache) {
+                    memoryCache.put(storageUrl, icon);
+                }
+            } else {
+                failed.add(storageUrl);
+            }
+        } catch (IOException ex) {
+            failed.add(storageUrl);
+            System.out.println("Error al cargar el avatar " + storageUrl + ": " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.remove(storageUrl);
+            future.complete(icon);
+        }
+    }
+
+    /**
+     * Descarga un avatar, lo pinta circular y lo guarda en disco
+     * @param storageUrl URL del avatar
+     * @return Icono pintado, o null si el contenido no es una imagen
+     */
+    private BufferedImage fetch(String storageUrl) throws IOException, InterruptedException {
+        byte[] data;
+
+        fetchPermits.acquire();
+        try {
+            URLConnection connection = URI.create(storageUrl).toURL().openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+
+            try (InputStream in = connection.getInputStream()) {
+                data = in.readNBytes((int) MAX_FILE_SIZE + 1);
+            }
+        } finally {
+            fetchPermits.release();
+        }
+
+        if (data.length > MAX_FILE_SIZE) {
+            throw new IOException("El avatar supera el tamaño máximo");
+        }
+
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(data));
+        if (original == null) return null;
+
+        BufferedImage circular = createCircularAvatar(original, AVATAR_ICON_SIZE);
+        writeToDisk(storageUrl, sha256(data), circular);
+
+        return circular;
+    }
+
+    /**
+     * Lee de disco el icono de una URL
+     * @param storageUrl URL del avatar
+     * @return Icono, o null si no está en disco
+     */
+    private BufferedImage readFromDisk(String storageUrl) {
+        try {
+            Path reference = cacheDir.resolve(sha256(storageUrl.getBytes(StandardCharsets.UTF_8)) + ".ref");
+            if (!Files.isRegularFile(reference)) return null;
+
+            String contentHash = Files.readString(reference).trim();
+            Path image = cacheDir.resolve(contentHash + ".png");
+            if (!Files.isRegularFile(image)) return null;
+
+            return ImageIO.read(image.toFile());
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Guarda un icono en disco y apunta la URL a su hash de contenido
+     * @param storageUrl URL del avatar
+     * @param contentHash Hash de la imagen descargada
+     * @param icon Icono pintado
+     */
+    private void writeToDisk(String storageUrl, String contentHash, BufferedImage icon) {
+        try {
+            Files.createDirectories(cacheDir);
+
+            Path image = cacheDir.resolve(contentHash + ".png");
+            if (!Files.exists(image)) {
+                Path temp = Files.createTempFile(cacheDir, contentHash, ".tmp");
+                ImageIO.write(icon, "png", temp.toFile());
+                Files.move(temp, image, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            Path reference = cacheDir.resolve(sha256(storageUrl.getBytes(StandardCharsets.UTF_8)) + ".ref");
+            Files.writeString(reference, contentHash);
+        } catch (IOException ex) {
+            System.out.println("No se ha podido guardar el avatar en disco: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Devuelve el avatar por defecto de un usuario: un círculo gris con su inicial
+     * @param username Nombre del usuario
+     * @return Icono por defecto, compartido entre usuarios con la misma inicial
+     */
+    public ImageIcon getDefaultIcon(String username) {
+        String initial = username != null && !username.isEmpty()
+                ? username.substring(0, 1).toUpperCase()
+                : "";
+
+        return defaultIcons.computeIfAbsent(initial, key -> new ImageIcon(createDefaultAvatar(key, AVATAR_ICON_SIZE)));
+    }
+
+    /**
+     * Pinta un avatar por defecto
+     *
+     * @param initial Inicial a mostrar, vacía para no mostrar ninguna
+     * @param diameter Diámetro del círculo
+     * @return Imagen del avatar
+     */
+    private static BufferedImage createDefaultAvatar(String initial, int diameter) {
+        BufferedImage defaultAvatar = new BufferedImage(diameter, diameter, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = defaultAvatar.createGraphics();
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        g2d.setColor(new Color(200, 200, 200));
+        g2d.fill(new Ellipse2D.Float(0, 0, diameter, diameter));
+
+        if (!initial.isEmpty()) {
+            g2d.setColor(Color.WHITE);
+            g2d.setFont(new Font("Arial", Font.BOLD, 20));
+
+            FontMetrics fm = g2d.getFontMetrics();
+            int x = (diameter - fm.stringWidth(initial)) / 2;
+            int y = ((diameter - fm.getHeight()) / 2) + fm.getAscent();
+
+            g2d.drawString(initial, x, y);
+        }
+
+        g2d.dispose();
+
+        return defaultAvatar;
+    }
+
+    /**
+     * Crea una imagen circular a partir de una imagen original
+     *
+     * @param originalImage Imagen original
+     * @param diameter Diámetro del círculo
+     * @return Imagen circular
+     */
+    static BufferedImage createCircularAvatar(BufferedImage originalImage, int diameter) {
+        BufferedImage circularImage = new BufferedImage(diameter, diameter, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = circularImage.createGraphics();
+
+        // Enable antialiasing for smoother edges
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+        // Create circular clip
+        Ellipse2D.Float circle = new Ellipse2D.Float(0, 0, diameter, diameter);
+        g2d.setClip(circle);
+
+        // Calculate dimensions to maintain aspect ratio
+        int size = Math.min(originalImage.getWidth(), originalImage.getHeight());
+        int x = (originalImage.getWidth() - size) / 2;
+        int y = (originalImage.getHeight() - size) / 2;
+
+        // Draw the image maintaining aspect ratio
+        g2d.drawImage(originalImage, 0, 0, diameter, diameter, x, y, x + size, y + size, null);
+
+        g2d.dispose();
+
+        return circularImage;
+    }
+
+    /**
+     * Entrega un icono en el hilo de Swing
+     * @param icon Icono cargado
+     * @param onLoaded Receptor del icono
+     */
+    private void deliver(ImageIcon icon, Consumer<ImageIcon> onLoaded) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            onLoaded.accept(icon);
+        } else {
+            SwingUtilities.invokeLater(() -> onLoaded.accept(icon));
+        }
+    }
+
+    /**
+     * Calcula el hash SHA-256 de unos bytes
+     * @param data Bytes
+     * @return Hash en hexadecimal
+     */
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 no disponible", ex);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.components.contactPanel;
+
+import java.awt.Component;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.ImageIcon;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+
+/**
+ * Pinta las filas de la lista de contactos con un único {@link ContactPanel}.
+ * Si el avatar de una fila aún no está en memoria se pide al servicio de avatares
+ * y la fila se repinta cuando llega.
+ */
+public class ContactCellRenderer implements ListCellRenderer<ContactItem> {
+
+    /** Propiedades **/
+    private final ContactPanel panel;                   // Panel reutilizado para todas las filas
+    private final ContactListModel model;               // Modelo de la lista
+    private final Set<String> requested;                // Avatares ya pedidos
+
+    /** Constructor por parámetros **/
+    public ContactCellRenderer(ContactListModel model) {
+        this.panel = new ContactPanel();
+        this.model = model;
+        this.requested = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends ContactItem> list, ContactItem item,
+                                                  int index, boolean isSelected, boolean cellHasFocus) {
+        ImageIcon avatar = panel.showContact(item);
+
+        String storageUrl = item.storageUrl();
+        if (avatar == null && storageUrl != null && requested.add(storageUrl)) {
+            AvatarService.getInstance().loadIcon(storageUrl, icon -> model.avatarLoaded(storageUrl));
+        }
+
+        return panel;
+    }
+
+    /**
+     * Devuelve el panel con el que se pinta la lista, para localizar sus botones
+     * @return Panel de las filas
+     */
+    public ContactPanel getPanel() {
+        return panel;
+    }
+
+}
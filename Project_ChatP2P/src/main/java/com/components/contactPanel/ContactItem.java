@@ -0,0 +1,41 @@
+package com.components.contactPanel;
+
+import com.chat.model.User;
+
+/**
+ * Fila inmutable de la lista de contactos.
+ * Cualquier cambio de estado se hace sustituyendo la fila en {@link ContactListModel}
+ *
+ * @param user Usuario de contacto
+ * @param peerId ID de la conexión Peer, null si no está conectado
+ * @param connected Estado de la conexión
+ * @param selected True si es el contacto con el que se está chateando
+ */
+public record ContactItem(User user, String peerId, boolean connected, boolean selected) {
+
+    /**
+     * Crea la fila de un contacto sin conexión
+     * @param user Usuario de contacto
+     * @return Fila del contacto
+     */
+    public static ContactItem of(User user) {
+        return new ContactItem(user, null, false, false);
+    }
+
+    public ContactItem withConnection(String newPeerId, boolean newConnected) {
+        return new ContactItem(user, newConnected ? newPeerId : null, newConnected, selected);
+    }
+
+    public ContactItem withSelected(boolean newSelected) {
+        return new ContactItem(user, peerId, connected, newSelected);
+    }
+
+    public String contactId() {
+        return user.getUserId();
+    }
+
+    public String storageUrl() {
+        return user.getAvatar() != null ? user.getAvatar().getStorageUrl() : null;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.components.contactPanel;
+
+import com.chat.model.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Modelo de la lista de contactos.
+ * La lista solo pinta las filas visibles, así que el coste de mostrarla no depende
+ * del número de contactos. Los contactos que se añaden desde otros hilos se agrupan
+ * y se insertan de una vez en el hilo de Swing, con un único aviso a la lista.
+ *
+ * Salvo {@link #addContact}, los métodos deben llamarse desde el hilo de Swing.
+ */
+public class ContactListModel extends AbstractListModel<ContactItem> {
+
+    /** Propiedades **/
+    private final List<ContactItem> items;                // Filas en orden de aparición
+    private final Map<String, Integer> indexByContactId;  // Posición de cada contacto
+    private final Queue<ContactItem> pendingAdds;         // Contactos pendientes de insertar
+    private final AtomicBoolean flushScheduled;           // Hay una inserción encolada en Swing
+    private String selectedContactId;                     // Contacto seleccionado
+
+    /** Constructor por defecto **/
+    public ContactListModel() {
+        this.items = new ArrayList<>();
+        this.indexByContactId = new HashMap<>();
+        this.pendingAdds = new ConcurrentLinkedQueue<>();
+        this.flushScheduled = new AtomicBoolean();
+    }
+
+    @Override
+    public int getSize() {
+        return items.size();
+    }
+
+    @Override
+    public ContactItem getElementAt(int index) {
+        return items.get(index);
+    }
+
+    /**
+     * Sustituye todos los contactos de la lista
+     * @param contacts Lista de contactos
+     */
+    public void setContacts(List<User> contacts) {
+        int oldSize = items.size();
+        items.clear();
+        indexByContactId.clear();
+
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+
+        for (User contact : contacts) {
+            append(ContactItem.of(contact));
+        }
+
+        if (!items.isEmpty()) {
+            fireIntervalAdded(this, 0, items.size() - 1);
+        }
+    }
+
+    /**
+     * Añade un contacto conectado. Puede llamarse desde cualquier hilo:
+     * los contactos añadidos seguidos se insertan juntos
+     *
+     * @param contact Usuario de contacto
+     * @param peerId ID de la conexión Peer
+     */
+    public void addContact(User contact, String peerId) {
+        pendingAdds.add(ContactItem.of(contact).withConnection(peerId, peerId != null));
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flushPendingAdds);
+        }
+    }
+
+    /**
+     * Inserta los contactos pendientes con un único aviso a la lista
+     */
+    private void flushPendingAdds() {
+        flushScheduled.set(false);
+
+        int first = items.size();
+        ContactItem item;
+        while ((item = pendingAdds.poll()) != null) {
+            if (!indexByContactId.containsKey(item.contactId())) {
+                append(item);
+            }
+        }
+
+        if (items.size() > first) {
+            fireIntervalAdded(this, first, items.size() - 1);
+        }
+    }
+
+    /**
+     * Actualiza el estado de conexión de un contacto
+     * @param contactId ID del contacto
+     * @param peerId ID de la conexión Peer
+     * @param connected Estado de la conexión
+     */
+    public void updateConnection(String contactId, String peerId, boolean connected) {
+        Integer index = indexByContactId.get(contactId);
+        if (index == null) return;
+
+        items.set(index, items.get(index).withConnection(peerId, connected));
+        fireContentsChanged(this, index, index);
+    }
+
+    /**
+     * Marca un contacto como seleccionado y desmarca el anterior
+     * @param contactId ID del contacto, null para no seleccionar ninguno
+     */
+    public void setSelected(String contactId) {
+        setSelected(selectedContactId, false);
+        selectedContactId = contactId;
+        setSelected(contactId, true);
+    }
+
+    /**
+     * Repinta las filas de los contactos con un avatar
+     * @param storageUrl URL del avatar
+     */
+    public void avatarLoaded(String storageUrl) {
+        for (int i = 0; i < items.size(); i++) {
+            if (storageUrl.equals(items.get(i).storageUrl())) {
+                fireContentsChanged(this, i, i);
+            }
+        }
+    }
+
+    /**
+     * Cambia la marca de selección de un contacto
+     * @param contactId ID del contacto
+     * @param selected Nueva marca
+     */
+    private void setSelected(String contactId, boolean selected) {
+        Integer index = contactId != null ? indexByContactId.get(contactId) : null;
+        if (index == null) return;
+
+        items.set(index, items.get(index).withSelected(selected));
+        fireContentsChanged(this, index, index);
+    }
+
+    /**
+     * Añade una fila al final sin avisar a la lista
+     * @param item Fila
+     */
+    private void append(ContactItem item) {
+        indexByContactId.put(item.contactId(), items.size());
+        items.add(item.withSelected(item.contactId().equals(selectedContactId)));
+    }
+
+}
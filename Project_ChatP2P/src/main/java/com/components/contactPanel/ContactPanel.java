@@ -13,20 +13,10 @@ import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.Ellipse2D;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -72,7 +62,16 @@ public class ContactPanel extends JPanel {
         setupLayout();
         setupListeners();
         displayUserInfo();
-            
+        loadAvatar();
+    }
+    
+    /**
+     * Constructor del panel con el que {@link ContactCellRenderer} pinta las filas.
+     * No tiene listeners: los clics los atiende la lista
+     */
+    ContactPanel() {
+        initComponents();
+        setupLayout();
     }
     
     /**
@@ -166,25 +165,6 @@ public class ContactPanel extends JPanel {
     public void displayUserInfo() {
         lblName.setText(user.getUsername());
         
-        if (user.getAvatar() != null && user.getAvatar().getStorageUrl() != null) {
-            try {
-                URL url = new URL(user.getAvatar().getStorageUrl());
-                BufferedImage originalImg = ImageIO.read(url);
-                int diameter = 40;
-                BufferedImage circularImg = createCircularAvatar(originalImg, diameter);
-                ImageIcon icon = new ImageIcon(circularImg);
-                lblAvatar.setIcon(icon);
-            } catch (MalformedURLException ex) {
-                Logger.getLogger(ContactPanel.class.getName()).log(Level.SEVERE, "URL del avatar no válida", ex);
-                setDefaultAvatar();
-            } catch (IOException ex) {
-                Logger.getLogger(ContactPanel.class.getName()).log(Level.SEVERE, "Error al cargar la imagen del avatar", ex);
-                setDefaultAvatar();
-            }
-        } else {
-            setDefaultAvatar();
-        }
-        
         btnConnect.setText(isConnected ? "Desconectar" : "Conectar");
         btnConnect.setBackground(isConnected ? new Color(255, 100, 100) : new Color(100, 200, 100));
         btnConnect.setForeground(Color.WHITE);
@@ -194,63 +174,66 @@ public class ContactPanel extends JPanel {
     }
     
     /**
-     * Establece un avatar por defecto
+     * Muestra el avatar por defecto y pide el del contacto al servicio de avatares,
+     * que lo entrega en el hilo de Swing cuando está listo
      */
-    private void setDefaultAvatar() {
-        int diameter = 40;
-        BufferedImage defaultAvatar = new BufferedImage(diameter, diameter, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = defaultAvatar.createGraphics();
-        
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        g2d.setColor(new Color(200, 200, 200));
-        g2d.fill(new Ellipse2D.Float(0, 0, diameter, diameter));
+    private void loadAvatar() {
+        String storageUrl = user.getAvatar() != null ? user.getAvatar().getStorageUrl() : null;
         
-        if (user.getUsername() != null && !user.getUsername().isEmpty()) {
-            g2d.setColor(Color.WHITE);
-            g2d.setFont(new Font("Arial", Font.BOLD, 20));
-            
-            String initial = user.getUsername().substring(0, 1).toUpperCase();
-            FontMetrics fm = g2d.getFontMetrics();
-            int x = (diameter - fm.stringWidth(initial)) / 2;
-            int y = ((diameter - fm.getHeight()) / 2) + fm.getAscent();
-            
-            g2d.drawString(initial, x, y);
+        ImageIcon cached = AvatarService.getInstance().getCachedIcon(storageUrl);
+        if (cached != null) {
+            lblAvatar.setIcon(cached);
+            return;
         }
         
-        g2d.dispose();
-        lblAvatar.setIcon(new ImageIcon(defaultAvatar));
+        setDefaultAvatar();
+        AvatarService.getInstance().loadIcon(storageUrl, icon -> {
+            lblAvatar.setIcon(icon);
+            lblAvatar.repaint();
+        });
     }
     
     /**
-     * Crea una imagen circular a partir de una imagen original
-     *
-     * @param originalImage Imagen original
-     * @param diameter Diámetro del círculo
-     * @return Imagen circular
+     * Establece un avatar por defecto
      */
-    private BufferedImage createCircularAvatar(BufferedImage originalImage, int diameter) {
-        BufferedImage circularImage = new BufferedImage(diameter, diameter, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = circularImage.createGraphics();
-        
-        // Enable antialiasing for smoother edges
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        // Create circular clip
-        Ellipse2D.Float circle = new Ellipse2D.Float(0, 0, diameter, diameter);
-        g2d.setClip(circle);
-        
-        // Calculate dimensions to maintain aspect ratio
-        int size = Math.min(originalImage.getWidth(), originalImage.getHeight());
-        int x = (originalImage.getWidth() - size) / 2;
-        int y = (originalImage.getHeight() - size) / 2;
+    private void setDefaultAvatar() {
+        lblAvatar.setIcon(AvatarService.getInstance().getDefaultIcon(user.getUsername()));
+    }
+    
+    /**
+     * Muestra un contacto de la lista sin crear un panel nuevo.
+     * Lo usa {@link ContactCellRenderer} para pintar cada fila con el mismo panel
+     * 
+     * @param item Contacto a mostrar
+     * @return Avatar en memoria del contacto, o null si se ha mostrado el de por defecto
+     */
+    public ImageIcon showContact(ContactItem item) {
+        this.user = item.user();
+        this.peerId = item.peerId();
+        this.isConnected = item.connected();
         
-        // Draw the image maintaining aspect ratio
-        g2d.drawImage(originalImage, 0, 0, diameter, diameter, x, y, x + size, y + size, null);
+        lblName.setText(user.getUsername());
+        btnConnect.setText(isConnected ? "Desconectar" : "Conectar");
+        btnConnect.setBackground(isConnected ? new Color(255, 100, 100) : new Color(100, 200, 100));
+        btnConnect.setForeground(Color.WHITE);
         
-        g2d.dispose();
+        ImageIcon cached = AvatarService.getInstance().getCachedIcon(item.storageUrl());
+        if (cached != null) {
+            lblAvatar.setIcon(cached);
+        } else {
+            setDefaultAvatar();
+        }
         
-        return circularImage;
+        setAsSelected(item.selected());
+        return cached;
+    }
+    
+    /**
+     * Posición del botón de conectar dentro del panel
+     * @return Límites del botón
+     */
+    public Rectangle getConnectButtonBounds() {
+        return btnConnect.getBounds();
     }
     
     /**